@@ -26,16 +26,19 @@ import com.seyren.api.jaxrs.ChecksResource;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.service.schedule.CheckRegistry;
 import com.seyren.core.store.ChecksStore;
 
 @Named
 public class ChecksBean implements ChecksResource {
     
     private ChecksStore checksStore;
+    private CheckRegistry checkRegistry;
     
     @Inject
-    public ChecksBean(ChecksStore checksStore) {
+    public ChecksBean(ChecksStore checksStore, CheckRegistry checkRegistry) {
         this.checksStore = checksStore;
+        this.checkRegistry = checkRegistry;
     }
     
     @Override
@@ -55,6 +58,7 @@ public class ChecksBean implements ChecksResource {
             check.setState(AlertType.OK);
         }
         Check stored = checksStore.createCheck(check);
+        checkRegistry.reload(stored.getId());
         return Response.created(uri(stored.getId())).build();
     }
     
@@ -65,6 +69,7 @@ public class ChecksBean implements ChecksResource {
             return Response.status(Status.NOT_FOUND).build();
         }
         stored = checksStore.saveCheck(check);
+        checkRegistry.reload(checkId);
         return Response.ok(stored).build();
     }
     
@@ -80,6 +85,7 @@ public class ChecksBean implements ChecksResource {
     @Override
     public Response deleteCheck(String checkId) {
         checksStore.deleteCheck(checkId);
+        checkRegistry.reload(checkId);
         return Response.noContent().build();
     }
     
@@ -0,0 +1,38 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.api.bean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.core.Response;
+
+import com.seyren.api.jaxrs.SchedulerResource;
+import com.seyren.core.service.schedule.CheckScheduler;
+
+@Named
+public class SchedulerBean implements SchedulerResource {
+    
+    private final CheckScheduler checkScheduler;
+    
+    @Inject
+    public SchedulerBean(CheckScheduler checkScheduler) {
+        this.checkScheduler = checkScheduler;
+    }
+    
+    @Override
+    public Response getOverruns() {
+        return Response.ok(checkScheduler.getOverruns()).build();
+    }
+    
+}
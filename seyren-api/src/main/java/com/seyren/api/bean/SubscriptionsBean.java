@@ -22,33 +22,39 @@ import javax.ws.rs.core.Response;
 
 import com.seyren.api.jaxrs.SubscriptionsResource;
 import com.seyren.core.domain.Subscription;
+import com.seyren.core.service.schedule.CheckRegistry;
 import com.seyren.core.store.SubscriptionsStore;
 
 @Named
 public class SubscriptionsBean implements SubscriptionsResource {
     
     private SubscriptionsStore subscriptionsStore;
+    private CheckRegistry checkRegistry;
     
     @Inject
-    public SubscriptionsBean(SubscriptionsStore subscriptionsStore) {
+    public SubscriptionsBean(SubscriptionsStore subscriptionsStore, CheckRegistry checkRegistry) {
         this.subscriptionsStore = subscriptionsStore;
+        this.checkRegistry = checkRegistry;
     }
     
     @Override
     public Response createSubscription(String checkId, Subscription subscription) {
         Subscription stored = subscriptionsStore.createSubscription(checkId, subscription);
+        checkRegistry.reload(checkId);
         return Response.created(uri(checkId, stored.getId())).build();
     }
     
     @Override
     public Response updateSubscription(String checkId, Subscription subscription) {
         subscriptionsStore.updateSubscription(checkId, subscription);
+        checkRegistry.reload(checkId);
         return Response.noContent().build();
     }
     
     @Override
     public Response deleteSubscription(String checkId, String subscriptionId) {
         subscriptionsStore.deleteSubscription(checkId, subscriptionId);
+        checkRegistry.reload(checkId);
         return Response.noContent().build();
     }
     
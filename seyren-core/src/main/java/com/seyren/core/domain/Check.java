@@ -17,10 +17,14 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.joda.time.DateTime;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.deser.std.NumberDeserializers.BigDecimalDeserializer;
+import com.fasterxml.jackson.datatype.joda.deser.DateTimeDeserializer;
+import com.fasterxml.jackson.datatype.joda.ser.DateTimeSerializer;
 import com.seyren.core.util.math.BigDecimalSerializer;
 
 /**
@@ -41,8 +45,14 @@ public class Check {
     private String target;
     private BigDecimal warn;
     private BigDecimal error;
+    private Integer interval;
+    private String from;
+    private String until;
+    private String replicaGroup;
+    private CheckPriority priority;
     private boolean enabled;
     private AlertType state;
+    private DateTime lastModified;
     private List<Subscription> subscriptions = new ArrayList<Subscription>();
     
     public String getId() {
@@ -140,6 +150,94 @@ public class Check {
         return this;
     }
     
+    /**
+     * @return the number of seconds between evaluations of this check, or
+     *         null if the scheduler default applies
+     */
+    public Integer getInterval() {
+        return interval;
+    }
+    
+    public void setInterval(Integer interval) {
+        this.interval = interval;
+    }
+    
+    public Check withInterval(Integer interval) {
+        setInterval(interval);
+        return this;
+    }
+    
+    /**
+     * @return the start of the time window fetched from Graphite, as a
+     *         Graphite time such as -11minutes, or null if the default
+     *         applies
+     */
+    public String getFrom() {
+        return from;
+    }
+    
+    public void setFrom(String from) {
+        this.from = from;
+    }
+    
+    public Check withFrom(String from) {
+        setFrom(from);
+        return this;
+    }
+    
+    /**
+     * @return the end of the time window fetched from Graphite, as a
+     *         Graphite time such as -1minutes, or null if the default
+     *         applies
+     */
+    public String getUntil() {
+        return until;
+    }
+    
+    public void setUntil(String until) {
+        this.until = until;
+    }
+    
+    public Check withUntil(String until) {
+        setUntil(until);
+        return this;
+    }
+    
+    /**
+     * @return the replica group of Graphite instances which hold the same
+     *         data as this check's instance and may answer for it, or null
+     *         if only its own instance is asked
+     */
+    public String getReplicaGroup() {
+        return replicaGroup;
+    }
+    
+    public void setReplicaGroup(String replicaGroup) {
+        this.replicaGroup = replicaGroup;
+    }
+    
+    public Check withReplicaGroup(String replicaGroup) {
+        setReplicaGroup(replicaGroup);
+        return this;
+    }
+    
+    /**
+     * @return how urgently this check should run when the scheduler is
+     *         overloaded, or null for {@link CheckPriority#NORMAL}
+     */
+    public CheckPriority getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(CheckPriority priority) {
+        this.priority = priority;
+    }
+    
+    public Check withPriority(CheckPriority priority) {
+        setPriority(priority);
+        return this;
+    }
+    
     public boolean isEnabled() {
         return enabled;
     }
@@ -166,6 +264,25 @@ public class Check {
         return this;
     }
     
+    /**
+     * @return when the check or its subscriptions were last changed, not
+     *         counting changes of state
+     */
+    @JsonSerialize(using = DateTimeSerializer.class)
+    public DateTime getLastModified() {
+        return lastModified;
+    }
+    
+    @JsonDeserialize(using = DateTimeDeserializer.class)
+    public void setLastModified(DateTime lastModified) {
+        this.lastModified = lastModified;
+    }
+    
+    public Check withLastModified(DateTime lastModified) {
+        setLastModified(lastModified);
+        return this;
+    }
+    
     public List<Subscription> getSubscriptions() {
         return subscriptions;
     }
@@ -16,6 +16,14 @@ public class GraphiteInstance {
 	private String id;
 	private String name;
 	private String baseUrl;
+	private Integer maxConcurrentRequests;
+	private Double maxRequestsPerSecond;
+	private Integer maxConnections;
+	private Integer connectTimeoutMillis;
+	private Integer socketTimeoutMillis;
+	private Integer requestTimeoutMillis;
+	private Integer keepAliveMillis;
+	private String replicaGroup;
 	
 	public String getId() { return id; }
 	
@@ -43,4 +51,76 @@ public class GraphiteInstance {
 		setBaseUrl(baseUrl);
 		return this;
 	}
+	
+	public Integer getMaxConcurrentRequests() { return maxConcurrentRequests; }
+	
+	public void setMaxConcurrentRequests(Integer maxConcurrentRequests) { this.maxConcurrentRequests = maxConcurrentRequests; }
+	
+	public GraphiteInstance withMaxConcurrentRequests(Integer maxConcurrentRequests) {
+		setMaxConcurrentRequests(maxConcurrentRequests);
+		return this;
+	}
+	
+	public Double getMaxRequestsPerSecond() { return maxRequestsPerSecond; }
+	
+	public void setMaxRequestsPerSecond(Double maxRequestsPerSecond) { this.maxRequestsPerSecond = maxRequestsPerSecond; }
+	
+	public GraphiteInstance withMaxRequestsPerSecond(Double maxRequestsPerSecond) {
+		setMaxRequestsPerSecond(maxRequestsPerSecond);
+		return this;
+	}
+	
+	public Integer getMaxConnections() { return maxConnections; }
+	
+	public void setMaxConnections(Integer maxConnections) { this.maxConnections = maxConnections; }
+	
+	public GraphiteInstance withMaxConnections(Integer maxConnections) {
+		setMaxConnections(maxConnections);
+		return this;
+	}
+	
+	public Integer getConnectTimeoutMillis() { return connectTimeoutMillis; }
+	
+	public void setConnectTimeoutMillis(Integer connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+	
+	public GraphiteInstance withConnectTimeoutMillis(Integer connectTimeoutMillis) {
+		setConnectTimeoutMillis(connectTimeoutMillis);
+		return this;
+	}
+	
+	public Integer getSocketTimeoutMillis() { return socketTimeoutMillis; }
+	
+	public void setSocketTimeoutMillis(Integer socketTimeoutMillis) { this.socketTimeoutMillis = socketTimeoutMillis; }
+	
+	public GraphiteInstance withSocketTimeoutMillis(Integer socketTimeoutMillis) {
+		setSocketTimeoutMillis(socketTimeoutMillis);
+		return this;
+	}
+	
+	public Integer getRequestTimeoutMillis() { return requestTimeoutMillis; }
+	
+	public void setRequestTimeoutMillis(Integer requestTimeoutMillis) { this.requestTimeoutMillis = requestTimeoutMillis; }
+	
+	public GraphiteInstance withRequestTimeoutMillis(Integer requestTimeoutMillis) {
+		setRequestTimeoutMillis(requestTimeoutMillis);
+		return this;
+	}
+	
+	public Integer getKeepAliveMillis() { return keepAliveMillis; }
+	
+	public void setKeepAliveMillis(Integer keepAliveMillis) { this.keepAliveMillis = keepAliveMillis; }
+	
+	public GraphiteInstance withKeepAliveMillis(Integer keepAliveMillis) {
+		setKeepAliveMillis(keepAliveMillis);
+		return this;
+	}
+	
+	public String getReplicaGroup() { return replicaGroup; }
+	
+	public void setReplicaGroup(String replicaGroup) { this.replicaGroup = replicaGroup; }
+	
+	public GraphiteInstance withReplicaGroup(String replicaGroup) {
+		setReplicaGroup(replicaGroup);
+		return this;
+	}
 }
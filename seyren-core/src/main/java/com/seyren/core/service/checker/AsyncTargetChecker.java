@@ -0,0 +1,33 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.seyren.core.domain.Check;
+
+/**
+ * A {@link TargetChecker} which can also fetch without holding the calling
+ * thread while Graphite answers.
+ */
+public interface AsyncTargetChecker extends TargetChecker {
+	
+    /**
+     * @return the target values, completed on whichever thread receives the
+     *         response, or straight away if nothing needs waiting for
+     */
+    ListenableFuture<Map<String, Optional<Double>>> checkAsync(Check check);
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.seyren.core.domain.Check;
+
+/**
+ * Fetches the targets of several checks against the same Graphite instance
+ * and replica group, over the same time window, at once. Only checks whose target is a plain metric path can be batched,
+ * because the series have to be matched back to the checks by name.
+ */
+public interface BatchTargetChecker {
+	
+    /**
+     * @return the target values of each check, keyed by check id
+     */
+    Map<String, Map<String, Optional<Double>>> check(List<Check> checks) throws Exception;
+}
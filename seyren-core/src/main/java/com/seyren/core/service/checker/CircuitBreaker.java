@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+/**
+ * Stops sending requests to a backend which keeps failing. After a number
+ * of failures in a row the breaker opens and every request fails at once.
+ * Once the open period is over a single probe is let through: if it
+ * succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntilMillis;
+
+    /**
+     * @param failureThreshold the failures in a row which open the breaker
+     * @param openMillis how long the breaker stays open before a probe
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be greater than 0: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may be sent, in which case its outcome must
+     *         be recorded
+     */
+    public synchronized boolean allowRequest(long nowMillis) {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (nowMillis < openUntilMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            return true;
+        default:
+            // The probe is still out
+            return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean recordFailure(long nowMillis) {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntilMillis = nowMillis + openMillis;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.springframework.context.annotation.Primary;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.seyren.core.domain.Check;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Makes sure that checks with the same target against the same Graphite
+ * instance, which differ only in thresholds or subscriptions, don't each
+ * fetch it. While one fetch of a target is under way, any other check
+ * wanting the same target waits for that fetch and shares its result.
+ *
+ * Results are shared, not kept: once a fetch completes, the next check
+ * wanting the target asks again. Fetches go through the
+ * {@link WhisperTargetChecker}, which reads co-located Whisper files where
+ * it can, and otherwise to GraphiteTargetChecker, whose {@link RenderCache}
+ * decides whether that needs a request.
+ */
+@Named
+@Primary
+public class CoalescingTargetChecker implements AsyncTargetChecker {
+
+    private final AsyncTargetChecker delegate;
+    private final ThresholdPushdown thresholdPushdown;
+    private final ConcurrentMap<String, SettableFuture<Map<String, Optional<Double>>>> fetches = new ConcurrentHashMap<String, SettableFuture<Map<String, Optional<Double>>>>();
+    private final Counter coalesced;
+
+    @Inject
+    public CoalescingTargetChecker(@Named("whisperTargetChecker") AsyncTargetChecker delegate, ThresholdPushdown thresholdPushdown) {
+        this.delegate = delegate;
+        this.thresholdPushdown = thresholdPushdown;
+        this.coalesced = Metrics.newCounter(CoalescingTargetChecker.class, "coalesced-fetches");
+
+        Metrics.newGauge(CoalescingTargetChecker.class, "fetches-in-flight", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return fetches.size();
+            }
+        });
+    }
+
+    @Override
+    public Map<String, Optional<Double>> check(Check check) throws Exception {
+        String key = keyOf(check);
+        SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+        SettableFuture<Map<String, Optional<Double>>> existing = fetches.putIfAbsent(key, fetch);
+        if (existing != null) {
+            coalesced.inc();
+            return await(existing);
+        }
+
+        try {
+            Map<String, Optional<Double>> targetValues = Collections.unmodifiableMap(delegate.check(check));
+            fetch.set(targetValues);
+            return targetValues;
+        } catch (Throwable t) {
+            fetch.setException(t);
+            Throwables.propagateIfInstanceOf(t, Exception.class);
+            throw Throwables.propagate(t);
+        } finally {
+            fetches.remove(key, fetch);
+        }
+    }
+
+    /**
+     * Shares fetches as {@link #check(Check)} does, without waiting for
+     * them.
+     */
+    @Override
+    public ListenableFuture<Map<String, Optional<Double>>> checkAsync(Check check) {
+        final String key = keyOf(check);
+        final SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+        SettableFuture<Map<String, Optional<Double>>> existing = fetches.putIfAbsent(key, fetch);
+        if (existing != null) {
+            coalesced.inc();
+            return existing;
+        }
+
+        ListenableFuture<Map<String, Optional<Double>>> delegated;
+        try {
+            delegated = delegate.checkAsync(check);
+        } catch (RuntimeException e) {
+            delegated = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(delegated, new FutureCallback<Map<String, Optional<Double>>>() {
+            @Override
+            public void onSuccess(Map<String, Optional<Double>> targetValues) {
+                fetch.set(Collections.unmodifiableMap(targetValues));
+                fetches.remove(key, fetch);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                fetch.setException(t);
+                fetches.remove(key, fetch);
+            }
+        });
+        return fetch;
+    }
+
+    private Map<String, Optional<Double>> await(SettableFuture<Map<String, Optional<Double>>> fetch) throws Exception {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * The instance, time window and requested target identify a fetch. A
+     * window left to the default and the same window set on the check fetch
+     * separately.
+     */
+    private String keyOf(Check check) {
+        return check.getGraphiteBaseUrl() + " " + check.getFrom() + " " + check.getUntil() + " " + thresholdPushdown.targetFor(check);
+    }
+
+}
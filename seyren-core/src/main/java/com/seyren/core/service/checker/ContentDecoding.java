@@ -0,0 +1,234 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+/**
+ * Asks Graphite for a gzip or deflate compressed response and decompresses
+ * it as it is read, so that the response is never held whole in either
+ * form. Counts the bytes received and the bytes they decoded to.
+ */
+public class ContentDecoding implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private final Counter bytesOnWire;
+    private final Counter bytesDecoded;
+
+    public ContentDecoding() {
+        this.bytesOnWire = Metrics.newCounter(ContentDecoding.class, "bytes-on-wire");
+        this.bytesDecoded = Metrics.newCounter(ContentDecoding.class, "bytes-decoded");
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        if (!request.containsHeader(ACCEPT_ENCODING)) {
+            request.addHeader(ACCEPT_ENCODING, "gzip,deflate");
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        Header header = entity.getContentEncoding();
+        String encoding = header == null ? "identity" : header.getValue().trim().toLowerCase();
+        if (!encoding.equals("gzip") && !encoding.equals("x-gzip") && !encoding.equals("deflate") && !encoding.equals("identity")) {
+            throw new HttpException("Unsupported Content-Encoding: " + encoding);
+        }
+        response.setEntity(new DecodedEntity(entity, encoding));
+        if (!encoding.equals("identity")) {
+            response.removeHeaders("Content-Length");
+            response.removeHeaders("Content-Encoding");
+            response.removeHeaders("Content-MD5");
+        }
+    }
+
+    /**
+     * Passes an abort through to the connection under the wrapped entity.
+     */
+    private final class DecodedEntity extends HttpEntityWrapper implements ConnectionReleaseTrigger {
+
+        private final String encoding;
+        private InputStream content;
+
+        private DecodedEntity(HttpEntity wrapped, String encoding) {
+            super(wrapped);
+            this.encoding = encoding;
+        }
+
+        /**
+         * The same stream is returned each time, as the wrapped one can
+         * only be read once.
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                CountingInputStream onWire = new CountingInputStream(wrappedEntity.getContent());
+                InputStream decoded;
+                if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+                    decoded = new GZIPInputStream(onWire);
+                } else if (encoding.equals("deflate")) {
+                    decoded = inflating(onWire);
+                } else {
+                    decoded = onWire;
+                }
+                content = new CountedStream(decoded, onWire);
+            }
+            return content;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return encoding.equals("identity") ? wrappedEntity.getContentEncoding() : null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return encoding.equals("identity") ? wrappedEntity.getContentLength() : -1;
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            if (wrappedEntity instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) wrappedEntity).releaseConnection();
+            }
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            if (wrappedEntity instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) wrappedEntity).abortConnection();
+            }
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                ByteStreams.copy(in, out);
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    /**
+     * Deflate is meant to be a zlib stream, but some servers send the raw
+     * deflate data without the zlib header and checksum. A zlib header is
+     * told apart by its compression method and by being a multiple of 31.
+     */
+    static InputStream inflating(InputStream onWire) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(onWire, 2);
+        byte[] header = new byte[2];
+        int read = ByteStreams.read(in, header, 0, header.length);
+        in.unread(header, 0, read);
+        int first = header[0] & 0xff;
+        int second = header[1] & 0xff;
+        if (read == 2 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0) {
+            return new InflaterInputStream(in);
+        }
+        final Inflater raw = new Inflater(true);
+        return new InflaterInputStream(in, raw) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Only the default inflater is ended by the stream itself
+                    raw.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds to the counters once, when the response is closed.
+     */
+    private final class CountedStream extends FilterInputStream {
+
+        private final CountingInputStream onWire;
+        private long decoded;
+        private boolean closed;
+
+        private CountedStream(InputStream in, CountingInputStream onWire) {
+            super(in);
+            this.onWire = onWire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                decoded++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                decoded += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            decoded += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                bytesOnWire.inc(onWire.getCount());
+                bytesDecoded.inc(decoded);
+            }
+            super.close();
+        }
+
+    }
+
+}
@@ -14,38 +14,150 @@
 package com.seyren.core.service.checker;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Named;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.seyren.core.domain.AlertType;
+import com.seyren.core.util.config.SeyrenConfig;
 
+/**
+ * Checks values against a check's thresholds. A check with at least
+ * SEYREN_PARALLEL_EVALUATION_THRESHOLD series is split into one slice per
+ * core, each checked on its own thread.
+ */
 @Named
 public class DefaultValueChecker implements ValueChecker {
     
+    private final int parallelThreshold;
+    private final int slices;
+    private final ExecutorService executor;
+    
+    public DefaultValueChecker() {
+        this(0);
+    }
+    
+    @Inject
+    public DefaultValueChecker(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.getParallelEvaluationThreshold());
+    }
+    
+    DefaultValueChecker(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        this.slices = Runtime.getRuntime().availableProcessors();
+        this.executor = parallelThreshold <= 0 ? null : Executors.newFixedThreadPool(slices,
+                new ThreadFactoryBuilder().setNameFormat("seyren.value-checker-%s").setDaemon(true).build());
+    }
+    
     @Override
     public AlertType checkValue(BigDecimal value, BigDecimal warn, BigDecimal error) {
-        
-        boolean isHighValueWorse = isTheValueBeingHighWorse(warn, error);
-        
-        if (isBeyondThreshold(value, error, isHighValueWorse)) {
-            return AlertType.ERROR;
-        } else if (isBeyondThreshold(value, warn, isHighValueWorse)) {
-            return AlertType.WARN;
+        return Thresholds.of(warn, error).stateOf(value);
+    }
+    
+    @Override
+    public StateTransitions checkValues(double[] values, AlertType[] lastStates, Thresholds thresholds) {
+        AlertType[] states = new AlertType[values.length];
+        if (executor == null || values.length < parallelThreshold || slices < 2) {
+            return new Slice(values, lastStates, thresholds, states, 0, values.length).call();
         }
         
-        return AlertType.OK;
+        List<Future<StateTransitions>> futures = new ArrayList<Future<StateTransitions>>(slices);
+        int sliceSize = (values.length + slices - 1) / slices;
+        for (int from = 0; from < values.length; from += sliceSize) {
+            futures.add(executor.submit(new Slice(values, lastStates, thresholds, states, from, Math.min(values.length, from + sliceSize))));
+        }
         
+        // Slices are in order, so joining their alerting indexes keeps them in order
+        List<int[]> alerting = new ArrayList<int[]>(futures.size());
+        int alertingCount = 0;
+        AlertType worstState = AlertType.UNKNOWN;
+        for (Future<StateTransitions> future : futures) {
+            StateTransitions slice = get(future);
+            alerting.add(slice.getAlerting());
+            alertingCount += slice.getAlerting().length;
+            if (slice.getWorstState().isWorseThan(worstState)) {
+                worstState = slice.getWorstState();
+            }
+        }
+        int[] joined = new int[alertingCount];
+        int position = 0;
+        for (int[] indexes : alerting) {
+            System.arraycopy(indexes, 0, joined, position, indexes.length);
+            position += indexes.length;
+        }
+        return new StateTransitions(states, joined, worstState);
+    }
+    
+    private static StateTransitions get(Future<StateTransitions> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
     
-    private boolean isBeyondThreshold(BigDecimal value, BigDecimal threshold, boolean isHighValueWorse) {
-        if (isHighValueWorse) {
-            return value.compareTo(threshold) >= 0;
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
         }
-        return value.compareTo(threshold) <= 0;
     }
     
-    private boolean isTheValueBeingHighWorse(BigDecimal warn, BigDecimal error) {
-        return warn.compareTo(error) <= 0;
+    /**
+     * Checks the series from one index up to another, writing their states
+     * into the shared array.
+     */
+    private static final class Slice implements Callable<StateTransitions> {
+        
+        private final double[] values;
+        private final AlertType[] lastStates;
+        private final Thresholds thresholds;
+        private final AlertType[] states;
+        private final int from;
+        private final int to;
+        
+        private Slice(double[] values, AlertType[] lastStates, Thresholds thresholds, AlertType[] states, int from, int to) {
+            this.values = values;
+            this.lastStates = lastStates;
+            this.thresholds = thresholds;
+            this.states = states;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        public StateTransitions call() {
+            int[] alerting = new int[to - from];
+            int alertingCount = 0;
+            AlertType worstState = AlertType.UNKNOWN;
+            for (int i = from; i < to; i++) {
+                AlertType state = thresholds.stateOf(values[i]);
+                states[i] = state;
+                if (state.isWorseThan(worstState)) {
+                    worstState = state;
+                }
+                if (state != AlertType.OK || lastStates[i] != AlertType.OK) {
+                    alerting[alertingCount++] = i;
+                }
+            }
+            int[] trimmed = new int[alertingCount];
+            System.arraycopy(alerting, 0, trimmed, 0, alertingCount);
+            return new StateTransitions(states, trimmed, worstState);
+        }
+        
     }
     
 }
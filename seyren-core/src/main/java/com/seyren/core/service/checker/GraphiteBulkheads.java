@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.store.GraphiteInstancesStore;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * Keeps each Graphite instance in its own compartment, so that a slow or
+ * overloaded instance can't take every check thread and connection with it.
+ *
+ * Each instance allows a number of requests at once and, optionally, a
+ * number of requests per second. The limits come from the instance's
+ * record in the graphiteInstances collection, falling back to
+ * SEYREN_GRAPHITE_MAX_CONCURRENT and SEYREN_GRAPHITE_MAX_RATE. Unless set,
+ * the concurrency limit shares the SEYREN_THREADS fetch threads out among
+ * the instances, and never gives one instance more than half of them. A
+ * request over either limit is refused straight away rather than queued,
+ * and the check waits for its next interval. Refusals are counted against
+ * the instance.
+ */
+@Named
+public class GraphiteBulkheads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteBulkheads.class);
+
+    private final GraphiteInstancesStore graphiteInstancesStore;
+    private final int configuredMaxConcurrent;
+    private final int numThreads;
+    private volatile int defaultMaxConcurrent;
+    private final double defaultMaxRate;
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+    @Inject
+    public GraphiteBulkheads(GraphiteInstancesStore graphiteInstancesStore, SeyrenConfig seyrenConfig) {
+        this.graphiteInstancesStore = graphiteInstancesStore;
+        this.configuredMaxConcurrent = seyrenConfig.getGraphiteMaxConcurrentRequests();
+        this.numThreads = seyrenConfig.getNumThreads();
+        this.defaultMaxConcurrent = defaultMaxConcurrentFor(1);
+        this.defaultMaxRate = seyrenConfig.getGraphiteMaxRequestsPerSecond();
+    }
+
+    /**
+     * @return the bulkhead for the instance at the base URL, which has the
+     *         default limits if the instance isn't on record
+     */
+    public Bulkhead bulkheadFor(String baseUrl) {
+        String key = baseUrl == null ? "" : baseUrl;
+        Bulkhead bulkhead = bulkheads.get(key);
+        if (bulkhead == null) {
+            Bulkhead created = new Bulkhead(key, defaultMaxConcurrent, defaultMaxRate);
+            bulkhead = bulkheads.putIfAbsent(key, created);
+            if (bulkhead == null) {
+                bulkhead = created;
+                registerGauges(key);
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * @return SEYREN_GRAPHITE_MAX_CONCURRENT if set, otherwise an even share
+     *         of the fetch threads which is at most half of them
+     */
+    int defaultMaxConcurrentFor(int instances) {
+        if (configuredMaxConcurrent > 0) {
+            return configuredMaxConcurrent;
+        }
+        return Math.max(1, numThreads / Math.max(2, instances));
+    }
+
+    /**
+     * Picks up changes to the limits of each instance, and to the default
+     * limit as instances come and go. A bulkhead whose limits change is
+     * replaced; requests already holding a place in the old one simply
+     * return it there.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void refresh() {
+        try {
+            Collection<GraphiteInstance> instances = graphiteInstancesStore.getGraphiteInstances().getValues();
+            Set<String> known = new HashSet<String>(bulkheads.keySet());
+            Set<String> onRecord = new HashSet<String>();
+            for (GraphiteInstance instance : instances) {
+                if (instance.getBaseUrl() != null) {
+                    known.add(instance.getBaseUrl());
+                }
+            }
+            defaultMaxConcurrent = defaultMaxConcurrentFor(known.size());
+
+            for (GraphiteInstance instance : instances) {
+                if (instance.getBaseUrl() == null) {
+                    continue;
+                }
+                onRecord.add(instance.getBaseUrl());
+                int maxConcurrent = instance.getMaxConcurrentRequests() == null ? defaultMaxConcurrent : instance.getMaxConcurrentRequests();
+                double maxRate = instance.getMaxRequestsPerSecond() == null ? defaultMaxRate : instance.getMaxRequestsPerSecond();
+                installIfChanged(instance.getBaseUrl(), maxConcurrent, maxRate);
+            }
+            for (String baseUrl : bulkheads.keySet()) {
+                if (!onRecord.contains(baseUrl)) {
+                    installIfChanged(baseUrl, defaultMaxConcurrent, defaultMaxRate);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Refreshing Graphite instance limits failed", e);
+        }
+    }
+
+    private void installIfChanged(String baseUrl, int maxConcurrent, double maxRate) {
+        Bulkhead current = bulkheads.get(baseUrl);
+        if (current == null || current.maxConcurrent != maxConcurrent || current.maxRate != maxRate) {
+            install(baseUrl, maxConcurrent, maxRate);
+        }
+    }
+
+    private void install(String baseUrl, int maxConcurrent, double maxRate) {
+        if (bulkheads.put(baseUrl, new Bulkhead(baseUrl, maxConcurrent, maxRate)) == null) {
+            registerGauges(baseUrl);
+        }
+        LOGGER.info("Graphite instance {} allows {} concurrent requests and {} requests per second", new Object[] { baseUrl, maxConcurrent,
+                maxRate > 0 ? maxRate : "unlimited" });
+    }
+
+    /**
+     * The gauges look the bulkhead up each time so that they follow a
+     * replacement.
+     */
+    private void registerGauges(final String baseUrl) {
+        Metrics.newGauge(metricName("in-flight", baseUrl), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return bulkheads.get(baseUrl).getInFlight();
+            }
+        });
+        Metrics.newGauge(metricName("max-concurrent", baseUrl), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return bulkheads.get(baseUrl).maxConcurrent;
+            }
+        });
+    }
+
+    private static MetricName metricName(String metric, String baseUrl) {
+        return new MetricName(GraphiteBulkheads.class, metric, baseUrl);
+    }
+
+    public static final class Bulkhead {
+
+        private final int maxConcurrent;
+        private final double maxRate;
+        private final Semaphore inFlight;
+        private final TokenBucket rate;
+        private final Meter requests;
+        private final Counter rejected;
+        private final Counter throttled;
+
+        private Bulkhead(String baseUrl, int maxConcurrent, double maxRate) {
+            this.maxConcurrent = maxConcurrent;
+            this.maxRate = maxRate;
+            this.inFlight = new Semaphore(Math.max(1, maxConcurrent));
+            this.rate = maxRate > 0 ? new TokenBucket(maxRate, System.currentTimeMillis()) : null;
+            this.requests = Metrics.newMeter(metricName("requests", baseUrl), "requests", TimeUnit.SECONDS);
+            this.rejected = Metrics.newCounter(metricName("rejected", baseUrl));
+            this.throttled = Metrics.newCounter(metricName("throttled", baseUrl));
+        }
+
+        /**
+         * @return true if the request may go ahead, in which case
+         *         {@link #release()} must follow
+         */
+        public boolean tryAcquire() {
+            if (!inFlight.tryAcquire()) {
+                rejected.inc();
+                return false;
+            }
+            if (rate != null && !rate.tryAcquire(System.currentTimeMillis())) {
+                inFlight.release();
+                throttled.inc();
+                return false;
+            }
+            requests.mark();
+            return true;
+        }
+
+        public void release() {
+            inFlight.release();
+        }
+
+        public int getInFlight() {
+            return Math.max(1, maxConcurrent) - inFlight.availablePermits();
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * A circuit breaker for each Graphite instance, so that checks against an
+ * instance which is down fail at once instead of each waiting for a
+ * timeout. The breaker opens after SEYREN_GRAPHITE_BREAKER_FAILURES
+ * failed requests in a row and lets a single probe through after
+ * SEYREN_GRAPHITE_BREAKER_OPEN milliseconds. A threshold of 0 turns the
+ * breakers off.
+ *
+ * Listeners are told once when an instance's breaker opens and once when a
+ * probe closes it again, however many probes fail in between.
+ */
+@Named
+public class GraphiteCircuitBreakers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteCircuitBreakers.class);
+
+    public interface Listener {
+
+        void opened(String baseUrl);
+
+        void closed(String baseUrl);
+
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<String, Breaker>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    @Inject
+    public GraphiteCircuitBreakers(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.getGraphiteBreakerFailures(), seyrenConfig.getGraphiteBreakerOpenMillis());
+    }
+
+    GraphiteCircuitBreakers(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return true if the instance's breaker has opened and no probe has
+     *         succeeded since
+     */
+    public boolean isOpen(String baseUrl) {
+        Breaker breaker = failureThreshold <= 0 ? null : breakers.get(baseUrl == null ? "" : baseUrl);
+        return breaker != null && breaker.open.get();
+    }
+
+    /**
+     * @return true if a request may be sent to the instance, in which case
+     *         {@link #recordSuccess(String)} or
+     *         {@link #recordFailure(String)} must follow
+     */
+    public boolean allowRequest(String baseUrl) {
+        Breaker breaker = breakerFor(baseUrl);
+        if (breaker == null) {
+            return true;
+        }
+        if (breaker.circuit.allowRequest(System.currentTimeMillis())) {
+            return true;
+        }
+        breaker.fastFailed.inc();
+        return false;
+    }
+
+    public void recordSuccess(String baseUrl) {
+        Breaker breaker = breakerFor(baseUrl);
+        if (breaker != null) {
+            breaker.circuit.recordSuccess();
+            if (breaker.open.compareAndSet(true, false)) {
+                LOGGER.info("Graphite instance {} is answering again", baseUrl);
+                for (Listener listener : listeners) {
+                    try {
+                        listener.closed(baseUrl);
+                    } catch (Exception e) {
+                        LOGGER.warn("Telling a listener that " + baseUrl + " is answering again failed", e);
+                    }
+                }
+            }
+        }
+    }
+
+    public void recordFailure(String baseUrl) {
+        Breaker breaker = breakerFor(baseUrl);
+        if (breaker != null && breaker.circuit.recordFailure(System.currentTimeMillis()) && breaker.open.compareAndSet(false, true)) {
+            LOGGER.warn("Graphite instance {} keeps failing, failing its checks at once for {}ms", baseUrl, openMillis);
+            for (Listener listener : listeners) {
+                try {
+                    listener.opened(baseUrl);
+                } catch (Exception e) {
+                    LOGGER.warn("Telling a listener that " + baseUrl + " is failing failed", e);
+                }
+            }
+        }
+    }
+
+    private Breaker breakerFor(String baseUrl) {
+        if (failureThreshold <= 0) {
+            return null;
+        }
+        final String key = baseUrl == null ? "" : baseUrl;
+        Breaker breaker = breakers.get(key);
+        if (breaker == null) {
+            Breaker created = new Breaker(key, new CircuitBreaker(failureThreshold, openMillis));
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+                Metrics.newGauge(new MetricName(GraphiteCircuitBreakers.class, "state", key), new Gauge<String>() {
+                    @Override
+                    public String value() {
+                        return breakers.get(key).circuit.getState().toString();
+                    }
+                });
+            }
+        }
+        return breaker;
+    }
+
+    private static final class Breaker {
+
+        private final CircuitBreaker circuit;
+        private final Counter fastFailed;
+        private final AtomicBoolean open = new AtomicBoolean();
+
+        private Breaker(String baseUrl, CircuitBreaker circuit) {
+            this.circuit = circuit;
+            this.fastFailed = Metrics.newCounter(new MetricName(GraphiteCircuitBreakers.class, "fast-failed", baseUrl));
+        }
+
+    }
+
+}
@@ -0,0 +1,467 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.store.GraphiteInstancesStore;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * Owns the HTTP connections to every Graphite instance and makes sure that
+ * no request to one can hang. Each request has a connect timeout, a socket
+ * timeout between packets and an overall deadline, after which it is
+ * aborted and the thread waiting on it freed.
+ *
+ * Responses are compressed on the wire and decompressed as they are read.
+ *
+ * Each instance has its own client, with its own connection pool and
+ * keep-alive, so a slow instance holding all of its connections takes
+ * none from the others. The settings come from the instance's record in
+ * the graphiteInstances collection, falling back to the SEYREN_GRAPHITE_*
+ * defaults.
+ *
+ * Requests are either blocking, where the calling thread waits for the
+ * response until it is read or the deadline passes, or asynchronous, where
+ * the request is sent over non-blocking I/O and nothing waits for it: the
+ * response is handled on one of the instance's I/O threads when it has
+ * arrived, or the request is cancelled at its deadline. An instance's
+ * asynchronous client, with its own connection pool and I/O thread, is only
+ * started once it is first used.
+ */
+@Named
+public class GraphiteConnections {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteConnections.class);
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final GraphiteInstancesStore graphiteInstancesStore;
+    private final Settings defaults;
+    private final ConcurrentMap<String, Settings> settings = new ConcurrentHashMap<String, Settings>();
+    private final ConcurrentMap<String, InstanceClient> clients = new ConcurrentHashMap<String, InstanceClient>();
+    private final ContentDecoding decoding = new ContentDecoding();
+    private final ScheduledExecutorService deadlines;
+    private final Counter timedOut;
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<String, Histogram>();
+
+    @Inject
+    public GraphiteConnections(GraphiteInstancesStore graphiteInstancesStore, SeyrenConfig seyrenConfig) {
+        this.graphiteInstancesStore = graphiteInstancesStore;
+        this.defaults = new Settings(seyrenConfig.getGraphiteMaxConnections(), seyrenConfig.getGraphiteConnectTimeoutMillis(),
+                seyrenConfig.getGraphiteSocketTimeoutMillis(), seyrenConfig.getGraphiteRequestTimeoutMillis(), seyrenConfig.getGraphiteKeepAliveMillis());
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("seyren.graphite-deadlines-%s").setDaemon(true).build());
+        this.timedOut = Metrics.newCounter(GraphiteConnections.class, "requests-timed-out");
+    }
+
+    /**
+     * Executes the request against the instance at the base URL within the
+     * instance's deadline.
+     *
+     * @throws IOException if the request fails or is aborted at its deadline
+     */
+    public <T> T execute(String baseUrl, HttpGet get, ResponseHandler<? extends T> handler) throws IOException {
+        final Settings instance = settingsFor(baseUrl);
+        HttpParams params = get.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, instance.connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, instance.socketTimeoutMillis);
+        // Waiting for a pooled connection counts as connecting
+        HttpClientParams.setConnectionManagerTimeout(params, instance.connectTimeoutMillis);
+
+        final HttpGet request = get;
+        final AtomicBoolean aborted = new AtomicBoolean();
+        ScheduledFuture<?> deadline = null;
+        if (instance.requestTimeoutMillis > 0) {
+            deadline = deadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    aborted.set(true);
+                    request.abort();
+                }
+            }, instance.requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        HttpContext context = new BasicHttpContext();
+        long start = System.currentTimeMillis();
+        try {
+            T result = clientFor(baseUrl).client.execute(get, handler, context);
+            latencyOf(baseUrl).update(System.currentTimeMillis() - start);
+            return result;
+        } catch (IOException e) {
+            if (aborted.get()) {
+                timedOut.inc();
+                throw new IOException("Request to " + baseUrl + " took longer than " + instance.requestTimeoutMillis + "ms", e);
+            }
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Sends the request to the instance at the base URL within the
+     * instance's deadline, without waiting for the response. The whole
+     * response is received before the handler reads it on the instance's I/O
+     * thread, so the handler should be quick; anything slower belongs in a
+     * callback on the returned future.
+     *
+     * @return the handled response, failed with an IOException if the
+     *         request fails or is cancelled at its deadline
+     */
+    public <T> ListenableFuture<T> executeAsync(final String baseUrl, HttpGet get, final ResponseHandler<? extends T> handler) {
+        final Settings instance = settingsFor(baseUrl);
+        get.setConfig(RequestConfig.custom()
+                .setConnectTimeout(instance.connectTimeoutMillis)
+                .setSocketTimeout(instance.socketTimeoutMillis)
+                // Waiting for a pooled connection counts as connecting
+                .setConnectionRequestTimeout(instance.connectTimeoutMillis)
+                .build());
+
+        final SettableFuture<T> result = SettableFuture.create();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final HttpContext context = new BasicHttpContext();
+        final long start = System.currentTimeMillis();
+        final Future<HttpResponse> request;
+        try {
+            request = clientFor(baseUrl).asyncClient().execute(get, context, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        // Done here rather than by the client, as the entity is only there once the response has arrived
+                        decoding.process(response, context);
+                        T handled = handler.handleResponse(response);
+                        latencyOf(baseUrl).update(System.currentTimeMillis() - start);
+                        result.set(handled);
+                    } catch (Exception e) {
+                        result.setException(e);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    result.setException(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    if (aborted.get()) {
+                        timedOut.inc();
+                        result.setException(new IOException("Request to " + baseUrl + " took longer than " + instance.requestTimeoutMillis + "ms"));
+                    } else {
+                        result.cancel(false);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
+        if (instance.requestTimeoutMillis > 0) {
+            final ScheduledFuture<?> deadline = deadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    aborted.set(true);
+                    request.cancel(true);
+                }
+            }, instance.requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    deadline.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        return result;
+    }
+
+    /**
+     * @return the latency in milliseconds below which the given share of
+     *         recent successful requests to the instance completed, or -1
+     *         if there have been too few requests to tell
+     */
+    public double getLatencyPercentile(String baseUrl, double percentile) {
+        Histogram latency = latencyOf(baseUrl);
+        if (latency.count() < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        return latency.getSnapshot().getValue(percentile);
+    }
+
+    private Histogram latencyOf(String baseUrl) {
+        String key = baseUrl == null ? "" : baseUrl;
+        Histogram latency = latencies.get(key);
+        if (latency == null) {
+            // Biased towards recent requests
+            latencies.putIfAbsent(key, Metrics.newHistogram(new MetricName(GraphiteConnections.class, "latency", key), true));
+            latency = latencies.get(key);
+        }
+        return latency;
+    }
+
+    private Settings settingsFor(String baseUrl) {
+        Settings instance = baseUrl == null ? null : settings.get(baseUrl);
+        return instance == null ? defaults : instance;
+    }
+
+    /**
+     * Picks up changes to the connection settings of each instance.
+     * Connections already open keep their timeouts until they are next
+     * used.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void refresh() {
+        try {
+            for (GraphiteInstance instance : graphiteInstancesStore.getGraphiteInstances().getValues()) {
+                if (instance.getBaseUrl() == null) {
+                    continue;
+                }
+                Settings updated = new Settings(
+                        orDefault(instance.getMaxConnections(), defaults.maxConnections),
+                        orDefault(instance.getConnectTimeoutMillis(), defaults.connectTimeoutMillis),
+                        orDefault(instance.getSocketTimeoutMillis(), defaults.socketTimeoutMillis),
+                        orDefault(instance.getRequestTimeoutMillis(), defaults.requestTimeoutMillis),
+                        orDefault(instance.getKeepAliveMillis(), defaults.keepAliveMillis));
+                Settings current = settings.get(instance.getBaseUrl());
+                if (current == null || !current.equals(updated)) {
+                    install(instance.getBaseUrl(), updated);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Refreshing Graphite connection settings failed", e);
+        }
+    }
+
+    private void install(String baseUrl, Settings instance) {
+        settings.put(baseUrl, instance);
+        InstanceClient client = clients.get(baseUrl);
+        if (client != null) {
+            client.limitTo(instance.maxConnections);
+        }
+        LOGGER.info("Graphite instance {} has {}", baseUrl, instance);
+    }
+
+    private InstanceClient clientFor(String baseUrl) {
+        String key = baseUrl == null ? "" : baseUrl;
+        InstanceClient client = clients.get(key);
+        if (client == null) {
+            InstanceClient created = new InstanceClient(key);
+            client = clients.putIfAbsent(key, created);
+            if (client == null) {
+                client = created;
+                // Settings installed before the first request are picked up here
+                client.limitTo(settingsFor(baseUrl).maxConnections);
+            } else {
+                created.shutdown();
+            }
+        }
+        return client;
+    }
+
+    private static int orDefault(Integer value, int defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        deadlines.shutdownNow();
+        for (InstanceClient client : clients.values()) {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * The clients of one instance, whose connection pools only ever hold
+     * connections to that instance. Each client has the instance's whole
+     * limit, as an instance is only ever asked one way or the other.
+     */
+    private final class InstanceClient {
+
+        private final String baseUrl;
+        private final PoolingClientConnectionManager manager;
+        private final HttpClient client;
+        private PoolingNHttpClientConnectionManager asyncManager;
+        private CloseableHttpAsyncClient asyncClient;
+        private int maxConnections;
+        private boolean shutdown;
+
+        private InstanceClient(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.manager = new PoolingClientConnectionManager();
+            DefaultHttpClient instanceClient = new DefaultHttpClient(manager);
+            instanceClient.setKeepAliveStrategy(new InstanceKeepAlive(baseUrl));
+            instanceClient.addRequestInterceptor(decoding);
+            instanceClient.addResponseInterceptor(decoding);
+            this.client = instanceClient;
+            this.maxConnections = settingsFor(baseUrl).maxConnections;
+        }
+
+        private synchronized CloseableHttpAsyncClient asyncClient() throws IOReactorException {
+            if (shutdown) {
+                throw new IOReactorException("Connections to " + baseUrl + " have been shut down");
+            }
+            if (asyncClient == null) {
+                IOReactorConfig reactor = IOReactorConfig.custom().setIoThreadCount(1).build();
+                asyncManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactor,
+                        new ThreadFactoryBuilder().setNameFormat("seyren.graphite-io-%s").setDaemon(true).build()));
+                asyncManager.setMaxTotal(maxConnections);
+                asyncManager.setDefaultMaxPerRoute(maxConnections);
+                asyncClient = HttpAsyncClients.custom()
+                        .setConnectionManager(asyncManager)
+                        .setKeepAliveStrategy(new InstanceKeepAlive(baseUrl))
+                        .addInterceptorLast((HttpRequestInterceptor) decoding)
+                        .build();
+                asyncClient.start();
+            }
+            return asyncClient;
+        }
+
+        private synchronized void limitTo(int maxConnections) {
+            this.maxConnections = maxConnections;
+            manager.setMaxTotal(maxConnections);
+            manager.setDefaultMaxPerRoute(maxConnections);
+            if (asyncManager != null) {
+                asyncManager.setMaxTotal(maxConnections);
+                asyncManager.setDefaultMaxPerRoute(maxConnections);
+            }
+        }
+
+        private synchronized void shutdown() {
+            shutdown = true;
+            manager.shutdown();
+            if (asyncClient != null) {
+                try {
+                    asyncClient.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Closing the connections to " + baseUrl + " failed", e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Keeps an idle connection for as long as the instance allows, or less
+     * if Graphite asks for less.
+     */
+    private class InstanceKeepAlive implements ConnectionKeepAliveStrategy {
+
+        private final ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+        private final String baseUrl;
+
+        private InstanceKeepAlive(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long keepAlive = settingsFor(baseUrl).keepAliveMillis;
+            long requested = serverStrategy.getKeepAliveDuration(response, context);
+            if (requested > 0 && (keepAlive <= 0 || requested < keepAlive)) {
+                return requested;
+            }
+            return keepAlive;
+        }
+
+    }
+
+    private static final class Settings {
+
+        private final int maxConnections;
+        private final int connectTimeoutMillis;
+        private final int socketTimeoutMillis;
+        private final int requestTimeoutMillis;
+        private final int keepAliveMillis;
+
+        private Settings(int maxConnections, int connectTimeoutMillis, int socketTimeoutMillis, int requestTimeoutMillis, int keepAliveMillis) {
+            this.maxConnections = Math.max(1, maxConnections);
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            this.keepAliveMillis = keepAliveMillis;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Settings)) {
+                return false;
+            }
+            Settings other = (Settings) obj;
+            return maxConnections == other.maxConnections && connectTimeoutMillis == other.connectTimeoutMillis
+                    && socketTimeoutMillis == other.socketTimeoutMillis && requestTimeoutMillis == other.requestTimeoutMillis
+                    && keepAliveMillis == other.keepAliveMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((((maxConnections * 31) + connectTimeoutMillis) * 31 + socketTimeoutMillis) * 31 + requestTimeoutMillis) * 31 + keepAliveMillis;
+        }
+
+        @Override
+        public String toString() {
+            return maxConnections + " connections, a connect timeout of " + connectTimeoutMillis + "ms, a socket timeout of " + socketTimeoutMillis
+                    + "ms, a deadline of " + requestTimeoutMillis + "ms and a keep-alive of " + keepAliveMillis + "ms";
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.store.GraphiteInstancesStore;
+
+/**
+ * Knows which Graphite instances hold the same data. Instances sharing a
+ * replicaGroup in the graphiteInstances collection are replicas of each
+ * other, and a check naming the group may be answered by any of them.
+ */
+@Named
+public class GraphiteReplicas {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteReplicas.class);
+
+    private final GraphiteInstancesStore graphiteInstancesStore;
+    private volatile Map<String, List<String>> groups = Collections.emptyMap();
+
+    @Inject
+    public GraphiteReplicas(GraphiteInstancesStore graphiteInstancesStore) {
+        this.graphiteInstancesStore = graphiteInstancesStore;
+    }
+
+    /**
+     * @return the base URLs of the instances which may answer for the
+     *         check's own instance, in the order they are on record
+     */
+    public List<String> replicasOf(Check check) {
+        if (check.getReplicaGroup() == null) {
+            return Collections.emptyList();
+        }
+        List<String> members = groups.get(check.getReplicaGroup());
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        List<String> replicas = new ArrayList<String>(members);
+        replicas.remove(check.getGraphiteBaseUrl());
+        return replicas;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void refresh() {
+        try {
+            Map<String, List<String>> updated = new HashMap<String, List<String>>();
+            for (GraphiteInstance instance : graphiteInstancesStore.getGraphiteInstances().getValues()) {
+                if (instance.getReplicaGroup() == null || instance.getBaseUrl() == null) {
+                    continue;
+                }
+                List<String> members = updated.get(instance.getReplicaGroup());
+                if (members == null) {
+                    members = new ArrayList<String>();
+                    updated.put(instance.getReplicaGroup(), members);
+                }
+                members.add(instance.getBaseUrl());
+            }
+            groups = updated;
+        } catch (Exception e) {
+            LOGGER.warn("Refreshing Graphite replica groups failed", e);
+        }
+    }
+
+}
@@ -13,102 +13,554 @@
  */
 package com.seyren.core.service.checker;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.PoolingClientConnectionManager;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HttpContext;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.seyren.core.domain.Check;
-import com.seyren.core.exception.InvalidGraphiteValueException;
+import com.seyren.core.service.checker.GraphiteBulkheads.Bulkhead;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.GraphitePathPattern;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 
 @Named
-public class GraphiteTargetChecker implements TargetChecker {
+public class GraphiteTargetChecker implements AsyncTargetChecker, BatchTargetChecker {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteTargetChecker.class);
-	private static final String QUERY_STRING = "from=-11minutes&until=-1minutes&uniq=%s&format=json&target=%s";
-	private static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+	private static final String QUERY_STRING = "&uniq=%s&format=json";
+	private static final String CONSOLIDATE_QUERY = "&maxDataPoints=1";
+	private static final String CONSOLIDATE_PREFIX = "consolidateBy(";
+	private static final String CONSOLIDATE_SUFFIX = ",'last')";
 
-	private final JsonNodeResponseHandler handler = new JsonNodeResponseHandler();
-	private final HttpClient client;
-	private final HttpContext context;
+	private final LatestValueResponseHandler handler;
+	private final GraphiteConnections connections;
+	private final GraphiteBulkheads bulkheads;
+	private final GraphiteCircuitBreakers breakers;
+	private final GraphiteReplicas replicas;
+	private final ExecutorService hedgeExecutor;
+	private final ScheduledExecutorService hedgeTimer;
+	private final double hedgePercentile;
+	private final Counter hedged;
+	private final Counter failedOver;
+	private final RenderCache renderCache;
+	private final ThresholdPushdown thresholdPushdown;
+	private final String defaultFrom;
+	private final String defaultUntil;
+	private final boolean consolidate;
+	private final int defaultInterval;
 
 	@Inject
-	public GraphiteTargetChecker(SeyrenConfig seyrenConfig) {
-		this.context = new BasicHttpContext();
-		this.client = new DefaultHttpClient(createConnectionManager());
+	public GraphiteTargetChecker(GraphiteConnections connections, GraphiteBulkheads bulkheads, GraphiteCircuitBreakers breakers, GraphiteReplicas replicas,
+			RenderCache renderCache, ThresholdPushdown thresholdPushdown, SeyrenConfig seyrenConfig) {
+		this.connections = connections;
+		this.bulkheads = bulkheads;
+		this.breakers = breakers;
+		this.replicas = replicas;
+		this.hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("seyren.graphite-hedge-%s").setDaemon(true).build());
+		this.hedgeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("seyren.graphite-hedge-timer-%s").setDaemon(true).build());
+		this.hedgePercentile = seyrenConfig.getHedgePercentile();
+		this.hedged = Metrics.newCounter(GraphiteTargetChecker.class, "hedged-requests");
+		this.failedOver = Metrics.newCounter(GraphiteTargetChecker.class, "failed-over-requests");
+		this.renderCache = renderCache;
+		this.thresholdPushdown = thresholdPushdown;
+		this.handler = new LatestValueResponseHandler(seyrenConfig.getGraphiteMaxSeries());
+		this.defaultFrom = seyrenConfig.getGraphiteFrom();
+		this.defaultUntil = seyrenConfig.getGraphiteUntil();
+		this.consolidate = seyrenConfig.isGraphiteConsolidate();
+		this.defaultInterval = seyrenConfig.getDefaultCheckInterval();
 	}
 
-	private ClientConnectionManager createConnectionManager() {
-		PoolingClientConnectionManager manager = new PoolingClientConnectionManager();
-		manager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
-		return manager;
+	@Override
+	public Map<String, Optional<Double>> check(Check check) throws Exception {
+		String baseUrl = check.getGraphiteBaseUrl();
+		String window = windowOf(check);
+		String target = thresholdPushdown.targetFor(check);
+		Map<String, Optional<Double>> cached = renderCache.get(baseUrl, window, target, intervalMillisOf(check));
+		if (cached != null) {
+			return cached;
+		}
+		Map<String, Optional<Double>> series = renderReplicated(check, window, Collections.singleton(target), check.getName());
+		if (series == null) {
+			return new HashMap<String, Optional<Double>>();
+		}
+		return renderCache.put(baseUrl, window, target, series);
 	}
 
+	/**
+	 * Fetches the check's target as {@link #check(Check)} does, but over the
+	 * instance's non-blocking client, so no thread waits for Graphite.
+	 */
 	@Override
-	public Map<String, Optional<BigDecimal>> check(Check check) throws Exception {
-		String formattedQuery = String.format(QUERY_STRING, new DateTime().getMillis(), check.getTarget());
-		URI uri = new URI(check.getGraphiteBaseUrl() + "/render/?" + formattedQuery);
-		LOGGER.info("uri={}", uri);
-		System.out.println("*** URI is " + uri + " ***");
+	public ListenableFuture<Map<String, Optional<Double>>> checkAsync(Check check) {
+		final String baseUrl = check.getGraphiteBaseUrl();
+		final String window;
+		try {
+			window = windowOf(check);
+		} catch (UnsupportedEncodingException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+		final String target = thresholdPushdown.targetFor(check);
+		Map<String, Optional<Double>> cached = renderCache.get(baseUrl, window, target, intervalMillisOf(check));
+		if (cached != null) {
+			return Futures.immediateFuture(cached);
+		}
+		ListenableFuture<Map<String, Optional<Double>>> series = new ReplicatedRender(check, window, Collections.singleton(target), check.getName()).start();
+		return Futures.transform(series, new Function<Map<String, Optional<Double>>, Map<String, Optional<Double>>>() {
+			@Override
+			public Map<String, Optional<Double>> apply(Map<String, Optional<Double>> series) {
+				if (series == null) {
+					return new HashMap<String, Optional<Double>>();
+				}
+				return renderCache.put(baseUrl, window, target, series);
+			}
+		});
+	}
+
+	/**
+	 * Asks for every target which isn't cached in one request and hands each
+	 * series to each check whose target matches its name. The checks share
+	 * a Graphite instance, replica group and time window.
+	 */
+	@Override
+	public Map<String, Map<String, Optional<Double>>> check(List<Check> checks) throws Exception {
+		String baseUrl = checks.get(0).getGraphiteBaseUrl();
+		String window = windowOf(checks.get(0));
+		Map<String, Map<String, Optional<Double>>> seriesByTarget = new HashMap<String, Map<String, Optional<Double>>>();
+		Map<String, GraphitePathPattern> missing = new LinkedHashMap<String, GraphitePathPattern>();
+		Map<String, Map<String, Optional<Double>>> result = new HashMap<String, Map<String, Optional<Double>>>();
+		Map<String, String> targets = new HashMap<String, String>();
+		// The cached series must be fresh enough for the most frequent of the checks
+		long intervalMillis = Long.MAX_VALUE;
+		for (Check check : checks) {
+			intervalMillis = Math.min(intervalMillis, intervalMillisOf(check));
+		}
+		for (Check check : checks) {
+			String target = thresholdPushdown.targetFor(check);
+			targets.put(check.getId(), target);
+			if (!seriesByTarget.containsKey(target) && !missing.containsKey(target)) {
+				Map<String, Optional<Double>> cached = renderCache.get(baseUrl, window, target, intervalMillis);
+				if (cached != null) {
+					seriesByTarget.put(target, cached);
+				} else {
+					// A pushed down target still names its series after the check's own path
+					missing.put(target, new GraphitePathPattern(check.getTarget()));
+				}
+			}
+			result.put(check.getId(), new HashMap<String, Optional<Double>>());
+		}
+
+		if (!missing.isEmpty()) {
+			Map<String, Optional<Double>> series = renderReplicated(checks.get(0), window, missing.keySet(), checks.size() + " checks");
+			if (series != null) {
+				for (Entry<String, GraphitePathPattern> target : missing.entrySet()) {
+					Map<String, Optional<Double>> matched = new HashMap<String, Optional<Double>>();
+					for (Entry<String, Optional<Double>> entry : series.entrySet()) {
+						if (target.getValue().matches(entry.getKey())) {
+							matched.put(entry.getKey(), entry.getValue());
+						}
+					}
+					seriesByTarget.put(target.getKey(), renderCache.put(baseUrl, window, target.getKey(), matched));
+				}
+			}
+		}
+
+		for (Check check : checks) {
+			Map<String, Optional<Double>> series = seriesByTarget.get(targets.get(check.getId()));
+			if (series != null) {
+				result.get(check.getId()).putAll(series);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Asks the check's own instance and, if it fails or is slow, its
+	 * replicas. A replica is asked as soon as the instance before it has
+	 * failed, or once that instance has taken longer than hedgePercentile of
+	 * its recent requests. Whichever answers first wins and the slower
+	 * answer is discarded.
+	 *
+	 * @return the series of the targets, or null if no instance could
+	 *         answer
+	 */
+	private Map<String, Optional<Double>> renderReplicated(Check check, String window, Collection<String> targets, String description) throws Exception {
+		List<String> baseUrls = new ArrayList<String>();
+		baseUrls.add(check.getGraphiteBaseUrl());
+		baseUrls.addAll(replicas.replicasOf(check));
+		if (baseUrls.size() == 1) {
+			return render(check.getGraphiteBaseUrl(), window, targets, description);
+		}
+
+		CompletionService<Map<String, Optional<Double>>> attempts = new ExecutorCompletionService<Map<String, Optional<Double>>>(hedgeExecutor);
+		attempts.submit(new RenderAttempt(baseUrls.get(0), window, targets, description));
+		int next = 1;
+		int outstanding = 1;
+		while (outstanding > 0) {
+			Future<Map<String, Optional<Double>>> done;
+			long delay = next < baseUrls.size() ? hedgeDelayMillis(baseUrls.get(next - 1)) : -1;
+			if (delay >= 0) {
+				done = attempts.poll(delay, TimeUnit.MILLISECONDS);
+				if (done == null) {
+					hedged.inc();
+					attempts.submit(new RenderAttempt(baseUrls.get(next++), window, targets, description));
+					outstanding++;
+					continue;
+				}
+			} else {
+				done = attempts.take();
+			}
+			outstanding--;
 
-		HttpGet get = new HttpGet(uri);
-		Map<String, Optional<BigDecimal>> targetValues = new HashMap<String, Optional<BigDecimal>>();
+			Map<String, Optional<Double>> series = resultOf(done);
+			if (series != null) {
+				return series;
+			}
+			if (next < baseUrls.size()) {
+				failedOver.inc();
+				attempts.submit(new RenderAttempt(baseUrls.get(next++), window, targets, description));
+				outstanding++;
+			}
+		}
+		return null;
+	}
 
+	/**
+	 * @return how long to wait for the instance before asking a replica as
+	 *         well, or -1 to wait for it to answer or fail
+	 */
+	private long hedgeDelayMillis(String baseUrl) {
+		if (hedgePercentile <= 0) {
+			return -1;
+		}
+		double latency = connections.getLatencyPercentile(baseUrl, hedgePercentile);
+		return latency < 0 ? -1 : Math.max(1, (long) latency);
+	}
+
+	private static Map<String, Optional<Double>> resultOf(Future<Map<String, Optional<Double>>> done) throws Exception {
 		try {
-			JsonNode response = client.execute(get, handler, context);
-			for (JsonNode metric : response) {
-				String target = metric.path("target").asText();
-
-				try {
-					BigDecimal value = getLatestValue(metric);
-					targetValues.put(target, Optional.of(value));
-				} catch (InvalidGraphiteValueException e) {
-					// Silence these - we don't know what's causing Graphite to
-					// return null values
-					LOGGER.warn(check.getName() + " failed to read from Graphite", e);
-					targetValues.put(target, Optional.<BigDecimal> absent());
+			return done.get();
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private class RenderAttempt implements Callable<Map<String, Optional<Double>>> {
+
+		private final String baseUrl;
+		private final String window;
+		private final Collection<String> targets;
+		private final String description;
+
+		private RenderAttempt(String baseUrl, String window, Collection<String> targets, String description) {
+			this.baseUrl = baseUrl;
+			this.window = window;
+			this.targets = targets;
+			this.description = description;
+		}
+
+		@Override
+		public Map<String, Optional<Double>> call() throws Exception {
+			return render(baseUrl, window, targets, description);
+		}
+
+	}
+
+	/**
+	 * Asks the check's own instance and its replicas as renderReplicated
+	 * does, without waiting on any of them. The hedge against a slow
+	 * instance is started by a timer, and failing over by the failed
+	 * response.
+	 */
+	private class ReplicatedRender {
+
+		private final List<String> baseUrls = new ArrayList<String>();
+		private final String window;
+		private final Collection<String> targets;
+		private final String description;
+		private final SettableFuture<Map<String, Optional<Double>>> result = SettableFuture.create();
+		private int next;
+		private int outstanding;
+
+		private ReplicatedRender(Check check, String window, Collection<String> targets, String description) {
+			this.baseUrls.add(check.getGraphiteBaseUrl());
+			this.baseUrls.addAll(replicas.replicasOf(check));
+			this.window = window;
+			this.targets = targets;
+			this.description = description;
+		}
+
+		/**
+		 * @return the series of the targets, or null if no instance could
+		 *         answer
+		 */
+		private ListenableFuture<Map<String, Optional<Double>>> start() {
+			askNext();
+			return result;
+		}
+
+		private void askNext() {
+			final int asked;
+			synchronized (this) {
+				if (result.isDone() || next >= baseUrls.size()) {
+					return;
 				}
+				asked = next++;
+				outstanding++;
 			}
+			String baseUrl = baseUrls.get(asked);
+			Futures.addCallback(renderAsync(baseUrl, window, targets, description), new FutureCallback<Map<String, Optional<Double>>>() {
+				@Override
+				public void onSuccess(Map<String, Optional<Double>> series) {
+					answered(series, null);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					answered(null, t);
+				}
+			});
+			long delay = asked + 1 < baseUrls.size() ? hedgeDelayMillis(baseUrl) : -1;
+			if (delay >= 0) {
+				hedgeTimer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						hedge(asked);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void hedge(int asked) {
+			synchronized (this) {
+				// Not if it has answered or another instance has been asked since
+				if (result.isDone() || next != asked + 1) {
+					return;
+				}
+			}
+			hedged.inc();
+			askNext();
+		}
+
+		private void answered(Map<String, Optional<Double>> series, Throwable failure) {
+			synchronized (this) {
+				outstanding--;
+				if (result.isDone()) {
+					return;
+				}
+				if (failure != null) {
+					result.setException(failure);
+					return;
+				}
+				if (series != null) {
+					result.set(series);
+					return;
+				}
+				if (next >= baseUrls.size()) {
+					if (outstanding == 0) {
+						result.set(null);
+					}
+					return;
+				}
+			}
+			failedOver.inc();
+			askNext();
+		}
+
+	}
+
+	/**
+	 * @return the series of the targets, or null if the instance is at its
+	 *         request limit, its circuit breaker is open or it couldn't be
+	 *         read
+	 */
+	private Map<String, Optional<Double>> render(String baseUrl, String window, Collection<String> targets, String description) throws Exception {
+		Bulkhead bulkhead = bulkheads.bulkheadFor(baseUrl);
+		if (!bulkhead.tryAcquire()) {
+			// Counted against the instance as rejected or throttled
+			LOGGER.warn("{} is at its request limit, skipping {} until the next interval", baseUrl, description);
+			return null;
+		}
+
+		try {
+			return fetch(baseUrl, window, targets, description);
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+	/**
+	 * Renders the targets as render does, completing once the instance has
+	 * answered.
+	 */
+	private ListenableFuture<Map<String, Optional<Double>>> renderAsync(final String baseUrl, String window, Collection<String> targets, final String description) {
+		final Bulkhead bulkhead = bulkheads.bulkheadFor(baseUrl);
+		if (!bulkhead.tryAcquire()) {
+			LOGGER.warn("{} is at its request limit, skipping {} until the next interval", baseUrl, description);
+			return Futures.immediateFuture(null);
+		}
+
+		HttpGet get;
+		try {
+			get = requestFor(baseUrl, window, targets);
 		} catch (Exception e) {
-			LOGGER.warn(check.getName() + " failed to read from Graphite", e);
+			bulkhead.release();
+			return Futures.immediateFailedFuture(e);
+		}
+		if (!breakers.allowRequest(baseUrl)) {
+			bulkhead.release();
+			LOGGER.debug("{} is failing, skipping {} until the next interval", baseUrl, description);
+			return Futures.immediateFuture(null);
+		}
+
+		final SettableFuture<Map<String, Optional<Double>>> result = SettableFuture.create();
+		Futures.addCallback(connections.executeAsync(baseUrl, get, handler), new FutureCallback<Map<String, Optional<Double>>>() {
+			@Override
+			public void onSuccess(Map<String, Optional<Double>> series) {
+				bulkhead.release();
+				result.set(succeeded(baseUrl, series));
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				bulkhead.release();
+				failed(baseUrl, description, t);
+				result.set(null);
+			}
+		});
+		return result;
+	}
+
+	private Map<String, Optional<Double>> fetch(String baseUrl, String window, Collection<String> targets, String description) throws Exception {
+		HttpGet get = requestFor(baseUrl, window, targets);
+		if (!breakers.allowRequest(baseUrl)) {
+			// The scheduler marks the instance's checks UNKNOWN while its breaker is open
+			LOGGER.debug("{} is failing, skipping {} until the next interval", baseUrl, description);
+			return null;
+		}
+
+		try {
+			return succeeded(baseUrl, connections.execute(baseUrl, get, handler));
+		} catch (Exception e) {
+			failed(baseUrl, description, e);
+			return null;
 		} finally {
 			get.releaseConnection();
 		}
+	}
+
+	private HttpGet requestFor(String baseUrl, String window, Collection<String> targets) throws Exception {
+		StringBuilder query = new StringBuilder(window).append(String.format(QUERY_STRING, new DateTime().getMillis()));
+		if (consolidate) {
+			query.append(CONSOLIDATE_QUERY);
+		}
+		for (String target : targets) {
+			String requested = consolidate ? CONSOLIDATE_PREFIX + target + CONSOLIDATE_SUFFIX : target;
+			query.append("&target=").append(URLEncoder.encode(requested, "UTF-8"));
+		}
+		URI uri = new URI(baseUrl + "/render/?" + query);
+		LOGGER.info("uri={}", uri);
+		return new HttpGet(uri);
+	}
+
+	private Map<String, Optional<Double>> succeeded(String baseUrl, Map<String, Optional<Double>> series) {
+		breakers.recordSuccess(baseUrl);
+		return consolidate ? unwrapConsolidated(series) : series;
+	}
+
+	/**
+	 * Only a failure which says the instance is down or overloaded counts
+	 * towards its breaker: no connection, a timeout, or a 429 or 5xx other
+	 * than 500. graphite-web answers a target it can't render with a 500 or
+	 * a 4xx, and a body which isn't a render is no better, but in each case
+	 * the instance did answer.
+	 */
+	private void failed(String baseUrl, String description, Throwable t) {
+		if (isOverloaded(t)) {
+			breakers.recordFailure(baseUrl);
+		} else {
+			breakers.recordSuccess(baseUrl);
+		}
+		LOGGER.warn(description + " failed to read from Graphite", t);
+	}
+
+	private static boolean isOverloaded(Throwable t) {
+		if (t instanceof HttpResponseException) {
+			int status = ((HttpResponseException) t).getStatusCode();
+			return status == 429 || status > 500;
+		}
+		return t instanceof IOException && !(t instanceof JsonProcessingException);
+	}
 
-		return targetValues;
+	private long intervalMillisOf(Check check) {
+		Integer interval = check.getInterval();
+		if (interval == null || interval <= 0) {
+			interval = defaultInterval;
+		}
+		return TimeUnit.SECONDS.toMillis(interval);
 	}
 
 	/**
-	 * Loop through the datapoints in reverse order until we find the latest
-	 * non-null value
+	 * @return the from and until parameters of the check's time window
 	 */
-	private BigDecimal getLatestValue(JsonNode node) throws Exception {
-		JsonNode datapoints = node.get("datapoints");
+	private String windowOf(Check check) throws UnsupportedEncodingException {
+		String from = check.getFrom() == null ? defaultFrom : check.getFrom();
+		String until = check.getUntil() == null ? defaultUntil : check.getUntil();
+		return "from=" + URLEncoder.encode(from, "UTF-8") + "&until=" + URLEncoder.encode(until, "UTF-8");
+	}
 
-		for (int i = datapoints.size() - 1; i >= 0; i--) {
-			String value = datapoints.get(i).get(0).asText();
-			if (!value.equals("null")) {
-				return new BigDecimal(value);
-			}
+	/**
+	 * Graphite names a consolidated series after the call, so the name is
+	 * put back to that of the series itself.
+	 */
+	private static Map<String, Optional<Double>> unwrapConsolidated(Map<String, Optional<Double>> series) {
+		Map<String, Optional<Double>> unwrapped = new HashMap<String, Optional<Double>>();
+		for (Entry<String, Optional<Double>> entry : series.entrySet()) {
+			unwrapped.put(unwrapConsolidated(entry.getKey()), entry.getValue());
 		}
+		return unwrapped;
+	}
 
-		LOGGER.warn("{}", node);
-		throw new InvalidGraphiteValueException("Could not find a valid datapoint for target: " + node.get("target"));
+	static String unwrapConsolidated(String name) {
+		if (name.startsWith(CONSOLIDATE_PREFIX) && (name.endsWith(",'last')") || name.endsWith(",\"last\")"))) {
+			return name.substring(CONSOLIDATE_PREFIX.length(), name.length() - CONSOLIDATE_SUFFIX.length());
+		}
+		return name;
 	}
 }
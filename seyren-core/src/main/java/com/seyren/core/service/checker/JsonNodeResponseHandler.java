@@ -1,43 +0,0 @@
-/**
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.seyren.core.service.checker;
-
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.util.EntityUtils;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-public class JsonNodeResponseHandler implements ResponseHandler<JsonNode> {
-    
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-    
-    @Override
-    public JsonNode handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
-        HttpEntity entity = response.getEntity();
-        try {
-            InputStream stream = entity.getContent();
-            return MAPPER.readTree(stream);
-        } finally {
-            EntityUtils.consume(entity);
-        }
-    }
-    
-}
@@ -0,0 +1,205 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Optional;
+import com.google.common.io.CountingInputStream;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+
+/**
+ * Reads a Graphite JSON render response as a stream and keeps only the
+ * latest non-null value of each series, which is all a check needs. No
+ * tree is built, and a datapoint costs nothing unless it turns out to be
+ * the latest.
+ *
+ * A series without any non-null value is present but absent. Once
+ * maxSeries series have been read the connection is aborted, so the rest
+ * of the response is never downloaded.
+ *
+ * A response other than 2xx is thrown as an HttpResponseException with
+ * its status, without reading its body as JSON.
+ *
+ * The size of each response and the number of datapoints read are
+ * reported as metrics, which show what a narrower window or consolidation
+ * saves.
+ */
+public class LatestValueResponseHandler implements ResponseHandler<Map<String, Optional<Double>>> {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatestValueResponseHandler.class);
+    private static final JsonFactory FACTORY = new JsonFactory();
+    
+    private final int maxSeries;
+    private final Histogram responseBytes;
+    private final Counter datapoints;
+    
+    /**
+     * @param maxSeries the most series read from one response, or 0 for no
+     *            limit
+     */
+    public LatestValueResponseHandler(int maxSeries) {
+        this.maxSeries = maxSeries;
+        this.responseBytes = Metrics.newHistogram(LatestValueResponseHandler.class, "response-bytes");
+        this.datapoints = Metrics.newCounter(LatestValueResponseHandler.class, "datapoints");
+    }
+    
+    @Override
+    public Map<String, Optional<Double>> handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+        HttpEntity entity = response.getEntity();
+        StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() >= 300) {
+            EntityUtils.consume(entity);
+            throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+        }
+        boolean complete = false;
+        try {
+            CountingInputStream content = new CountingInputStream(entity.getContent());
+            JsonParser parser = FACTORY.createParser(content);
+            try {
+                Map<String, Optional<Double>> values = new HashMap<String, Optional<Double>>();
+                complete = readSeries(parser, values);
+                return values;
+            } finally {
+                if (!complete) {
+                    // Closing the parser would otherwise read the rest of the response
+                    abort(entity);
+                }
+                parser.close();
+                responseBytes.update(content.getCount());
+            }
+        } finally {
+            if (complete) {
+                EntityUtils.consume(entity);
+            }
+        }
+    }
+    
+    /**
+     * @return false if the response had more than maxSeries series and
+     *         wasn't read to the end
+     */
+    private boolean readSeries(JsonParser parser, Map<String, Optional<Double>> values) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_ARRAY, parser);
+        
+        LatestValue latest = new LatestValue();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            if (maxSeries > 0 && values.size() >= maxSeries) {
+                LOGGER.warn("Response has more than {} series, ignoring the rest", maxSeries);
+                return false;
+            }
+            String target = null;
+            latest.clear();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("target".equals(field) && value == JsonToken.VALUE_STRING) {
+                    target = parser.getText();
+                } else if ("datapoints".equals(field) && value == JsonToken.START_ARRAY) {
+                    readDatapoints(parser, latest);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (target != null) {
+                values.put(target, latest.get());
+            }
+        }
+        expect(token, JsonToken.END_ARRAY, parser);
+        return true;
+    }
+    
+    /**
+     * Drops the connection under a response which is only partly read,
+     * so that neither closing it nor the client downloads the rest.
+     */
+    private static void abort(HttpEntity entity) throws IOException {
+        if (entity instanceof ConnectionReleaseTrigger) {
+            ((ConnectionReleaseTrigger) entity).abortConnection();
+        }
+    }
+    
+    /**
+     * Reads the [value, timestamp] pairs of a series, remembering the
+     * characters of the latest non-null value.
+     */
+    private void readDatapoints(JsonParser parser, LatestValue latest) throws IOException {
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            datapoints.inc();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+                latest.set(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            }
+            if (value != JsonToken.END_ARRAY) {
+                // Skip the timestamp and anything after it
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+    
+    private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException("Expected " + expected + " but found " + actual, parser.getCurrentLocation());
+        }
+    }
+    
+    /**
+     * A reusable copy of the characters of the latest number seen.
+     */
+    private static final class LatestValue {
+        
+        private char[] chars = new char[32];
+        private int length = -1;
+        
+        private void clear() {
+            length = -1;
+        }
+        
+        private void set(char[] source, int offset, int count) {
+            if (count > chars.length) {
+                chars = new char[Math.max(count, chars.length * 2)];
+            }
+            System.arraycopy(source, offset, chars, 0, count);
+            length = count;
+        }
+        
+        private Optional<Double> get() {
+            return length < 0 ? Optional.<Double> absent() : Optional.of(Double.parseDouble(new String(chars, 0, length)));
+        }
+        
+    }
+    
+}
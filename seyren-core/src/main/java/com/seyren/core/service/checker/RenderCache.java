@@ -0,0 +1,167 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Keeps the parsed series of each target fetched from Graphite for a short
+ * while, so that checks of the same target due within seconds of each other
+ * don't each fetch it. An entry is keyed by Graphite instance, time window
+ * and target.
+ *
+ * Entries expire SEYREN_RENDER_CACHE_TTL milliseconds after they were
+ * fetched, and the least recently used are evicted once the estimated size
+ * of the cache passes SEYREN_RENDER_CACHE_MAX_BYTES. A TTL or size of 0
+ * turns the cache off.
+ *
+ * A check is only given series fetched less than half its interval ago,
+ * however long the TTL, so a check never sees the values fetched for its
+ * own previous run, or those another check fetched as long ago.
+ */
+@Named
+public class RenderCache {
+
+    // Rough heap cost of a String, a HashMap entry and an Optional<Double>
+    private static final int STRING_OVERHEAD = 40;
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final int VALUE_OVERHEAD = 32;
+    private static final int MAP_OVERHEAD = 48;
+
+    private final Cache<String, Cached> cache;
+    private final Ticker ticker;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter expirations;
+
+    @Inject
+    public RenderCache(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.getRenderCacheTtlMillis(), seyrenConfig.getRenderCacheMaxBytes(), Ticker.systemTicker());
+    }
+
+    RenderCache(long ttlMillis, long maxBytes, Ticker ticker) {
+        this.hits = Metrics.newCounter(RenderCache.class, "hits");
+        this.misses = Metrics.newCounter(RenderCache.class, "misses");
+        this.evictions = Metrics.newCounter(RenderCache.class, "evictions");
+        this.expirations = Metrics.newCounter(RenderCache.class, "expirations");
+        this.ticker = ticker;
+
+        if (ttlMillis <= 0 || maxBytes <= 0) {
+            this.cache = null;
+            return;
+        }
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, Cached>() {
+                    @Override
+                    public int weigh(String key, Cached cached) {
+                        return (int) Math.min(Integer.MAX_VALUE, bytesOf(key, cached.series));
+                    }
+                })
+                .removalListener(new RemovalListener<String, Cached>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Cached> notification) {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            evictions.inc();
+                        } else if (notification.getCause() == RemovalCause.EXPIRED) {
+                            expirations.inc();
+                        }
+                    }
+                })
+                .ticker(ticker)
+                .build();
+
+        Metrics.newGauge(RenderCache.class, "entries", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * @param intervalMillis the interval of the check asking, which must only
+     *            be given series fetched less than half of it ago
+     * @return the series of the target, which mustn't be changed, or null if
+     *         they aren't cached or are too old for the check
+     */
+    public Map<String, Optional<Double>> get(String baseUrl, String window, String target, long intervalMillis) {
+        if (cache == null) {
+            return null;
+        }
+        Cached cached = cache.getIfPresent(keyOf(baseUrl, window, target));
+        if (cached == null || ticker.read() - cached.fetchedNanos >= TimeUnit.MILLISECONDS.toNanos(intervalMillis) / 2) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return cached.series;
+    }
+
+    /**
+     * @return the series as they were cached, which can't be changed
+     */
+    public Map<String, Optional<Double>> put(String baseUrl, String window, String target, Map<String, Optional<Double>> series) {
+        Map<String, Optional<Double>> cached = Collections.unmodifiableMap(series);
+        if (cache != null) {
+            cache.put(keyOf(baseUrl, window, target), new Cached(cached, ticker.read()));
+        }
+        return cached;
+    }
+
+    private static String keyOf(String baseUrl, String window, String target) {
+        return baseUrl + " " + window + " " + target;
+    }
+
+    static long bytesOf(String key, Map<String, Optional<Double>> series) {
+        long bytes = STRING_OVERHEAD + 2L * key.length() + MAP_OVERHEAD;
+        for (String name : series.keySet()) {
+            bytes += ENTRY_OVERHEAD + STRING_OVERHEAD + 2L * name.length() + VALUE_OVERHEAD;
+        }
+        return bytes;
+    }
+
+    private static final class Cached {
+
+        private final Map<String, Optional<Double>> series;
+        private final long fetchedNanos;
+
+        private Cached(Map<String, Optional<Double>> series, long fetchedNanos) {
+            this.series = series;
+            this.fetchedNanos = fetchedNanos;
+        }
+
+    }
+
+}
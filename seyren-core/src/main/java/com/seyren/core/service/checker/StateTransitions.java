@@ -0,0 +1,57 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import com.seyren.core.domain.AlertType;
+
+/**
+ * The outcome of checking every series of a check in one pass, by index
+ * into the arrays the series were given in.
+ */
+public final class StateTransitions {
+
+    private final AlertType[] states;
+    private final int[] alerting;
+    private final AlertType worstState;
+
+    public StateTransitions(AlertType[] states, int[] alerting, AlertType worstState) {
+        this.states = states;
+        this.alerting = alerting;
+        this.worstState = worstState;
+    }
+
+    /**
+     * @return the new state of each series
+     */
+    public AlertType[] getStates() {
+        return states;
+    }
+
+    /**
+     * @return the indexes, in order, of the series which need an alert
+     *         because they are or were worse than OK
+     */
+    public int[] getAlerting() {
+        return alerting;
+    }
+
+    /**
+     * @return the worst new state of any series, or UNKNOWN if there were
+     *         none
+     */
+    public AlertType getWorstState() {
+        return worstState;
+    }
+
+}
@@ -13,7 +13,6 @@
  */
 package com.seyren.core.service.checker;
 
-import java.math.BigDecimal;
 import java.util.Map;
 
 import com.google.common.base.Optional;
@@ -21,5 +20,5 @@ import com.seyren.core.domain.Check;
 
 public interface TargetChecker {
 	
-    Map<String, Optional<BigDecimal>> check(Check check) throws Exception;
+    Map<String, Optional<Double>> check(Check check) throws Exception;
 }
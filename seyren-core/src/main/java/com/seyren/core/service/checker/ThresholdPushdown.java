@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.seyren.core.domain.Check;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.GraphitePathPattern;
+
+/**
+ * Lets Graphite drop the series of a wildcard check which are nowhere near
+ * the warn threshold, so that a check over thousands of hosts only
+ * downloads the few which breach it.
+ *
+ * The target is asked for as
+ * group(filterSeries(target,'last','&gt;=',warn),a.b.c,...), where a.b.c are
+ * the series which were beyond warn last time. Those keep coming back with
+ * their real values until they are evaluated as OK again, so recoveries are
+ * still recorded.
+ *
+ * A check is fetched in full until its breaching series are known, which
+ * is after its first evaluation, and whenever too many of them are
+ * breaching to name in a request. filterSeries needs Graphite 1.1 or later.
+ */
+@Named
+public class ThresholdPushdown {
+
+    static final int MAX_NAMED_SERIES = 100;
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, Set<String>> breaching = new ConcurrentHashMap<String, Set<String>>();
+
+    @Inject
+    public ThresholdPushdown(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.isThresholdPushdown());
+    }
+
+    ThresholdPushdown(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the target to ask Graphite for on behalf of the check
+     */
+    public String targetFor(Check check) {
+        String target = check.getTarget();
+        if (!enabled || check.getWarn() == null || check.getError() == null || !GraphitePathPattern.isWildcard(target)) {
+            return target;
+        }
+        Set<String> series = breaching.get(check.getId());
+        if (series == null || series.size() > MAX_NAMED_SERIES) {
+            return target;
+        }
+
+        String operator = check.getWarn().compareTo(check.getError()) <= 0 ? ">=" : "<=";
+        StringBuilder pushed = new StringBuilder("group(filterSeries(").append(target).append(",'last','").append(operator).append("',")
+                .append(check.getWarn().toPlainString()).append(")");
+        for (String name : series) {
+            if (!GraphitePathPattern.isPlainPath(name)) {
+                return target;
+            }
+            pushed.append(',').append(name);
+        }
+        return pushed.append(')').toString();
+    }
+
+    /**
+     * Records which series of the check were evaluated as worse than OK.
+     * Anything Graphite didn't return was below warn. A breaching series
+     * which came back without a value is still breaching as far as anybody
+     * knows, so it stays named.
+     *
+     * @param withoutValue the series which came back without a value
+     */
+    public void recordBreaching(String checkId, Set<String> series, Set<String> withoutValue) {
+        if (!enabled) {
+            return;
+        }
+        Set<String> updated = new TreeSet<String>(series);
+        Set<String> previous = breaching.get(checkId);
+        if (previous != null) {
+            for (String name : withoutValue) {
+                if (previous.contains(name)) {
+                    updated.add(name);
+                }
+            }
+        }
+        breaching.put(checkId, Collections.unmodifiableSet(updated));
+    }
+
+    public void forget(String checkId) {
+        breaching.remove(checkId);
+    }
+
+}
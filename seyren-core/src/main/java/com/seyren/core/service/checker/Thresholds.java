@@ -0,0 +1,92 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.math.BigDecimal;
+
+import com.seyren.core.domain.AlertType;
+
+/**
+ * The warn and error thresholds of a check, with the direction in which
+ * values get worse worked out once, so that the many series of a wildcard
+ * check are each judged with a couple of double comparisons.
+ *
+ * Rounding a decimal to the nearest double never reverses the order of two
+ * decimals, so whenever the doubles differ they give the exact answer. Only
+ * a value whose double equals a threshold's is compared as a BigDecimal,
+ * as the threshold may be a decimal no double can hold. A value which only
+ * exists as a double is then taken as the shortest decimal which reads
+ * back as that double, which is how Graphite writes values out.
+ */
+public final class Thresholds {
+
+    private final BigDecimal warn;
+    private final BigDecimal error;
+    private final double warnValue;
+    private final double errorValue;
+    private final boolean highIsWorse;
+
+    private Thresholds(BigDecimal warn, BigDecimal error) {
+        this.warn = warn;
+        this.error = error;
+        this.warnValue = warn.doubleValue();
+        this.errorValue = error.doubleValue();
+        this.highIsWorse = warn.compareTo(error) <= 0;
+    }
+
+    public static Thresholds of(BigDecimal warn, BigDecimal error) {
+        return new Thresholds(warn, error);
+    }
+
+    public AlertType stateOf(BigDecimal value) {
+        return stateOf(value.doubleValue(), value);
+    }
+
+    /**
+     * A NaN is OK.
+     */
+    public AlertType stateOf(double value) {
+        return stateOf(value, null);
+    }
+
+    private AlertType stateOf(double value, BigDecimal exactValue) {
+        if (isBeyond(value, exactValue, errorValue, error)) {
+            return AlertType.ERROR;
+        } else if (isBeyond(value, exactValue, warnValue, warn)) {
+            return AlertType.WARN;
+        }
+        return AlertType.OK;
+    }
+
+    private boolean isBeyond(double value, BigDecimal exactValue, double threshold, BigDecimal exactThreshold) {
+        if (value == threshold && !Double.isInfinite(value)) {
+            int comparison = (exactValue == null ? BigDecimal.valueOf(value) : exactValue).compareTo(exactThreshold);
+            return highIsWorse ? comparison >= 0 : comparison <= 0;
+        }
+        return highIsWorse ? value >= threshold : value <= threshold;
+    }
+
+    public BigDecimal getWarn() {
+        return warn;
+    }
+
+    public BigDecimal getError() {
+        return error;
+    }
+
+    public boolean isHighWorse() {
+        return highIsWorse;
+    }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+/**
+ * A rate limit which allows short bursts. Tokens accrue at a steady rate up
+ * to one second's worth, and each request spends one.
+ */
+public class TokenBucket {
+
+    private final double ratePerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillMillis;
+
+    public TokenBucket(double ratePerSecond, long nowMillis) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be greater than 0: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = Math.max(1, ratePerSecond);
+        this.tokens = capacity;
+        this.lastRefillMillis = nowMillis;
+    }
+
+    /**
+     * @return true if a token was available and has been spent
+     */
+    public synchronized boolean tryAcquire(long nowMillis) {
+        if (nowMillis > lastRefillMillis) {
+            tokens = Math.min(capacity, tokens + (nowMillis - lastRefillMillis) * ratePerSecond / 1000);
+            lastRefillMillis = nowMillis;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+}
@@ -21,4 +21,13 @@ public interface ValueChecker {
     
     AlertType checkValue(BigDecimal value, BigDecimal warn, BigDecimal error);
     
+    /**
+     * Checks every series of a check in one pass. The arrays are parallel:
+     * entry i of each is about series i.
+     * 
+     * @param values the value of each series
+     * @param lastStates the state each series was in before
+     */
+    StateTransitions checkValues(double[] values, AlertType[] lastStates, Thresholds thresholds);
+    
 }
@@ -0,0 +1,278 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.seyren.core.domain.Check;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.GraphitePathPattern;
+import com.seyren.core.util.graphite.GraphiteTime;
+import com.seyren.core.util.whisper.WhisperFile;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Answers checks from the Whisper files of a carbon on the same host,
+ * through memory maps, rather than asking graphite-web over HTTP. Plain
+ * metric paths, with or without wildcards, are resolved against the storage
+ * directory one node at a time, and each matching file gives the latest
+ * value within the check's window, as Graphite's render API would.
+ *
+ * Anything it can't answer the way Graphite would goes to the
+ * GraphiteTargetChecker: targets calling functions, alternatives containing
+ * dots, absolute times, checks against other instances, and everything if
+ * SEYREN_WHISPER_STORAGE_DIR isn't set.
+ *
+ * Mapped files are kept between checks, up to SEYREN_WHISPER_MAX_OPEN_FILES.
+ * A file is mapped again every ten minutes, so that one replaced by
+ * whisper-resize is picked up.
+ */
+@Named
+public class WhisperTargetChecker implements AsyncTargetChecker, BatchTargetChecker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WhisperTargetChecker.class);
+    private static final String EXTENSION = ".wsp";
+
+    private final GraphiteTargetChecker graphite;
+    private final File storageDir;
+    private final String graphiteUrl;
+    private final int maxSeries;
+    private final String defaultFrom;
+    private final String defaultUntil;
+    private final LoadingCache<File, WhisperFile> files;
+    private final Counter localChecks;
+    private final Counter delegatedChecks;
+
+    @Inject
+    public WhisperTargetChecker(GraphiteTargetChecker graphite, SeyrenConfig seyrenConfig) {
+        this(graphite, seyrenConfig.getWhisperStorageDir().isEmpty() ? null : new File(seyrenConfig.getWhisperStorageDir()),
+                seyrenConfig.getWhisperGraphiteUrl(), seyrenConfig.getWhisperMaxOpenFiles(), seyrenConfig.getGraphiteMaxSeries(),
+                seyrenConfig.getGraphiteFrom(), seyrenConfig.getGraphiteUntil());
+    }
+
+    WhisperTargetChecker(GraphiteTargetChecker graphite, File storageDir, String graphiteUrl, int maxOpenFiles, int maxSeries, String defaultFrom, String defaultUntil) {
+        this.graphite = graphite;
+        this.storageDir = storageDir;
+        this.graphiteUrl = graphiteUrl;
+        this.maxSeries = maxSeries;
+        this.defaultFrom = defaultFrom;
+        this.defaultUntil = defaultUntil;
+        this.files = CacheBuilder.newBuilder()
+                .maximumSize(maxOpenFiles)
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .build(new CacheLoader<File, WhisperFile>() {
+                    @Override
+                    public WhisperFile load(File file) throws IOException {
+                        return WhisperFile.map(file);
+                    }
+                });
+        this.localChecks = Metrics.newCounter(WhisperTargetChecker.class, "local-checks");
+        this.delegatedChecks = Metrics.newCounter(WhisperTargetChecker.class, "delegated-checks");
+
+        Metrics.newGauge(WhisperTargetChecker.class, "mapped-files", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return files.size();
+            }
+        });
+    }
+
+    @Override
+    public Map<String, Optional<Double>> check(Check check) throws Exception {
+        if (!isLocal(check)) {
+            delegatedChecks.inc();
+            return graphite.check(check);
+        }
+        localChecks.inc();
+        return read(check);
+    }
+
+    /**
+     * Reads the check straight away if it can, as the files are mapped into
+     * memory, and otherwise asks Graphite without waiting.
+     */
+    @Override
+    public ListenableFuture<Map<String, Optional<Double>>> checkAsync(Check check) {
+        if (!isLocal(check)) {
+            delegatedChecks.inc();
+            return graphite.checkAsync(check);
+        }
+        localChecks.inc();
+        return Futures.immediateFuture(read(check));
+    }
+
+    /**
+     * Reads the checks it can and asks Graphite for the rest in one batch.
+     */
+    @Override
+    public Map<String, Map<String, Optional<Double>>> check(List<Check> checks) throws Exception {
+        Map<String, Map<String, Optional<Double>>> result = new HashMap<String, Map<String, Optional<Double>>>();
+        List<Check> remote = new ArrayList<Check>();
+        for (Check check : checks) {
+            if (isLocal(check)) {
+                localChecks.inc();
+                result.put(check.getId(), read(check));
+            } else {
+                remote.add(check);
+            }
+        }
+        if (!remote.isEmpty()) {
+            delegatedChecks.inc(remote.size());
+            result.putAll(graphite.check(remote));
+        }
+        return result;
+    }
+
+    private boolean isLocal(Check check) {
+        if (storageDir == null || !GraphitePathPattern.isPlainPath(check.getTarget())) {
+            return false;
+        }
+        if (!graphiteUrl.isEmpty() && !graphiteUrl.equals(check.getGraphiteBaseUrl())) {
+            return false;
+        }
+        if (GraphiteTime.secondsAgo(fromOf(check)) == null || GraphiteTime.secondsAgo(untilOf(check)) == null) {
+            return false;
+        }
+        for (String node : nodesOf(check.getTarget())) {
+            if (node.indexOf('.') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, Optional<Double>> read(Check check) {
+        long now = System.currentTimeMillis() / 1000;
+        long from = now - GraphiteTime.secondsAgo(fromOf(check));
+        long until = now - GraphiteTime.secondsAgo(untilOf(check));
+
+        Map<String, File> matches = new LinkedHashMap<String, File>();
+        resolve(storageDir, nodesOf(check.getTarget()), 0, "", matches);
+
+        Map<String, Optional<Double>> values = new HashMap<String, Optional<Double>>();
+        for (Map.Entry<String, File> match : matches.entrySet()) {
+            Double value = null;
+            try {
+                value = files.get(match.getValue()).latestValue(from, until, now);
+            } catch (ExecutionException e) {
+                files.invalidate(match.getValue());
+                LOGGER.warn("Could not read " + match.getValue(), e.getCause());
+            }
+            values.put(match.getKey(), value == null ? Optional.<Double>absent() : Optional.of(value));
+        }
+        return values;
+    }
+
+    /**
+     * Adds the Whisper files under dir which match the nodes from index on,
+     * keyed by the metric path Graphite would name their series after.
+     */
+    private void resolve(File dir, List<String> nodes, int index, String prefix, Map<String, File> matches) {
+        final String node = nodes.get(index);
+        final boolean last = index == nodes.size() - 1;
+        List<File> children;
+        if (GraphitePathPattern.isWildcard(node)) {
+            final GraphitePathPattern pattern = new GraphitePathPattern(node);
+            File[] listed = dir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    if (last) {
+                        String name = file.getName();
+                        return file.isFile() && name.endsWith(EXTENSION) && pattern.matches(name.substring(0, name.length() - EXTENSION.length()));
+                    }
+                    return file.isDirectory() && pattern.matches(file.getName());
+                }
+            });
+            if (listed == null) {
+                return;
+            }
+            Arrays.sort(listed);
+            children = Arrays.asList(listed);
+        } else {
+            File child = new File(dir, last ? node + EXTENSION : node);
+            if (last ? !child.isFile() : !child.isDirectory()) {
+                return;
+            }
+            children = Arrays.asList(child);
+        }
+
+        for (File child : children) {
+            if (maxSeries > 0 && matches.size() >= maxSeries) {
+                LOGGER.warn("More than " + maxSeries + " Whisper files match " + nodes + ", ignoring the rest");
+                return;
+            }
+            String name = child.getName();
+            if (last) {
+                matches.put(prefix + name.substring(0, name.length() - EXTENSION.length()), child);
+            } else {
+                resolve(child, nodes, index + 1, prefix + name + ".", matches);
+            }
+        }
+    }
+
+    private String fromOf(Check check) {
+        return check.getFrom() == null ? defaultFrom : check.getFrom();
+    }
+
+    private String untilOf(Check check) {
+        return check.getUntil() == null ? defaultUntil : check.getUntil();
+    }
+
+    /**
+     * Splits a path into nodes on the dots outside alternatives.
+     */
+    static List<String> nodesOf(String target) {
+        List<String> nodes = new ArrayList<String>();
+        int braces = 0;
+        int start = 0;
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c == '{') {
+                braces++;
+            } else if (c == '}') {
+                braces--;
+            } else if (c == '.' && braces == 0) {
+                nodes.add(target.substring(start, i));
+                start = i + 1;
+            }
+        }
+        nodes.add(target.substring(start));
+        return nodes;
+    }
+
+}
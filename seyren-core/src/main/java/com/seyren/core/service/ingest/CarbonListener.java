@@ -0,0 +1,261 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.ingest;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.service.schedule.PushedValues;
+import com.seyren.core.util.carbon.PickleDecoder;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Listens for metrics sent the way they are sent to carbon, so that checks
+ * can be evaluated as points arrive rather than by polling Graphite. Point
+ * a carbon-relay destination, or any client, at SEYREN_INGEST_PORT for the
+ * plaintext protocol or SEYREN_INGEST_PICKLE_PORT for the pickle protocol.
+ *
+ * Each connection is read on its own thread and every point is handed to
+ * {@link PushedValues}. A malformed line is skipped; a malformed pickle
+ * closes its connection, as carbon does.
+ */
+@Named
+public class CarbonListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CarbonListener.class);
+    private static final int MAX_PICKLE_BYTES = 16 * 1024 * 1024;
+
+    private final PushedValues pushedValues;
+    private final int plaintextPort;
+    private final int picklePort;
+    private final ExecutorService executor;
+    private final Set<ServerSocket> serverSockets = new CopyOnWriteArraySet<ServerSocket>();
+    private final Set<Socket> connections = new CopyOnWriteArraySet<Socket>();
+    private final Counter malformed;
+    private volatile boolean stopped;
+
+    @Inject
+    public CarbonListener(PushedValues pushedValues, SeyrenConfig seyrenConfig) {
+        this.pushedValues = pushedValues;
+        this.plaintextPort = seyrenConfig.getIngestPort();
+        this.picklePort = seyrenConfig.getIngestPicklePort();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("seyren.carbon-listener-%s").setDaemon(true).build());
+        this.malformed = Metrics.newCounter(CarbonListener.class, "malformed-points");
+
+        Metrics.newGauge(CarbonListener.class, "connections", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return connections.size();
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (plaintextPort > 0) {
+            listen(plaintextPort, false);
+        }
+        if (picklePort > 0) {
+            listen(picklePort, true);
+        }
+    }
+
+    private void listen(int port, final boolean pickle) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        serverSockets.add(serverSocket);
+        LOGGER.info("Listening for carbon {} protocol on port {}", pickle ? "pickle" : "plaintext", port);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.add(socket);
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                receive(socket, pickle);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (!stopped) {
+                            LOGGER.warn("Accepting a carbon connection failed", e);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void receive(Socket socket, boolean pickle) {
+        try {
+            InputStream in = socket.getInputStream();
+            if (pickle) {
+                receivePickles(in);
+            } else {
+                receiveLines(in);
+            }
+        } catch (EOFException e) {
+            // The sender went away in the middle of a pickle
+        } catch (SocketException e) {
+            // Closed on shutdown, or reset by the sender
+        } catch (IOException e) {
+            LOGGER.warn("Reading from " + socket.getRemoteSocketAddress() + " failed", e);
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void receiveLines(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                receiveLine(line);
+            }
+        }
+    }
+
+    /**
+     * Takes a line of the plaintext protocol: the metric path, the value and
+     * the timestamp in seconds, separated by whitespace.
+     */
+    void receiveLine(String line) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length != 3) {
+            malformed.inc();
+            return;
+        }
+        Double value = toDouble(fields[1]);
+        if (value == null) {
+            // Includes nan, which Graphite also drops
+            malformed.inc();
+            return;
+        }
+        try {
+            long timestamp = (long) Double.parseDouble(fields[2]);
+            pushedValues.record(fields[0], value, timestamp);
+        } catch (NumberFormatException e) {
+            malformed.inc();
+        }
+    }
+
+    private void receivePickles(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        while (true) {
+            int length;
+            try {
+                length = data.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length < 0 || length > MAX_PICKLE_BYTES) {
+                throw new IOException("Pickle of " + length + " bytes is too large");
+            }
+            byte[] pickle = new byte[length];
+            data.readFully(pickle);
+            receivePickle(pickle);
+        }
+    }
+
+    /**
+     * Takes a pickled list of (path, (timestamp, value)) tuples.
+     */
+    void receivePickle(byte[] pickle) throws IOException {
+        List<Object> datapoints = PickleDecoder.asList(PickleDecoder.decode(pickle));
+        if (datapoints == null) {
+            throw new IOException("Pickle isn't a list of datapoints");
+        }
+        for (Object datapoint : datapoints) {
+            List<Object> pathAndPoint = PickleDecoder.asList(datapoint);
+            List<Object> point = pathAndPoint == null || pathAndPoint.size() != 2 ? null : PickleDecoder.asList(pathAndPoint.get(1));
+            Double value = point == null || point.size() != 2 ? null : toDouble(point.get(1));
+            if (value == null || !(pathAndPoint.get(0) instanceof String) || !(point.get(0) instanceof Number)) {
+                malformed.inc();
+                continue;
+            }
+            pushedValues.record((String) pathAndPoint.get(0), value, ((Number) point.get(0)).longValue());
+        }
+    }
+
+    private static Double toDouble(Object value) {
+        double d;
+        if (value instanceof Number) {
+            d = ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                d = Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        return Double.isNaN(d) || Double.isInfinite(d) ? null : d;
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        for (ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                LOGGER.warn("Closing carbon listener failed", e);
+            }
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+}
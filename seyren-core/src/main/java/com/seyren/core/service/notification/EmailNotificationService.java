@@ -55,23 +55,31 @@ public class EmailNotificationService implements NotificationService {
     
     @Override
     public void sendNotification(Check check, Subscription subscription, List<Alert> alerts) {
+        sendEmail(subscription.getTarget(), createSubject(check), TEMPLATE_FILE_NAME, createVelocityContext(check, subscription, alerts));
+    }
+    
+    /**
+     * Renders the template with the context, which is given SEYREN_URL as
+     * well, and sends it as an HTML email. Shared with the status digest.
+     */
+    void sendEmail(String recipient, String subject, String templateFileName, VelocityContext context) {
         
         try {
-            VelocityContext context = createVelocityContext(check, subscription, alerts);
+            context.put("SEYREN_URL", seyrenConfig.getBaseUrl());
             
             StringWriter w = new StringWriter();
-            Velocity.evaluate(context, w, "EmailNotificationService", getTemplateAsString());
+            Velocity.evaluate(context, w, "EmailNotificationService", getTemplateAsString(templateFileName));
             
             Email email = new Email()
-                    .withTo(subscription.getTarget())
+                    .withTo(recipient)
                     .withFrom(seyrenConfig.getSmtpFrom())
-                    .withSubject(createSubject(check))
+                    .withSubject(subject)
                     .withMessage(w.getBuffer().toString());
             
             mailSender.send(createMimeMessage(email));
             
         } catch (Exception e) {
-            throw new NotificationFailedException("Failed to send notification to " + subscription.getTarget() + " from " + seyrenConfig.getSmtpFrom(), e);
+            throw new NotificationFailedException("Failed to send notification to " + recipient + " from " + seyrenConfig.getSmtpFrom(), e);
         }
     }
     
@@ -83,12 +91,11 @@ public class EmailNotificationService implements NotificationService {
         VelocityContext result = new VelocityContext();
         result.put("CHECK", check);
         result.put("ALERTS", alerts);
-        result.put("SEYREN_URL", seyrenConfig.getBaseUrl());
         return result;
     }
     
-    private String getTemplateAsString() throws IOException {
-        return IOUtils.toString(Thread.currentThread().getContextClassLoader().getResourceAsStream(TEMPLATE_FILE_NAME));
+    private String getTemplateAsString(String templateFileName) throws IOException {
+        return IOUtils.toString(Thread.currentThread().getContextClassLoader().getResourceAsStream(templateFileName));
     }
     
     private MimeMessage createMimeMessage(Email email) throws AddressException, MessagingException {
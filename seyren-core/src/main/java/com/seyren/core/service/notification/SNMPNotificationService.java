@@ -99,7 +99,7 @@ public class SNMPNotificationService implements NotificationService {
             pdu.add(new VariableBinding(new OID(oidPrefix+".2"), new OctetString(hostname.toString())));
             pdu.add(new VariableBinding(new OID(oidPrefix+".3"), new OctetString(check.getName().toString())));
             pdu.add(new VariableBinding(new OID(oidPrefix+".4"), new OctetString(alert.getTarget())));
-            pdu.add(new VariableBinding(new OID(oidPrefix+".5"), new OctetString(alert.getValue().toString())));
+            pdu.add(new VariableBinding(new OID(oidPrefix+".5"), new OctetString(String.valueOf(alert.getValue()))));
             pdu.add(new VariableBinding(new OID(oidPrefix+".6"), new OctetString(alert.getWarn().toString())));
             pdu.add(new VariableBinding(new OID(oidPrefix+".7"), new OctetString(alert.getError().toString())));
             pdu.add(new VariableBinding(new OID(oidPrefix+".8"), new OctetString(alert.getToType().toString())));
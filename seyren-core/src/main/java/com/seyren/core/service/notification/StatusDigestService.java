@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.velocity.VelocityContext;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * Emails each email subscriber a summary of every check they subscribe to
+ * which isn't currently OK, every SEYREN_DIGEST_INTERVAL minutes. It works
+ * from the check states held in memory so it costs nothing in database
+ * reads. The emails go out through the EmailNotificationService.
+ */
+@Named
+public class StatusDigestService {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatusDigestService.class);
+    private static final String TEMPLATE_FILE_NAME = "com/seyren/core/service/notification/status-digest-template.vm";
+    
+    private final EmailNotificationService emailNotificationService;
+    private final long intervalMillis;
+    private long nextDigest;
+    
+    @Inject
+    public StatusDigestService(EmailNotificationService emailNotificationService, SeyrenConfig seyrenConfig) {
+        this.emailNotificationService = emailNotificationService;
+        this.intervalMillis = TimeUnit.MINUTES.toMillis(seyrenConfig.getDigestIntervalMinutes());
+    }
+    
+    /**
+     * Sends the digests of the checks if a digest is due. The first is due
+     * an interval after the first call. An interval of 0 turns digests off.
+     */
+    public synchronized void sendDigestsIfDue(Collection<Check> checks, long nowMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        if (nextDigest == 0) {
+            nextDigest = nowMillis + intervalMillis;
+            return;
+        }
+        if (nowMillis < nextDigest) {
+            return;
+        }
+        nextDigest = nowMillis + intervalMillis;
+        
+        for (Entry<String, List<Check>> digest : digestsOf(checks, new DateTime(nowMillis)).entrySet()) {
+            try {
+                sendDigest(digest.getKey(), digest.getValue());
+            } catch (Exception e) {
+                LOGGER.warn("Sending status digest to " + digest.getKey() + " failed.", e);
+            }
+        }
+    }
+    
+    /**
+     * @return the checks which aren't OK, by the address of each email
+     *         subscriber who would be notified about them at the time
+     */
+    static Map<String, List<Check>> digestsOf(Collection<Check> checks, DateTime time) {
+        Map<String, List<Check>> digests = new TreeMap<String, List<Check>>();
+        for (Check check : checks) {
+            if (check.getState() == null || !check.getState().isWorseThan(AlertType.OK)) {
+                continue;
+            }
+            for (Subscription subscription : check.getSubscriptions()) {
+                if (subscription.getType() != SubscriptionType.EMAIL || !subscription.shouldNotify(time)) {
+                    continue;
+                }
+                List<Check> subscribed = digests.get(subscription.getTarget());
+                if (subscribed == null) {
+                    subscribed = new ArrayList<Check>();
+                    digests.put(subscription.getTarget(), subscribed);
+                }
+                if (!subscribed.contains(check)) {
+                    subscribed.add(check);
+                }
+            }
+        }
+        return digests;
+    }
+    
+    public void sendDigest(String recipient, List<Check> checks) {
+        VelocityContext context = new VelocityContext();
+        context.put("CHECKS", checks);
+        emailNotificationService.sendEmail(recipient, createSubject(checks), TEMPLATE_FILE_NAME, context);
+    }
+    
+    private String createSubject(List<Check> checks) {
+        return "Seyren status: " + checks.size() + (checks.size() == 1 ? " check" : " checks") + " not OK";
+    }
+    
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits how many checks may talk to each backend at once.
+ *
+ * Unlike a semaphore, a caller which can't have a permit isn't blocked: its
+ * continuation is parked against the backend and handed the permit when one
+ * is released. Any number of checks can therefore wait for a slow backend
+ * without holding a thread each, and as a check with a permit fetches
+ * without waiting, the permits alone limit how many checks are talking to
+ * each backend.
+ */
+public class BackendPermits {
+
+    private final int permitsPerBackend;
+    private final ConcurrentMap<String, Backend> backends = new ConcurrentHashMap<String, Backend>();
+
+    public BackendPermits(int permitsPerBackend) {
+        if (permitsPerBackend <= 0) {
+            throw new IllegalArgumentException("permitsPerBackend must be greater than 0: " + permitsPerBackend);
+        }
+        this.permitsPerBackend = permitsPerBackend;
+    }
+
+    /**
+     * Takes a permit for the backend if one is free, otherwise parks the
+     * continuation until {@link #release(String)} hands it one.
+     *
+     * @return true if the caller now holds a permit
+     */
+    public boolean acquireOrPark(String backend, Runnable continuation) {
+        Backend b = backendOf(backend);
+        synchronized (b) {
+            if (b.available > 0) {
+                b.available--;
+                return true;
+            }
+            b.parked.add(continuation);
+            return false;
+        }
+    }
+
+    /**
+     * Gives a permit back. If anything is parked against the backend the
+     * permit passes straight to the oldest continuation, which the caller
+     * must then run or release again.
+     *
+     * @return the continuation now holding the permit, or null
+     */
+    public Runnable release(String backend) {
+        Backend b = backendOf(backend);
+        synchronized (b) {
+            Runnable next = b.parked.poll();
+            if (next == null) {
+                b.available = Math.min(permitsPerBackend, b.available + 1);
+            }
+            return next;
+        }
+    }
+
+    public int getParked() {
+        int parked = 0;
+        for (Backend b : backends.values()) {
+            synchronized (b) {
+                parked += b.parked.size();
+            }
+        }
+        return parked;
+    }
+
+    public int getInUse() {
+        int inUse = 0;
+        for (Backend b : backends.values()) {
+            synchronized (b) {
+                inUse += permitsPerBackend - b.available;
+            }
+        }
+        return inUse;
+    }
+
+    private Backend backendOf(String backend) {
+        String key = backend == null ? "" : backend;
+        Backend b = backends.get(key);
+        if (b == null) {
+            Backend created = new Backend(permitsPerBackend);
+            b = backends.putIfAbsent(key, created);
+            if (b == null) {
+                b = created;
+            }
+        }
+        return b;
+    }
+
+    private static final class Backend {
+
+        private final Queue<Runnable> parked = new ArrayDeque<Runnable>();
+        private int available;
+
+        private Backend(int available) {
+            this.available = available;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.store.ChecksStore;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The scheduler's view of the enabled checks.
+ *
+ * Every check is loaded once. After that only changes are applied: changes
+ * made through the API are reloaded straight away, and a periodic pass
+ * picks up checks whose last modification is newer than the previous pass,
+ * which covers changes made by other Seyren instances. A full reload now and
+ * then catches checks deleted elsewhere.
+ */
+@Named
+public class CheckRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckRegistry.class);
+
+    /**
+     * Overlap between delta passes so that clock differences between Seyren
+     * instances and the database don't lose a change.
+     */
+    private static final long DELTA_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    public interface Listener {
+
+        void checkUpdated(Check check);
+
+        void checkRemoved(String checkId);
+
+    }
+
+    private final ChecksStore checksStore;
+    private final long fullReloadMillis;
+    private final ConcurrentMap<String, Check> checks = new ConcurrentHashMap<String, Check>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private long lastFullReload;
+    private DateTime lastDelta;
+
+    @Inject
+    public CheckRegistry(ChecksStore checksStore, SeyrenConfig seyrenConfig) {
+        this.checksStore = checksStore;
+        this.fullReloadMillis = TimeUnit.MINUTES.toMillis(seyrenConfig.getRegistryFullReloadMinutes());
+
+        Metrics.newGauge(CheckRegistry.class, "registered-checks", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return checks.size();
+            }
+        });
+        for (final AlertType state : AlertType.values()) {
+            Metrics.newGauge(CheckRegistry.class, "checks-" + state.toString().toLowerCase(), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return getStateCounts().get(state);
+                }
+            });
+        }
+    }
+
+    /**
+     * Tells the listener about every check already registered and then about
+     * every change.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        for (Check check : checks.values()) {
+            listener.checkUpdated(check);
+        }
+    }
+
+    public List<Check> getChecks() {
+        return new ArrayList<Check>(checks.values());
+    }
+
+    public Check getCheck(String checkId) {
+        return checks.get(checkId);
+    }
+
+    /**
+     * @return the number of registered checks currently in each state
+     */
+    public Map<AlertType, Integer> getStateCounts() {
+        Map<AlertType, Integer> counts = new EnumMap<AlertType, Integer>(AlertType.class);
+        for (AlertType state : AlertType.values()) {
+            counts.put(state, 0);
+        }
+        for (Check check : checks.values()) {
+            AlertType state = check.getState() == null ? AlertType.UNKNOWN : check.getState();
+            counts.put(state, counts.get(state) + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Reloads a single check after it has been created, changed or deleted.
+     * Waits for a refresh in progress, so that a full reload which read the
+     * check before it changed can't undo the change.
+     */
+    public synchronized void reload(String checkId) {
+        apply(checkId, checksStore.getCheck(checkId));
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public synchronized void refresh() {
+        try {
+            long now = System.currentTimeMillis();
+            if (lastDelta == null || now - lastFullReload >= fullReloadMillis) {
+                fullReload(now);
+            } else {
+                DateTime since = lastDelta.minus(DELTA_OVERLAP_MILLIS);
+                lastDelta = new DateTime(now);
+                for (Check check : checksStore.getChecksModifiedSince(since).getValues()) {
+                    apply(check.getId(), check);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Refreshing checks failed", e);
+        }
+    }
+
+    private void fullReload(long now) {
+        List<Check> loaded = checksStore.getChecks(true).getValues();
+        Set<String> removed = new HashSet<String>(checks.keySet());
+        for (Check check : loaded) {
+            removed.remove(check.getId());
+            apply(check.getId(), check);
+        }
+        for (String checkId : removed) {
+            apply(checkId, null);
+        }
+        lastFullReload = now;
+        lastDelta = new DateTime(now);
+        LOGGER.info("Loaded {} enabled checks", loaded.size());
+    }
+
+    private void apply(String checkId, Check check) {
+        if (check == null || !check.isEnabled()) {
+            if (checks.remove(checkId) != null) {
+                for (Listener listener : listeners) {
+                    listener.checkRemoved(checkId);
+                }
+            }
+            return;
+        }
+        checks.put(checkId, check);
+        for (Listener listener : listeners) {
+            listener.checkUpdated(check);
+        }
+    }
+
+}
@@ -15,13 +15,24 @@ package com.seyren.core.service.schedule;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,18 +42,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
+import com.seyren.core.domain.CheckPriority;
 import com.seyren.core.domain.Subscription;
-import com.seyren.core.service.checker.TargetChecker;
+import com.seyren.core.service.checker.AsyncTargetChecker;
+import com.seyren.core.service.checker.BatchTargetChecker;
+import com.seyren.core.service.checker.GraphiteCircuitBreakers;
+import com.seyren.core.service.checker.StateTransitions;
+import com.seyren.core.service.checker.ThresholdPushdown;
+import com.seyren.core.service.checker.Thresholds;
 import com.seyren.core.service.checker.ValueChecker;
 import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.service.notification.StatusDigestService;
 import com.seyren.core.store.AlertsStore;
 import com.seyren.core.store.ChecksStore;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.GraphitePathPattern;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
 
 @Named
 public class CheckScheduler {
@@ -50,102 +76,650 @@ public class CheckScheduler {
     private static final Logger LOGGER = LoggerFactory.getLogger(CheckScheduler.class);
     
     private final ChecksStore checksStore;
+    private final CheckRegistry checkRegistry;
     private final AlertsStore alertsStore;
+    private final LastAlertStates lastAlertStates;
     private final List<NotificationService> notificationServices;
-    private final TargetChecker targetChecker;
+    private final AsyncTargetChecker targetChecker;
+    private final BatchTargetChecker batchTargetChecker;
     private final ValueChecker valueChecker;
-    private final ScheduledExecutorService executor;
+    private final ThresholdPushdown thresholdPushdown;
+    private final PushedValues pushedValues;
+    private final GraphiteCircuitBreakers breakers;
+    private final Set<String> unknownByBreaker = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final CheckWorkQueue workQueue;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService ticker;
+    private final TimingWheel<Check> wheel;
+    private final int defaultInterval;
+    private final boolean spreadDispatch;
+    private final DispatchSpread dispatchSpread = new DispatchSpread(60);
+    private final InFlightChecks inFlight;
+    private final BackendPermits permits;
+    private final AtomicInteger asyncFetches = new AtomicInteger();
+    private final int batchSize;
+    private final PipelineStage evaluateStage;
+    private final PipelineStage persistStage;
+    private final PipelineStage notifyStage;
+    private final StatusDigestService statusDigestService;
+    private final long shutdownTimeoutMillis;
+    private volatile boolean draining;
     
     @Inject
-    public CheckScheduler(ChecksStore checksStore, AlertsStore alertsStore, List<NotificationService> notificationServices, TargetChecker targetChecker, ValueChecker valueChecker, SeyrenConfig seyrenConfig) {
+    public CheckScheduler(ChecksStore checksStore, CheckRegistry checkRegistry, AlertsStore alertsStore, List<NotificationService> notificationServices, AsyncTargetChecker targetChecker, @Named("whisperTargetChecker") BatchTargetChecker batchTargetChecker, ValueChecker valueChecker, ThresholdPushdown thresholdPushdown, PushedValues pushedValues, GraphiteCircuitBreakers breakers, StatusDigestService statusDigestService, SeyrenConfig seyrenConfig) {
         this.checksStore = checksStore;
+        this.checkRegistry = checkRegistry;
         this.alertsStore = alertsStore;
+        this.lastAlertStates = new LastAlertStates(alertsStore);
         this.notificationServices = notificationServices;
         this.targetChecker = targetChecker;
+        this.batchTargetChecker = batchTargetChecker;
+        this.batchSize = seyrenConfig.getBatchSize();
         this.valueChecker = valueChecker;
-		this.executor = Executors.newScheduledThreadPool(seyrenConfig.getNumThreads(), new ThreadFactoryBuilder().setNameFormat("seyren.check-scheduler-%s").setDaemon(false).build());
+        this.thresholdPushdown = thresholdPushdown;
+        this.pushedValues = pushedValues;
+        this.breakers = breakers;
+        this.statusDigestService = statusDigestService;
+        this.shutdownTimeoutMillis = seyrenConfig.getShutdownTimeoutMillis();
+        this.workQueue = new CheckWorkQueue(4, seyrenConfig.getQueueCapacity(), new CheckWorkQueue.Shedder() {
+            @Override
+            public void shed(Runnable runnable) {
+                shedCheck((CheckRunner) runnable);
+            }
+        });
+        this.executor = new ThreadPoolExecutor(seyrenConfig.getNumThreads(), seyrenConfig.getNumThreads(), 0L, TimeUnit.MILLISECONDS, workQueue,
+                new ThreadFactoryBuilder().setNameFormat("seyren.check-scheduler-%s").setDaemon(false).build());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("seyren.check-ticker-%s").setDaemon(true).build());
+        this.wheel = new TimingWheel<Check>(seyrenConfig.getSchedulerTickMillis(), seyrenConfig.getSchedulerWheelSize(), System.currentTimeMillis());
+        this.defaultInterval = seyrenConfig.getDefaultCheckInterval();
+        this.spreadDispatch = "spread".equalsIgnoreCase(seyrenConfig.getDispatchMode());
+        this.inFlight = new InFlightChecks("coalesce".equalsIgnoreCase(seyrenConfig.getOverrunPolicy()));
+        this.permits = "permits".equalsIgnoreCase(seyrenConfig.getExecutionMode()) ? new BackendPermits(seyrenConfig.getBackendPermits()) : null;
+        this.evaluateStage = new PipelineStage("evaluate", seyrenConfig.getEvaluateThreads(), seyrenConfig.getStageQueueCapacity());
+        this.persistStage = new PipelineStage("persist", seyrenConfig.getPersistThreads(), seyrenConfig.getStageQueueCapacity());
+        this.notifyStage = new PipelineStage("notify", seyrenConfig.getNotifyThreads(), seyrenConfig.getStageQueueCapacity());
+        
+        Metrics.newGauge(CheckScheduler.class, "dispatch-peak-to-mean", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return dispatchSpread.getPeakToMeanRatio(System.currentTimeMillis());
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "dispatch-peak-per-second", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return dispatchSpread.getPeakPerSecond(System.currentTimeMillis());
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "scheduled-checks", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return wheel.size();
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "checks-in-flight", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return inFlight.size();
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "check-overruns", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return inFlight.getTotalOverruns();
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "work-queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return workQueue.size();
+            }
+        });
+        Metrics.newGauge(CheckScheduler.class, "checks-shed", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return workQueue.getShedCount();
+            }
+        });
+        if (permits != null) {
+            Metrics.newGauge(CheckScheduler.class, "checks-waiting-for-permit", new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return permits.getParked();
+                }
+            });
+            Metrics.newGauge(CheckScheduler.class, "backend-permits-in-use", new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return permits.getInUse();
+                }
+            });
+            Metrics.newGauge(CheckScheduler.class, "async-fetches-in-flight", new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return asyncFetches.get();
+                }
+            });
+        }
     }
     
-    @Scheduled(fixedRate = 60000)
-    public void performChecks() {
-        List<Check> checks = checksStore.getChecks(true).getValues();
-        for (final Check check : checks) {
-            executor.execute(new CheckRunner(check));
+    @PostConstruct
+    public void start() {
+        checkRegistry.addListener(new WheelUpdater());
+        breakers.addListener(new BreakerListener());
+        long tickMillis = wheel.getTickMillis();
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dispatchDueChecks();
+                evaluatePushedValues();
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Keeps the timing wheel in step with the registered checks. New checks
+     * are due at their first slot, changed checks keep their place in the
+     * wheel and pick up their new interval after their next run, and deleted
+     * or disabled checks are dropped.
+     */
+    private class WheelUpdater implements CheckRegistry.Listener {
+        
+        @Override
+        public void checkUpdated(Check check) {
+            if (!wheel.update(check.getId(), check)) {
+                long now = System.currentTimeMillis();
+                wheel.schedule(check.getId(), check, spreadDispatch ? nextDeadline(check, now) : now);
+            }
+        }
+        
+        @Override
+        public void checkRemoved(String checkId) {
+            wheel.cancel(checkId);
+            inFlight.forget(checkId);
+            thresholdPushdown.forget(checkId);
+            lastAlertStates.forget(checkId);
+            unknownByBreaker.remove(checkId);
+        }
+        
+    }
+    
+    /**
+     * Runs the checks against an instance as soon as its breaker opens, so
+     * that they are marked UNKNOWN straight away, and again as soon as it
+     * closes, so that they don't wait out their interval to recover.
+     */
+    private class BreakerListener implements GraphiteCircuitBreakers.Listener {
+        
+        @Override
+        public void opened(String baseUrl) {
+            dispatchChecksOf(baseUrl);
+        }
+        
+        @Override
+        public void closed(String baseUrl) {
+            dispatchChecksOf(baseUrl);
+        }
+        
+    }
+    
+    private void dispatchChecksOf(String baseUrl) {
+        if (draining) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Check check : checkRegistry.getChecks()) {
+            if (!Objects.equal(baseUrl, check.getGraphiteBaseUrl()) || pushedValues.isPushed(check)) {
+                continue;
+            }
+            // A check already in flight is marked or evaluated when it finishes
+            if (inFlight.isRunning(check.getId()) || !inFlight.tryStart(check.getId(), now)) {
+                continue;
+            }
+            dispatch(Collections.singletonList(check));
+        }
+    }
+    
+    /**
+     * @return the number of times each check was due while its previous run
+     *         was still in flight
+     */
+    public Map<String, Long> getOverruns() {
+        return inFlight.getOverruns();
+    }
+    
+    private void dispatchDueChecks() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, List<Check>> batches = new HashMap<String, List<Check>>();
+            for (Check check : wheel.advance(now)) {
+                wheel.schedule(check.getId(), check, spreadDispatch ? nextDeadline(check, now) : now + intervalMillis(check));
+                dispatchSpread.record(now);
+                if (!inFlight.tryStart(check.getId(), now)) {
+                    LOGGER.info("{} is still running, not starting it again", check.getName());
+                    continue;
+                }
+                if (pushedValues.isPushed(check)) {
+                    // Evaluated as its values arrive too, but stale series only expire here
+                    Map<String, Optional<Double>> pushed = pushedValues.takeDue(check.getId(), now);
+                    if (pushed != null) {
+                        evaluateStage.submit(new EvaluateTask(check, pushed));
+                        continue;
+                    }
+                    // Nothing has been pushed within its window, so ask Graphite
+                }
+                if (batchSize <= 1 || !GraphitePathPattern.isPlainPath(check.getTarget())) {
+                    dispatch(Collections.singletonList(check));
+                    continue;
+                }
+                // Only checks with the same instance, replicas and time window can share a request
+                String batchKey = check.getGraphiteBaseUrl() + " " + check.getReplicaGroup() + " " + check.getFrom() + " " + check.getUntil();
+                List<Check> batch = batches.get(batchKey);
+                if (batch == null) {
+                    batch = new ArrayList<Check>(batchSize);
+                    batches.put(batchKey, batch);
+                }
+                batch.add(check);
+                if (batch.size() == batchSize) {
+                    batches.remove(batchKey);
+                    dispatch(batch);
+                }
+            }
+            for (List<Check> batch : batches.values()) {
+                dispatch(batch);
+            }
+        } catch (Exception e) {
+            // An exception would stop the ticker for good
+            LOGGER.warn("Dispatching due checks failed", e);
+        }
+    }
+    
+    /**
+     * Evaluates the checks which have been pushed values since the last
+     * tick. A check still being evaluated is left for the next tick, when it
+     * picks up anything else which has arrived by then.
+     */
+    private void evaluatePushedValues() {
+        if (!pushedValues.isEnabled()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            for (Entry<String, Map<String, Optional<Double>>> entry : pushedValues.takeUpdated(now).entrySet()) {
+                Check check = checkRegistry.getCheck(entry.getKey());
+                if (check == null || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                if (inFlight.isRunning(check.getId()) || !inFlight.tryStart(check.getId(), now)) {
+                    pushedValues.retry(check.getId());
+                    continue;
+                }
+                evaluateStage.submit(new EvaluateTask(check, entry.getValue()));
+            }
+        } catch (Exception e) {
+            // An exception would stop the ticker for good
+            LOGGER.warn("Evaluating pushed values failed", e);
+        }
+    }
+    
+    private void dispatch(List<Check> checks) {
+        CheckRunner runner = new CheckRunner(checks);
+        try {
+            executor.execute(runner);
+        } catch (RejectedExecutionException e) {
+            shedCheck(runner);
         }
     }
     
+    /**
+     * A shed check simply waits for its next interval.
+     */
+    private void shedCheck(CheckRunner runner) {
+        releasePermit(runner);
+        abandon(runner);
+    }
+    
+    private void abandon(CheckRunner runner) {
+        for (Check check : runner.checks) {
+            inFlight.abandon(check.getId());
+            if (!draining) {
+                LOGGER.info("Work queue is full, deferring {} to its next interval", check.getName());
+            }
+        }
+    }
+    
+    /**
+     * Passes the runner's backend permit on to the next parked check, if
+     * any. A parked check which can't be queued is shed and the permit
+     * moves on again.
+     */
+    private void releasePermit(CheckRunner runner) {
+        CheckRunner current = runner;
+        while (current.holdsPermit) {
+            current.holdsPermit = false;
+            CheckRunner next = (CheckRunner) permits.release(current.backend);
+            if (next == null) {
+                return;
+            }
+            next.holdsPermit = true;
+            try {
+                executor.execute(next);
+                return;
+            } catch (RejectedExecutionException e) {
+                abandon(next);
+                current = next;
+            }
+        }
+    }
+    
+    private void finished(Check check) {
+        if (inFlight.finish(check.getId(), System.currentTimeMillis())) {
+            if (draining) {
+                inFlight.abandon(check.getId());
+            } else {
+                dispatch(Collections.singletonList(check));
+            }
+        }
+    }
+    
+    private long intervalMillis(Check check) {
+        Integer interval = check.getInterval();
+        if (interval == null || interval <= 0) {
+            interval = defaultInterval;
+        }
+        return Math.max(TimeUnit.SECONDS.toMillis(interval), wheel.getTickMillis());
+    }
+    
+    /**
+     * Each check runs at a fixed offset within its interval, taken from a
+     * hash of its id, so the same check always lands in the same slot and
+     * thousands of checks are spread evenly rather than starting together.
+     * The search starts from the end of the current tick so that a check
+     * dispatched slightly ahead of its slot isn't due again straight away.
+     */
+    private long nextDeadline(Check check, long now) {
+        return nextDeadline(check.getId(), intervalMillis(check), wheel.getTickMillis(), now);
+    }
+    
+    static long nextDeadline(String checkId, long intervalMillis, long tickMillis, long now) {
+        long phase = (Hashing.murmur3_32().hashString(checkId).asInt() & Integer.MAX_VALUE) % intervalMillis;
+        long from = (now / tickMillis + 1) * tickMillis - 1;
+        return from - ((from - phase) % intervalMillis) + intervalMillis;
+    }
+    
+    /**
+     * Sends each email subscriber a digest of their checks which aren't OK,
+     * when one is due.
+     */
     @Scheduled(fixedRate = 60000)
     public void sendStatusEmail() {
-        checksStore.getChecks(true).getValues();
+        statusDigestService.sendDigestsIfDue(checkRegistry.getChecks(), System.currentTimeMillis());
     }
     
-    private class CheckRunner implements Runnable {
+    /**
+     * Work on behalf of one or more checks, at any stage of their
+     * evaluation.
+     */
+    private interface CheckWork extends Runnable {
         
-        private final Check check;
+        List<Check> getChecks();
         
-        public CheckRunner(Check check) {
-            this.check = check;
+    }
+    
+    /**
+     * Fetches the target values of one check, or of a batch of checks
+     * against the same Graphite instance in a single request. This is the
+     * first stage of evaluation and the only one which talks to Graphite;
+     * the rest of the work is handed on to the evaluate, persist and notify
+     * stages.
+     *
+     * In permits mode a single check is fetched without waiting: the
+     * request is sent and the thread let go, and the response hands the
+     * check on when it arrives. Only the permit is held meanwhile, so the
+     * checks in flight are limited by the permits rather than by threads.
+     */
+    private class CheckRunner implements CheckWork, CheckWorkQueue.Ranked {
+        
+        private final List<Check> checks;
+        private final String backend;
+        private final int rank;
+        private volatile boolean holdsPermit;
+        
+        public CheckRunner(List<Check> checks) {
+            this.checks = checks;
+            this.backend = checks.get(0).getGraphiteBaseUrl();
+            int mostUrgent = Integer.MAX_VALUE;
+            for (Check check : checks) {
+                mostUrgent = Math.min(mostUrgent, rankOf(check));
+            }
+            this.rank = mostUrgent;
+        }
+        
+        @Override
+        public List<Check> getChecks() {
+            return checks;
+        }
+        
+        @Override
+        public int getRank() {
+            return rank;
         }
         
         @Override
         public final void run() {
-            if (!check.isEnabled()) {
+            if (permits != null && !holdsPermit) {
+                if (!permits.acquireOrPark(backend, this)) {
+                    // Run again when another check hands over its permit
+                    return;
+                }
+                holdsPermit = true;
+            }
+            
+            if (permits != null && checks.size() == 1 && checks.get(0).isEnabled()) {
+                fetchAsync(checks.get(0));
                 return;
             }
             
+            Set<String> handedOn = Collections.emptySet();
+            try {
+                handedOn = fetch();
+            } finally {
+                releasePermit(this);
+                for (Check check : checks) {
+                    if (!handedOn.contains(check.getId())) {
+                        finished(check);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * @return the ids of the checks handed on to the evaluate stage
+         */
+        private Set<String> fetch() {
+            Set<String> handedOn = new HashSet<String>();
             try {
-                Map<String, Optional<BigDecimal>> targetValues = targetChecker.check(check);
+                Map<String, Map<String, Optional<Double>>> values;
+                if (checks.size() == 1) {
+                    Check check = checks.get(0);
+                    values = Collections.singletonMap(check.getId(), check.isEnabled() ? targetChecker.check(check) : null);
+                } else {
+                    values = batchTargetChecker.check(checks);
+                }
                 
-                if (targetValues.isEmpty()) {
-                    return;
+                for (Check check : checks) {
+                    if (check.isEnabled() && handOn(check, values.get(check.getId()))) {
+                        handedOn.add(check.getId());
+                    }
                 }
                 
+            } catch (Exception e) {
+                LOGGER.warn(describe(checks) + " failed", e);
+            }
+            return handedOn;
+        }
+        
+        private void fetchAsync(final Check check) {
+            ListenableFuture<Map<String, Optional<Double>>> values;
+            try {
+                values = targetChecker.checkAsync(check);
+            } catch (Exception e) {
+                values = Futures.immediateFailedFuture(e);
+            }
+            asyncFetches.incrementAndGet();
+            Futures.addCallback(values, new FutureCallback<Map<String, Optional<Double>>>() {
+                @Override
+                public void onSuccess(Map<String, Optional<Double>> targetValues) {
+                    boolean handedOn = false;
+                    try {
+                        handedOn = handOn(check, targetValues);
+                    } catch (Exception e) {
+                        LOGGER.warn(check.getName() + " failed", e);
+                    } finally {
+                        answered(check, handedOn);
+                    }
+                }
+                
+                @Override
+                public void onFailure(Throwable t) {
+                    LOGGER.warn(check.getName() + " failed", t);
+                    answered(check, false);
+                }
+            });
+        }
+        
+        private void answered(Check check, boolean handedOn) {
+            try {
+                releasePermit(this);
+                if (!handedOn) {
+                    finished(check);
+                }
+            } finally {
+                if (asyncFetches.decrementAndGet() == 0) {
+                    synchronized (asyncFetches) {
+                        asyncFetches.notifyAll();
+                    }
+                }
+            }
+        }
+        
+    }
+    
+    /**
+     * Passes fetched values on to the evaluate stage, or has a check whose
+     * Graphite instance isn't answering marked UNKNOWN.
+     *
+     * @return true if the check was handed on
+     */
+    private boolean handOn(Check check, Map<String, Optional<Double>> targetValues) {
+        if (targetValues != null && !targetValues.isEmpty()) {
+            evaluateStage.submit(new EvaluateTask(check, targetValues));
+            return true;
+        }
+        if (breakers.isOpen(check.getGraphiteBaseUrl()) && unknownByBreaker.add(check.getId())) {
+            persistStage.submit(unknownTask(check));
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Moves a check whose Graphite instance has stopped answering to
+     * UNKNOWN, with a single alert against its target, rather than leaving
+     * it in its last state while it is skipped.
+     */
+    private PersistTask unknownTask(Check check) {
+        DateTime now = new DateTime();
+        AlertType lastState = check.getState() == null ? AlertType.UNKNOWN : check.getState();
+        Alert alert = createAlert(check.getGraphiteBaseUrl(), check.getTarget(), null, check.getWarn(), check.getError(), lastState, AlertType.UNKNOWN, now);
+        List<Alert> alerts = Collections.singletonList(alert);
+        return new PersistTask(check, AlertType.UNKNOWN, alerts, stateIsTheSame(lastState, AlertType.UNKNOWN) ? Collections.<Alert> emptyList() : alerts, now);
+    }
+    
+    private static String describe(List<Check> checks) {
+        return checks.size() == 1 ? checks.get(0).getName() : "Batch of " + checks.size() + " checks against " + checks.get(0).getGraphiteBaseUrl();
+    }
+    
+    /**
+     * Works out the new state of each target and which alerts it raises.
+     */
+    private class EvaluateTask implements CheckWork {
+        
+        private final Check check;
+        private final Map<String, Optional<Double>> targetValues;
+        
+        public EvaluateTask(Check check, Map<String, Optional<Double>> targetValues) {
+            this.check = check;
+            this.targetValues = targetValues;
+        }
+        
+        @Override
+        public List<Check> getChecks() {
+            return Collections.singletonList(check);
+        }
+        
+        @Override
+        public void run() {
+            try {
                 DateTime now = new DateTime();
                 BigDecimal warn = check.getWarn();
                 BigDecimal error = check.getError();
+                Thresholds thresholds = Thresholds.of(warn, error);
                 
-                AlertType worstState = AlertType.UNKNOWN;
-                
+                List<Alert> alerts = new ArrayList<Alert>();
                 List<Alert> interestingAlerts = new ArrayList<Alert>();
+                Set<String> breaching = new HashSet<String>();
+                Set<String> withoutValue = new HashSet<String>();
+                
+                // Held in memory, so only targets which haven't been seen yet are read from the store
+                Map<String, AlertType> lastStatesByTarget = lastAlertStates.of(check, targetValues.keySet());
+                
+                int size = targetValues.size();
+                String[] targets = new String[size];
+                double[] values = new double[size];
+                AlertType[] lastStates = new AlertType[size];
+                int count = 0;
                 
-                for (Entry<String, Optional<BigDecimal>> entry : targetValues.entrySet()) {
+                for (Entry<String, Optional<Double>> entry : targetValues.entrySet()) {
                     
                     String target = entry.getKey();
-                    Optional<BigDecimal> value = entry.getValue();
+                    Optional<Double> value = entry.getValue();
                     
                     if (!value.isPresent()) {
                         LOGGER.warn("No value present for {}", target);
+                        withoutValue.add(target);
                         continue;
                     }
                     
-                    BigDecimal currentValue = value.get();
-                    
-                    Alert lastAlert = alertsStore.getLastAlertForTargetOfCheck(check.getGraphiteBaseUrl(), target, check.getId());
-                    
-                    AlertType lastState;
-                    
-                    if (lastAlert == null) {
-                        lastState = AlertType.OK;
-                    } else {
-                        lastState = lastAlert.getToType();
-                    }
-                    
-                    AlertType currentState = valueChecker.checkValue(currentValue, warn, error);
-                    
-                    if (currentState.isWorseThan(worstState)) {
-                        worstState = currentState;
+                    targets[count] = target;
+                    values[count] = value.get();
+                    lastStates[count] = lastStatesByTarget.get(target);
+                    count++;
+                }
+                
+                if (count < size) {
+                    targets = Arrays.copyOf(targets, count);
+                    values = Arrays.copyOf(values, count);
+                    lastStates = Arrays.copyOf(lastStates, count);
+                }
+                
+                StateTransitions transitions = valueChecker.checkValues(values, lastStates, thresholds);
+                AlertType[] states = transitions.getStates();
+                
+                for (int i = 0; i < count; i++) {
+                    if (states[i].isWorseThan(AlertType.OK)) {
+                        breaching.add(targets[i]);
                     }
+                }
+                
+                for (int i : transitions.getAlerting()) {
                     
-                    if (isStillOk(lastState, currentState)) {
-                        continue;
-                    }
+                    Alert alert = createAlert(check.getGraphiteBaseUrl(), targets[i], BigDecimal.valueOf(values[i]), warn, error, lastStates[i], states[i], now);
                     
-                    Alert alert = createAlert(check.getGraphiteBaseUrl(), target, currentValue, warn, error, lastState, currentState, now);
-                    
-                    alertsStore.createAlert(check.getId(), alert);
+                    alerts.add(alert);
                     
                     // Only notify if the alert has changed state
-                    if (stateIsTheSame(lastState, currentState)) {
+                    if (stateIsTheSame(lastStates[i], states[i])) {
                         continue;
                     }
                     
@@ -153,38 +727,138 @@ public class CheckScheduler {
                     
                 }
                 
-                check.setState(worstState);
-                checksStore.saveCheck(check);
+                AlertType worstState = transitions.getWorstState();
                 
-                if (interestingAlerts.isEmpty()) {
-                    return;
+                if (worstState != AlertType.UNKNOWN && unknownByBreaker.remove(check.getId()) && !alerted(alerts, check.getTarget())) {
+                    // The series of a wildcard check don't say that the check itself is back
+                    Alert recovered = createAlert(check.getGraphiteBaseUrl(), check.getTarget(), null, warn, error, AlertType.UNKNOWN, worstState, now);
+                    alerts.add(recovered);
+                    interestingAlerts.add(recovered);
                 }
                 
-                for (Subscription subscription : check.getSubscriptions()) {
-                    if (!subscription.shouldNotify(now)) {
-                        continue;
-                    }
-                    
-                    for (NotificationService notificationService : notificationServices) {
-                        if (notificationService.canHandle(subscription.getType())) {
-                            try {
-                                notificationService.sendNotification(check, subscription, interestingAlerts);
-                            } catch (Exception e) {
-                                LOGGER.warn("Notifying " + subscription.getTarget() + " by " + subscription.getType() + " failed.", e);
-                            }
-                        }
-                    }
+                thresholdPushdown.recordBreaching(check.getId(), breaching, withoutValue);
+                persistStage.submit(new PersistTask(check, worstState, alerts, interestingAlerts, now));
+                
+            } catch (Exception e) {
+                LOGGER.warn(check.getName() + " failed", e);
+                finished(check);
+            }
+        }
+        
+    }
+    
+    /**
+     * Stores the alerts and the new state of the check. The check is no
+     * longer in flight once this is done, whether or not anybody needs
+     * notifying.
+     */
+    private class PersistTask implements CheckWork {
+        
+        private final Check check;
+        private final AlertType worstState;
+        private final List<Alert> alerts;
+        private final List<Alert> interestingAlerts;
+        private final DateTime now;
+        
+        public PersistTask(Check check, AlertType worstState, List<Alert> alerts, List<Alert> interestingAlerts, DateTime now) {
+            this.check = check;
+            this.worstState = worstState;
+            this.alerts = alerts;
+            this.interestingAlerts = interestingAlerts;
+            this.now = now;
+        }
+        
+        @Override
+        public List<Check> getChecks() {
+            return Collections.singletonList(check);
+        }
+        
+        @Override
+        public void run() {
+            try {
+                for (Alert alert : alerts) {
+                    alertsStore.createAlert(check.getId(), alert);
+                    lastAlertStates.record(check, alert);
+                }
+                
+                check.setState(worstState);
+                checksStore.updateCheckState(check.getId(), worstState);
+                
+                if (!interestingAlerts.isEmpty()) {
+                    notifyStage.submit(new NotifyTask(check, interestingAlerts, now));
                 }
                 
             } catch (Exception e) {
                 LOGGER.warn(check.getName() + " failed", e);
+            } finally {
+                finished(check);
             }
         }
         
     }
     
-    private boolean isStillOk(AlertType last, AlertType current) {
-        return last == AlertType.OK && current == AlertType.OK;
+    private class NotifyTask implements CheckWork {
+        
+        private final Check check;
+        private final List<Alert> interestingAlerts;
+        private final DateTime now;
+        
+        public NotifyTask(Check check, List<Alert> interestingAlerts, DateTime now) {
+            this.check = check;
+            this.interestingAlerts = interestingAlerts;
+            this.now = now;
+        }
+        
+        @Override
+        public List<Check> getChecks() {
+            return Collections.singletonList(check);
+        }
+        
+        @Override
+        public void run() {
+            for (Subscription subscription : check.getSubscriptions()) {
+                if (!subscription.shouldNotify(now)) {
+                    continue;
+                }
+                
+                for (NotificationService notificationService : notificationServices) {
+                    if (notificationService.canHandle(subscription.getType())) {
+                        try {
+                            notificationService.sendNotification(check, subscription, interestingAlerts);
+                        } catch (Exception e) {
+                            LOGGER.warn("Notifying " + subscription.getTarget() + " by " + subscription.getType() + " failed.", e);
+                        }
+                    }
+                }
+            }
+        }
+        
+    }
+    
+    /**
+     * Under overload high priority checks run first, then checks which are
+     * already unhappy, then everything else, and low priority checks last.
+     */
+    private static int rankOf(Check check) {
+        if (check.getPriority() == CheckPriority.HIGH) {
+            return 0;
+        }
+        if (check.getPriority() == CheckPriority.LOW) {
+            return 3;
+        }
+        if (check.getState() != null && check.getState().isWorseThan(AlertType.OK)) {
+            return 1;
+        }
+        return 2;
+    }
+    
+    private static boolean alerted(List<Alert> alerts, String target) {
+        for (Alert alert : alerts) {
+            if (alert.getTarget().equals(target)) {
+                return true;
+            }
+        }
+        return false;
     }
     
     private boolean stateIsTheSame(AlertType last, AlertType current) {
@@ -203,9 +877,73 @@ public class CheckScheduler {
                 .withTimestamp(now);
     }
 
+    /**
+     * Stops dispatching and then lets the work already under way finish,
+     * stage by stage, so that fetched values are still evaluated, stored and
+     * notified. Whatever hasn't finished within SEYREN_SHUTDOWN_TIMEOUT is
+     * abandoned and logged.
+     */
     @PreDestroy
     public void preDestroy() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        draining = true;
+        ticker.shutdownNow();
+        LOGGER.info("Draining {} checks in flight", inFlight.size());
+        
         executor.shutdown();
-        executor.awaitTermination(500, TimeUnit.MILLISECONDS);
+        if (!executor.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+            reportAbandoned("fetch", executor.shutdownNow());
+        }
+        // Fetches sent without waiting hand their checks on as they are answered
+        synchronized (asyncFetches) {
+            long remaining;
+            while (asyncFetches.get() > 0 && (remaining = remainingMillis(deadline)) > 0) {
+                asyncFetches.wait(remaining);
+            }
+        }
+        if (asyncFetches.get() > 0) {
+            LOGGER.warn("Timed out waiting for {} fetches from Graphite", asyncFetches.get());
+        }
+        for (PipelineStage stage : Arrays.asList(evaluateStage, persistStage, notifyStage)) {
+            // Each stage feeds the next, so it can only stop taking work once its predecessor has stopped
+            stage.shutdown();
+            if (!stage.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                reportAbandoned(stage.getName(), stage.shutdownNow());
+            }
+        }
+        
+        Set<String> unfinished = inFlight.getRunning();
+        if (unfinished.isEmpty()) {
+            LOGGER.info("Drained all checks");
+        } else {
+            LOGGER.warn("{} checks didn't finish before shutdown: {}", unfinished.size(), checkNames(unfinished));
+        }
+    }
+    
+    private long remainingMillis(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+    
+    private void reportAbandoned(String stage, List<Runnable> abandoned) {
+        if (abandoned.isEmpty()) {
+            LOGGER.warn("Timed out waiting for the {} stage to finish", stage);
+            return;
+        }
+        Set<String> checkIds = new TreeSet<String>();
+        for (Runnable runnable : abandoned) {
+            for (Check check : ((CheckWork) runnable).getChecks()) {
+                checkIds.add(check.getId());
+            }
+        }
+        LOGGER.warn("Abandoned {} queued {} tasks for: {}", new Object[] { abandoned.size(), stage, checkNames(checkIds) });
+    }
+    
+    private List<String> checkNames(Set<String> checkIds) {
+        List<String> names = new ArrayList<String>();
+        for (String checkId : checkIds) {
+            Check check = checkRegistry.getCheck(checkId);
+            names.add(check == null ? checkId : check.getName());
+        }
+        return names;
     }
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded work queue which hands out the most urgent work first.
+ *
+ * Work is held in one FIFO per rank, rank 0 being the most urgent. When the
+ * queue is full, new work evicts the newest item of the least urgent rank
+ * if that rank is less urgent than the new work; otherwise the new work is
+ * refused. Either way the loser is shed and handed to the {@link Shedder}
+ * so that it can be accounted for.
+ */
+public class CheckWorkQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * Work which knows how urgent it is. Anything else is treated as the
+     * least urgent rank.
+     */
+    public interface Ranked {
+
+        int getRank();
+
+    }
+
+    public interface Shedder {
+
+        void shed(Runnable runnable);
+
+    }
+
+    private final List<ArrayDeque<Runnable>> ranks;
+    private final int capacity;
+    private final Shedder shedder;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong shedCount = new AtomicLong();
+    private int count;
+
+    public CheckWorkQueue(int rankCount, int capacity, Shedder shedder) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0: " + capacity);
+        }
+        this.ranks = new ArrayList<ArrayDeque<Runnable>>(rankCount);
+        for (int i = 0; i < rankCount; i++) {
+            ranks.add(new ArrayDeque<Runnable>());
+        }
+        this.capacity = capacity;
+        this.shedder = shedder;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        Runnable shed = null;
+        lock.lock();
+        try {
+            if (count == capacity) {
+                int rank = rankOf(runnable);
+                int worst = worstOccupiedRank();
+                if (worst <= rank) {
+                    shed = runnable;
+                } else {
+                    shed = ranks.get(worst).pollLast();
+                    count--;
+                }
+            }
+            if (shed != runnable) {
+                enqueue(runnable);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (shed != null) {
+            shedCount.incrementAndGet();
+            if (shed != runnable) {
+                // A refused offer is shed by the executor's rejection handling
+                shedder.shed(shed);
+            }
+        }
+        return shed != runnable;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(runnable);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(runnable);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> rank : ranks) {
+                if (!rank.isEmpty()) {
+                    return rank.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> rank : ranks) {
+                if (rank.remove(o)) {
+                    count--;
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            Runnable runnable;
+            while (drained < maxElements && (runnable = dequeue()) != null) {
+                c.add(runnable);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the queue, most urgent first.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<Runnable>(count);
+            for (ArrayDeque<Runnable> rank : ranks) {
+                snapshot.addAll(rank);
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of items refused or evicted because the queue was
+     *         full
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    private void enqueue(Runnable runnable) {
+        ranks.get(rankOf(runnable)).addLast(runnable);
+        count++;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        for (ArrayDeque<Runnable> rank : ranks) {
+            Runnable runnable = rank.pollFirst();
+            if (runnable != null) {
+                count--;
+                notFull.signal();
+                return runnable;
+            }
+        }
+        return null;
+    }
+
+    private int worstOccupiedRank() {
+        for (int i = ranks.size() - 1; i >= 0; i--) {
+            if (!ranks.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int rankOf(Runnable runnable) {
+        int worst = ranks.size() - 1;
+        if (runnable instanceof Ranked) {
+            return Math.max(0, Math.min(worst, ((Ranked) runnable).getRank()));
+        }
+        return worst;
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+/**
+ * Counts check dispatches per second over a sliding window so we can see how
+ * evenly the load is spread. A peak-to-mean ratio of 1 means every second of
+ * the window saw the same number of dispatches; a herd at the top of every
+ * minute shows up as a ratio close to the window length.
+ */
+public class DispatchSpread {
+
+    private final long[] counts;
+    private final long[] seconds;
+
+    public DispatchSpread(int windowSeconds) {
+        this.counts = new long[windowSeconds];
+        this.seconds = new long[windowSeconds];
+    }
+
+    public synchronized void record(long nowMillis) {
+        long second = nowMillis / 1000;
+        int slot = (int) (second % counts.length);
+        if (seconds[slot] != second) {
+            seconds[slot] = second;
+            counts[slot] = 0;
+        }
+        counts[slot]++;
+    }
+
+    public synchronized long getPeakPerSecond(long nowMillis) {
+        long oldest = nowMillis / 1000 - counts.length;
+        long peak = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (seconds[i] > oldest) {
+                peak = Math.max(peak, counts[i]);
+            }
+        }
+        return peak;
+    }
+
+    public synchronized double getMeanPerSecond(long nowMillis) {
+        long oldest = nowMillis / 1000 - counts.length;
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (seconds[i] > oldest) {
+                total += counts[i];
+            }
+        }
+        return (double) total / counts.length;
+    }
+
+    public double getPeakToMeanRatio(long nowMillis) {
+        double mean = getMeanPerSecond(nowMillis);
+        if (mean == 0) {
+            return 0;
+        }
+        return getPeakPerSecond(nowMillis) / mean;
+    }
+
+}
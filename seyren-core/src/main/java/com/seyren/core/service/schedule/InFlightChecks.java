@@ -0,0 +1,134 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which checks have been dispatched and not yet finished, so that a
+ * check whose previous run is still queued or executing isn't run again on
+ * top of it.
+ *
+ * An overlapping dispatch is counted as an overrun against the check. When
+ * coalescing, it also leaves a marker so that a single extra run follows as
+ * soon as the current one finishes, however many dispatches overlapped.
+ */
+public class InFlightChecks {
+
+    private final ConcurrentMap<String, Long> running = new ConcurrentHashMap<String, Long>();
+    private final Set<String> pending = new HashSet<String>();
+    private final ConcurrentMap<String, AtomicLong> overruns = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong totalOverruns = new AtomicLong();
+    private final boolean coalesce;
+
+    public InFlightChecks(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * @return true if the check wasn't already in flight and may be run
+     */
+    public boolean tryStart(String checkId, long nowMillis) {
+        if (running.putIfAbsent(checkId, nowMillis) == null) {
+            return true;
+        }
+        recordOverrun(checkId);
+        if (coalesce) {
+            synchronized (pending) {
+                if (running.containsKey(checkId)) {
+                    pending.add(checkId);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if an overlapping dispatch was coalesced and the check
+     *         should be run once more; the check is then still in flight
+     */
+    public boolean finish(String checkId, long nowMillis) {
+        synchronized (pending) {
+            if (pending.remove(checkId)) {
+                running.put(checkId, nowMillis);
+                return true;
+            }
+            running.remove(checkId);
+        }
+        return false;
+    }
+
+    /**
+     * Marks the check as no longer in flight without running it again, for
+     * runs which were dropped before they started.
+     */
+    public void abandon(String checkId) {
+        synchronized (pending) {
+            pending.remove(checkId);
+            running.remove(checkId);
+        }
+    }
+
+    public boolean isRunning(String checkId) {
+        return running.containsKey(checkId);
+    }
+
+    public Set<String> getRunning() {
+        return new HashSet<String>(running.keySet());
+    }
+
+    public int size() {
+        return running.size();
+    }
+
+    public Map<String, Long> getOverruns() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Entry<String, AtomicLong> entry : overruns.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public long getTotalOverruns() {
+        return totalOverruns.get();
+    }
+
+    /**
+     * Drops the overrun count of a check which no longer exists.
+     */
+    public void forget(String checkId) {
+        overruns.remove(checkId);
+    }
+
+    private void recordOverrun(String checkId) {
+        AtomicLong count = overruns.get(checkId);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = overruns.putIfAbsent(checkId, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        totalOverruns.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Objects;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.store.AlertsStore;
+
+/**
+ * Holds the state each target of each check was left in by its last alert,
+ * so that evaluating a check doesn't read the alert history. Targets which
+ * aren't held yet, as after a restart or when a new series appears, are
+ * loaded from the store in one query per evaluation. Targets which no
+ * longer have a series are dropped and loaded again if they come back.
+ */
+public class LastAlertStates {
+
+    private final AlertsStore alertsStore;
+    private final ConcurrentMap<String, TargetStates> statesByCheck = new ConcurrentHashMap<String, TargetStates>();
+
+    public LastAlertStates(AlertsStore alertsStore) {
+        this.alertsStore = alertsStore;
+    }
+
+    /**
+     * @return the last state of each of the targets, OK for a target which
+     *         has never alerted
+     */
+    public Map<String, AlertType> of(Check check, Set<String> targets) {
+        TargetStates states = statesByCheck.get(check.getId());
+        if (states == null || !Objects.equal(states.graphiteBaseUrl, check.getGraphiteBaseUrl())) {
+            // Alerts against another instance say nothing about this one
+            states = new TargetStates(check.getGraphiteBaseUrl());
+            statesByCheck.put(check.getId(), states);
+        }
+        states.byTarget.keySet().retainAll(targets);
+        List<String> unknown = new ArrayList<String>();
+        for (String target : targets) {
+            if (!states.byTarget.containsKey(target)) {
+                unknown.add(target);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            Map<String, AlertType> loaded = alertsStore.getLastAlertStatesOfCheck(check.getGraphiteBaseUrl(), check.getId(), unknown);
+            for (String target : unknown) {
+                AlertType state = loaded.get(target);
+                states.byTarget.putIfAbsent(target, state == null ? AlertType.OK : state);
+            }
+        }
+        return states.byTarget;
+    }
+
+    /**
+     * Takes the new state of a target from an alert which has been stored.
+     */
+    public void record(Check check, Alert alert) {
+        TargetStates states = statesByCheck.get(check.getId());
+        if (states != null && Objects.equal(states.graphiteBaseUrl, alert.getGraphiteBaseUrl())) {
+            states.byTarget.put(alert.getTarget(), alert.getToType());
+        }
+    }
+
+    public void forget(String checkId) {
+        statesByCheck.remove(checkId);
+    }
+
+    private static final class TargetStates {
+
+        private final String graphiteBaseUrl;
+        private final ConcurrentMap<String, AlertType> byTarget = new ConcurrentHashMap<String, AlertType>();
+
+        private TargetStates(String graphiteBaseUrl) {
+            this.graphiteBaseUrl = graphiteBaseUrl;
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * One stage of check evaluation, with its own threads and its own bounded
+ * queue, so that a stage which stalls only backs up its own queue.
+ *
+ * When the queue is full the submitting thread runs the task itself. That
+ * slows the previous stage down to the pace of this one rather than losing
+ * work, and shows up in the overflow count.
+ */
+public class PipelineStage {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final Timer timer;
+    private final Counter overflows;
+
+    public PipelineStage(String name, int threads, int queueCapacity) {
+        this.name = name;
+        this.timer = Metrics.newTimer(metricName("time"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        this.overflows = Metrics.newCounter(metricName("overflows"));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("seyren." + name + "-%s").setDaemon(false).build(),
+                new RejectedExecutionHandler() {
+                    private final RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy();
+
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        overflows.inc();
+                        callerRuns.rejectedExecution(runnable, executor);
+                    }
+                });
+
+        Metrics.newGauge(metricName("queue-depth"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getQueue().size();
+            }
+        });
+        Metrics.newGauge(metricName("active"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+
+    public void submit(Runnable task) {
+        executor.execute(new TimedTask(task));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return the tasks which never started
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> abandoned = new ArrayList<Runnable>();
+        for (Runnable runnable : executor.shutdownNow()) {
+            abandoned.add(((TimedTask) runnable).task);
+        }
+        return abandoned;
+    }
+
+    private MetricName metricName(String metric) {
+        return new MetricName(PipelineStage.class, metric, name);
+    }
+
+    private final class TimedTask implements Runnable {
+
+        private final Runnable task;
+
+        private TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            TimerContext context = timer.time();
+            try {
+                task.run();
+            } finally {
+                context.stop();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.google.common.base.Optional;
+import com.seyren.core.domain.Check;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.GraphitePathIndex;
+import com.seyren.core.util.graphite.GraphitePathPattern;
+import com.seyren.core.util.graphite.GraphiteTime;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The latest value of each series of each check, as pushed to Seyren by
+ * carbon rather than fetched from Graphite. Used when SEYREN_INGEST_PORT or
+ * SEYREN_INGEST_PICKLE_PORT is set.
+ *
+ * Every metric received is looked up in a {@link GraphitePathIndex} of the
+ * targets of the checks which take pushed values: those whose target is a
+ * plain metric path, with or without wildcards, against
+ * SEYREN_INGEST_GRAPHITE_URL or any instance if that isn't set. A check which received anything since it was last
+ * evaluated is evaluated on the scheduler's next tick with the latest value
+ * of every one of its series, so one evaluation covers any number of points.
+ *
+ * A series which hasn't received a point within the check's from window is
+ * reported once without a value, as Graphite would, and then forgotten. The
+ * checks also stay on the scheduler's timing wheel, so one whose points stop
+ * arriving altogether still has its series expire on its interval, and goes
+ * UNKNOWN, and once it holds no series it is fetched from Graphite like any
+ * other check until points arrive again.
+ */
+@Named
+public class PushedValues {
+
+    private final CheckRegistry checkRegistry;
+    private final boolean enabled;
+    private final String graphiteUrl;
+    private final String defaultFrom;
+    private final ConcurrentMap<String, Check> checks = new ConcurrentHashMap<String, Check>();
+    private final GraphitePathIndex<String> targets = new GraphitePathIndex<String>();
+    private final Map<String, Map<String, Point>> latest = new HashMap<String, Map<String, Point>>();
+    private final Set<String> updated = new LinkedHashSet<String>();
+    private final Counter received;
+    private final Counter matched;
+
+    @Inject
+    public PushedValues(CheckRegistry checkRegistry, SeyrenConfig seyrenConfig) {
+        this(checkRegistry, seyrenConfig.getIngestPort() > 0 || seyrenConfig.getIngestPicklePort() > 0, seyrenConfig.getIngestGraphiteUrl(),
+                seyrenConfig.getGraphiteFrom());
+    }
+
+    PushedValues(CheckRegistry checkRegistry, boolean enabled, String graphiteUrl, String defaultFrom) {
+        this.checkRegistry = checkRegistry;
+        this.enabled = enabled;
+        this.graphiteUrl = graphiteUrl;
+        this.defaultFrom = defaultFrom;
+        this.received = Metrics.newCounter(PushedValues.class, "points-received");
+        this.matched = Metrics.newCounter(PushedValues.class, "points-matched");
+
+        Metrics.newGauge(PushedValues.class, "pushed-checks", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return checks.size();
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            checkRegistry.addListener(new TargetIndexUpdater());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if the check is evaluated from pushed values instead of
+     *         being fetched from Graphite
+     */
+    public boolean isPushed(Check check) {
+        if (!enabled || !GraphitePathPattern.isPlainPath(check.getTarget())) {
+            return false;
+        }
+        return graphiteUrl.isEmpty() || graphiteUrl.equals(check.getGraphiteBaseUrl());
+    }
+
+    /**
+     * Records a point for every check whose target matches the metric. An
+     * older point than the one already held for a series is ignored.
+     */
+    public void record(String metric, double value, long timestampSeconds) {
+        received.inc();
+        Set<String> checkIds = targets.match(metric);
+        if (checkIds.isEmpty()) {
+            return;
+        }
+        matched.inc();
+        synchronized (latest) {
+            for (String checkId : checkIds) {
+                Map<String, Point> series = latest.get(checkId);
+                if (series == null) {
+                    series = new HashMap<String, Point>();
+                    latest.put(checkId, series);
+                }
+                Point previous = series.get(metric);
+                if (previous != null && previous.timestampSeconds > timestampSeconds) {
+                    continue;
+                }
+                series.put(metric, new Point(value, timestampSeconds));
+                updated.add(checkId);
+            }
+        }
+    }
+
+    /**
+     * Takes the checks which have received points since they were last
+     * taken.
+     *
+     * @return the latest value of every series of each check, keyed by check
+     *         id
+     */
+    public Map<String, Map<String, Optional<Double>>> takeUpdated(long nowMillis) {
+        Map<String, Map<String, Optional<Double>>> result = new HashMap<String, Map<String, Optional<Double>>>();
+        long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(nowMillis);
+        synchronized (latest) {
+            for (String checkId : updated) {
+                Check check = checks.get(checkId);
+                Map<String, Point> series = latest.get(checkId);
+                if (check == null || series == null) {
+                    continue;
+                }
+                result.put(checkId, valuesOf(check, series, nowSeconds));
+                if (series.isEmpty()) {
+                    latest.remove(checkId);
+                }
+            }
+            updated.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Takes the values of a check which is due on its interval, whether or
+     * not it has received anything since it was last taken, so that series
+     * which have stopped receiving points are reported without a value rather
+     * than keeping their last one.
+     *
+     * @return the latest value of every series of the check, or null if it
+     *         holds none and should be fetched from Graphite instead
+     */
+    public Map<String, Optional<Double>> takeDue(String checkId, long nowMillis) {
+        synchronized (latest) {
+            Check check = checks.get(checkId);
+            Map<String, Point> series = latest.get(checkId);
+            if (check == null || series == null || series.isEmpty()) {
+                return null;
+            }
+            updated.remove(checkId);
+            Map<String, Optional<Double>> values = valuesOf(check, series, TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+            if (series.isEmpty()) {
+                latest.remove(checkId);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Reports a series which hasn't received a point within the check's from
+     * window without a value, and forgets it.
+     */
+    private Map<String, Optional<Double>> valuesOf(Check check, Map<String, Point> series, long nowSeconds) {
+        Long window = GraphiteTime.secondsAgo(check.getFrom() == null ? defaultFrom : check.getFrom());
+        Map<String, Optional<Double>> values = new HashMap<String, Optional<Double>>();
+        for (Iterator<Entry<String, Point>> points = series.entrySet().iterator(); points.hasNext();) {
+            Entry<String, Point> point = points.next();
+            if (window != null && point.getValue().timestampSeconds < nowSeconds - window) {
+                values.put(point.getKey(), Optional.<Double>absent());
+                points.remove();
+            } else {
+                values.put(point.getKey(), Optional.of(point.getValue().value));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Has a check which couldn't be evaluated yet taken again next time.
+     */
+    public void retry(String checkId) {
+        synchronized (latest) {
+            if (latest.containsKey(checkId)) {
+                updated.add(checkId);
+            }
+        }
+    }
+
+    private void forget(String checkId) {
+        synchronized (latest) {
+            latest.remove(checkId);
+            updated.remove(checkId);
+        }
+    }
+
+    /**
+     * Keeps the index of targets in step with the registered
+     * checks. A check whose target changes starts again with no series.
+     */
+    private class TargetIndexUpdater implements CheckRegistry.Listener {
+
+        @Override
+        public void checkUpdated(Check check) {
+            Check previous = isPushed(check) ? checks.put(check.getId(), check) : checks.remove(check.getId());
+            if (previous != null && previous.getTarget().equals(check.getTarget()) && isPushed(check)) {
+                return;
+            }
+            if (previous != null) {
+                targets.remove(previous.getTarget(), previous.getId());
+                forget(check.getId());
+            }
+            if (isPushed(check)) {
+                targets.add(check.getTarget(), check.getId());
+            }
+        }
+
+        @Override
+        public void checkRemoved(String checkId) {
+            Check previous = checks.remove(checkId);
+            if (previous != null) {
+                targets.remove(previous.getTarget(), previous.getId());
+            }
+            forget(checkId);
+        }
+
+    }
+
+    private static final class Point {
+
+        private final double value;
+        private final long timestampSeconds;
+
+        private Point(double value, long timestampSeconds) {
+            this.value = value;
+            this.timestampSeconds = timestampSeconds;
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hashed timing wheel.
+ *
+ * Items are hashed into a fixed number of buckets by the tick on which they
+ * become due, so scheduling, cancelling and advancing the wheel cost the same
+ * no matter how many items it holds. Items further away than one revolution
+ * simply sit in their bucket until the wheel comes round to their tick.
+ */
+public class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Map<String, Timeout<T>>> buckets;
+    private final Map<String, Timeout<T>> timeouts = new HashMap<String, Timeout<T>>();
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, int ticksPerWheel, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0: " + tickMillis);
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("ticksPerWheel must be greater than 0: " + ticksPerWheel);
+        }
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<Map<String, Timeout<T>>>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new HashMap<String, Timeout<T>>());
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the item to become due at the given time, replacing anything
+     * already scheduled under the same key. Deadlines in the past become due
+     * on the next tick.
+     */
+    public synchronized void schedule(String key, T item, long deadlineMillis) {
+        cancel(key);
+        long deadlineTick = Math.max(currentTick + 1, deadlineMillis / tickMillis);
+        Timeout<T> timeout = new Timeout<T>(key, item, deadlineTick);
+        bucketOf(deadlineTick).put(key, timeout);
+        timeouts.put(key, timeout);
+    }
+
+    /**
+     * Swaps the item held under the key without moving its deadline.
+     *
+     * @return false if nothing is scheduled under the key
+     */
+    public synchronized boolean update(String key, T item) {
+        Timeout<T> timeout = timeouts.get(key);
+        if (timeout == null) {
+            return false;
+        }
+        timeout.item = item;
+        return true;
+    }
+
+    public synchronized boolean cancel(String key) {
+        Timeout<T> timeout = timeouts.remove(key);
+        if (timeout == null) {
+            return false;
+        }
+        bucketOf(timeout.deadlineTick).remove(key);
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the given time and removes every item which
+     * has become due on the way.
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<T>();
+        long targetTick = nowMillis / tickMillis;
+        if (targetTick <= currentTick) {
+            return expired;
+        }
+
+        // After a long pause there is no point going round more than once
+        long steps = Math.min(targetTick - currentTick, buckets.size());
+        for (long i = 1; i <= steps; i++) {
+            Iterator<Timeout<T>> it = bucketOf(currentTick + i).values().iterator();
+            while (it.hasNext()) {
+                Timeout<T> timeout = it.next();
+                if (timeout.deadlineTick <= targetTick) {
+                    it.remove();
+                    timeouts.remove(timeout.key);
+                    expired.add(timeout.item);
+                }
+            }
+        }
+        currentTick = targetTick;
+        return expired;
+    }
+
+    public synchronized boolean contains(String key) {
+        return timeouts.containsKey(key);
+    }
+
+    public synchronized Set<String> keys() {
+        return new HashSet<String>(timeouts.keySet());
+    }
+
+    public synchronized int size() {
+        return timeouts.size();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private Map<String, Timeout<T>> bucketOf(long tick) {
+        return buckets.get((int) (tick & mask));
+    }
+
+    private static final class Timeout<T> {
+
+        private final String key;
+        private final long deadlineTick;
+        private T item;
+
+        private Timeout(String key, T item, long deadlineTick) {
+            this.key = key;
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+    }
+
+}
@@ -13,7 +13,11 @@
  */
 package com.seyren.core.store;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.SeyrenResponse;
 
 public interface AlertsStore {
@@ -26,4 +30,11 @@ public interface AlertsStore {
     
     Alert getLastAlertForTargetOfCheck(String graphiteBaseUrl, String target, String checkId);
     
+    /**
+     * @return the state each of the given targets of the check was left in
+     *         by its last alert, keyed by target, in a single query. Targets
+     *         which have never alerted are left out.
+     */
+    Map<String, AlertType> getLastAlertStatesOfCheck(String graphiteBaseUrl, String checkId, Collection<String> targets);
+    
 }
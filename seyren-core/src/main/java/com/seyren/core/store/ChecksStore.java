@@ -15,6 +15,9 @@ package com.seyren.core.store;
 
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
+import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.SeyrenResponse;
 
@@ -32,4 +35,16 @@ public interface ChecksStore {
     
     Check saveCheck(Check check);
     
+    /**
+     * Records a new state for the check without counting it as a
+     * modification of the check.
+     */
+    void updateCheckState(String checkId, AlertType state);
+    
+    /**
+     * @return enabled and disabled checks which were modified at or after the
+     *         given time
+     */
+    SeyrenResponse<Check> getChecksModifiedSince(DateTime since);
+    
 }
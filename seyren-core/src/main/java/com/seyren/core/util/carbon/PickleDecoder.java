@@ -0,0 +1,296 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.carbon;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the pickles carbon's pickle protocol sends: a list of
+ * (path, (timestamp, value)) tuples, in any pickle protocol up to 4.
+ *
+ * Only the opcodes needed to build lists, tuples, strings and numbers are
+ * understood. Anything which would look up or call Python code, such as
+ * GLOBAL or REDUCE, is refused, so a pickle can't make the decoder do
+ * anything but build data.
+ */
+public class PickleDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Object MARK = new Object();
+
+    private final ByteBuffer in;
+    private final List<Object> stack = new ArrayList<Object>();
+    private final Map<Long, Object> memo = new HashMap<Long, Object>();
+
+    private PickleDecoder(byte[] pickle) {
+        this.in = ByteBuffer.wrap(pickle).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the unpickled object: a List, Object[] for a tuple, String,
+     *         Long, BigInteger, Double, Boolean or null
+     */
+    public static Object decode(byte[] pickle) throws IOException {
+        try {
+            return new PickleDecoder(pickle).run();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed pickle", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object run() throws IOException {
+        while (true) {
+            int opcode = in.get() & 0xFF;
+            switch (opcode) {
+            case 0x80: // PROTO
+                in.get();
+                break;
+            case 0x95: // FRAME
+                in.getLong();
+                break;
+            case '.': // STOP
+                return pop();
+            case '(': // MARK
+                stack.add(MARK);
+                break;
+            case ']': // EMPTY_LIST
+                stack.add(new ArrayList<Object>());
+                break;
+            case 'l': // LIST
+                stack.add(new ArrayList<Object>(popToMark()));
+                break;
+            case 'a': // APPEND
+                Object item = pop();
+                ((List<Object>) peek()).add(item);
+                break;
+            case 'e': // APPENDS
+                List<Object> items = popToMark();
+                ((List<Object>) peek()).addAll(items);
+                break;
+            case ')': // EMPTY_TUPLE
+                stack.add(new Object[0]);
+                break;
+            case 't': // TUPLE
+                stack.add(popToMark().toArray());
+                break;
+            case 0x85: // TUPLE1
+                stack.add(popTuple(1));
+                break;
+            case 0x86: // TUPLE2
+                stack.add(popTuple(2));
+                break;
+            case 0x87: // TUPLE3
+                stack.add(popTuple(3));
+                break;
+            case 'N': // NONE
+                stack.add(null);
+                break;
+            case 0x88: // NEWTRUE
+                stack.add(Boolean.TRUE);
+                break;
+            case 0x89: // NEWFALSE
+                stack.add(Boolean.FALSE);
+                break;
+            case 'J': // BININT
+                stack.add((long) in.getInt());
+                break;
+            case 'K': // BININT1
+                stack.add((long) (in.get() & 0xFF));
+                break;
+            case 'M': // BININT2
+                stack.add((long) (in.getShort() & 0xFFFF));
+                break;
+            case 'I': // INT
+                stack.add(parseInt(readLine()));
+                break;
+            case 'L': // LONG
+                String digits = readLine();
+                stack.add(new BigInteger(digits.endsWith("L") ? digits.substring(0, digits.length() - 1) : digits));
+                break;
+            case 0x8a: // LONG1
+                stack.add(readLong(in.get() & 0xFF));
+                break;
+            case 0x8b: // LONG4
+                stack.add(readLong(in.getInt()));
+                break;
+            case 'G': // BINFLOAT
+                stack.add(in.order(ByteOrder.BIG_ENDIAN).getDouble());
+                in.order(ByteOrder.LITTLE_ENDIAN);
+                break;
+            case 'F': // FLOAT
+                stack.add(Double.parseDouble(readLine()));
+                break;
+            case 'S': // STRING
+                stack.add(unquote(readLine()));
+                break;
+            case 'T': // BINSTRING
+            case 'B': // BINBYTES
+                stack.add(readString(in.getInt(), ISO_8859_1));
+                break;
+            case 'U': // SHORT_BINSTRING
+            case 'C': // SHORT_BINBYTES
+                stack.add(readString(in.get() & 0xFF, ISO_8859_1));
+                break;
+            case 'V': // UNICODE
+                stack.add(readLine());
+                break;
+            case 'X': // BINUNICODE
+                stack.add(readString(in.getInt(), UTF_8));
+                break;
+            case 0x8c: // SHORT_BINUNICODE
+                stack.add(readString(in.get() & 0xFF, UTF_8));
+                break;
+            case 'p': // PUT
+                memo.put(Long.parseLong(readLine()), peek());
+                break;
+            case 'q': // BINPUT
+                memo.put((long) (in.get() & 0xFF), peek());
+                break;
+            case 'r': // LONG_BINPUT
+                memo.put(in.getInt() & 0xFFFFFFFFL, peek());
+                break;
+            case 0x94: // MEMOIZE
+                memo.put((long) memo.size(), peek());
+                break;
+            case 'g': // GET
+                stack.add(memoized(Long.parseLong(readLine())));
+                break;
+            case 'h': // BINGET
+                stack.add(memoized(in.get() & 0xFF));
+                break;
+            case 'j': // LONG_BINGET
+                stack.add(memoized(in.getInt() & 0xFFFFFFFFL));
+                break;
+            default:
+                throw new IOException("Unsupported pickle opcode 0x" + Integer.toHexString(opcode));
+            }
+        }
+    }
+
+    private Object pop() {
+        return stack.remove(stack.size() - 1);
+    }
+
+    private Object peek() {
+        return stack.get(stack.size() - 1);
+    }
+
+    private List<Object> popToMark() throws IOException {
+        int mark = stack.lastIndexOf(MARK);
+        if (mark < 0) {
+            throw new IOException("No mark on the pickle stack");
+        }
+        List<Object> items = new ArrayList<Object>(stack.subList(mark + 1, stack.size()));
+        stack.subList(mark, stack.size()).clear();
+        return items;
+    }
+
+    private Object[] popTuple(int size) {
+        List<Object> items = stack.subList(stack.size() - size, stack.size());
+        Object[] tuple = items.toArray();
+        items.clear();
+        return tuple;
+    }
+
+    private Object memoized(long index) throws IOException {
+        if (!memo.containsKey(index)) {
+            throw new IOException("Pickle refers to unknown memo entry " + index);
+        }
+        return memo.get(index);
+    }
+
+    private String readLine() {
+        StringBuilder line = new StringBuilder();
+        byte b;
+        while ((b = in.get()) != '\n') {
+            line.append((char) (b & 0xFF));
+        }
+        return line.toString();
+    }
+
+    private String readString(int length, Charset charset) throws IOException {
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Pickled string of " + length + " bytes runs past the end");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * A little-endian two's complement integer, as LONG1 and LONG4 store it.
+     */
+    private Object readLong(int length) throws IOException {
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Pickled integer of " + length + " bytes runs past the end");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        if (length == 0) {
+            return 0L;
+        }
+        byte[] bigEndian = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bigEndian[i] = bytes[length - 1 - i];
+        }
+        BigInteger value = new BigInteger(bigEndian);
+        return value.bitLength() < 64 ? (Object) value.longValue() : value;
+    }
+
+    /**
+     * Protocol 0 writes True and False as INT 01 and 00.
+     */
+    private static Object parseInt(String digits) {
+        if (digits.equals("01")) {
+            return Boolean.TRUE;
+        } else if (digits.equals("00")) {
+            return Boolean.FALSE;
+        }
+        return Long.parseLong(digits);
+    }
+
+    private static String unquote(String quoted) throws IOException {
+        if (quoted.length() < 2 || quoted.charAt(0) != quoted.charAt(quoted.length() - 1) || "'\"".indexOf(quoted.charAt(0)) < 0) {
+            throw new IOException("Badly quoted pickled string " + quoted);
+        }
+        return quoted.substring(1, quoted.length() - 1);
+    }
+
+    /**
+     * @return the tuple's items, for callers which don't care whether a
+     *         sequence was pickled as a list or a tuple
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object> asList(Object sequence) {
+        if (sequence instanceof Object[]) {
+            return Arrays.asList((Object[]) sequence);
+        }
+        if (sequence instanceof List) {
+            return (List<Object>) sequence;
+        }
+        return null;
+    }
+
+}
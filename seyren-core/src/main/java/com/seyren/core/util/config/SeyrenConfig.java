@@ -54,6 +54,46 @@ public class SeyrenConfig {
     private final String snmpTimeout;
     private final String snmpRetries;
 	private final int numThreads;
+    private final long schedulerTickMillis;
+    private final int schedulerWheelSize;
+    private final int defaultCheckInterval;
+    private final String dispatchMode;
+    private final String overrunPolicy;
+    private final int queueCapacity;
+    private final String executionMode;
+    private final int backendPermits;
+    private final int evaluateThreads;
+    private final int persistThreads;
+    private final int notifyThreads;
+    private final int stageQueueCapacity;
+    private final int registryFullReloadMinutes;
+    private final int digestIntervalMinutes;
+    private final long shutdownTimeoutMillis;
+    private final int graphiteMaxConcurrentRequests;
+    private final double graphiteMaxRequestsPerSecond;
+    private final int batchSize;
+    private final int graphiteMaxSeries;
+    private final long renderCacheTtlMillis;
+    private final long renderCacheMaxBytes;
+    private final int graphiteMaxConnections;
+    private final int graphiteConnectTimeoutMillis;
+    private final int graphiteSocketTimeoutMillis;
+    private final int graphiteRequestTimeoutMillis;
+    private final int graphiteKeepAliveMillis;
+    private final String graphiteFrom;
+    private final String graphiteUntil;
+    private final boolean graphiteConsolidate;
+    private final boolean thresholdPushdown;
+    private final int graphiteBreakerFailures;
+    private final long graphiteBreakerOpenMillis;
+    private final double hedgePercentile;
+    private final String whisperStorageDir;
+    private final String whisperGraphiteUrl;
+    private final int whisperMaxOpenFiles;
+    private final int ingestPort;
+    private final int ingestPicklePort;
+    private final String ingestGraphiteUrl;
+    private final int parallelEvaluationThreshold;
 
 	public SeyrenConfig() {
 
@@ -62,6 +102,48 @@ public class SeyrenConfig {
         this.mongoUrl = configOrDefault("MONGO_URL", "mongodb://localhost:27017/seyren");
 		this.numThreads = Integer.parseInt(configOrDefault("SEYREN_THREADS","20"));
 
+        // Scheduler
+        this.schedulerTickMillis = Long.parseLong(configOrDefault("SEYREN_SCHEDULER_TICK", "1000"));
+        this.schedulerWheelSize = Integer.parseInt(configOrDefault("SEYREN_SCHEDULER_WHEEL_SIZE", "512"));
+        this.defaultCheckInterval = Integer.parseInt(configOrDefault("SEYREN_CHECK_INTERVAL", "60"));
+        this.dispatchMode = configOrDefault("SEYREN_DISPATCH_MODE", "spread");
+        this.overrunPolicy = configOrDefault("SEYREN_OVERRUN_POLICY", "skip");
+        this.queueCapacity = Integer.parseInt(configOrDefault("SEYREN_QUEUE_CAPACITY", "10000"));
+        this.executionMode = configOrDefault("SEYREN_EXECUTION_MODE", "pooled");
+        this.backendPermits = Integer.parseInt(configOrDefault("SEYREN_BACKEND_PERMITS", "10"));
+        this.evaluateThreads = Integer.parseInt(configOrDefault("SEYREN_EVALUATE_THREADS", "4"));
+        this.persistThreads = Integer.parseInt(configOrDefault("SEYREN_PERSIST_THREADS", "4"));
+        this.notifyThreads = Integer.parseInt(configOrDefault("SEYREN_NOTIFY_THREADS", "4"));
+        this.stageQueueCapacity = Integer.parseInt(configOrDefault("SEYREN_STAGE_QUEUE_CAPACITY", "1000"));
+        this.registryFullReloadMinutes = Integer.parseInt(configOrDefault("SEYREN_REGISTRY_FULL_RELOAD", "60"));
+        this.digestIntervalMinutes = Integer.parseInt(configOrDefault("SEYREN_DIGEST_INTERVAL", "0"));
+        this.shutdownTimeoutMillis = Long.parseLong(configOrDefault("SEYREN_SHUTDOWN_TIMEOUT", "30000"));
+        this.graphiteMaxConcurrentRequests = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_MAX_CONCURRENT", "0"));
+        this.graphiteMaxRequestsPerSecond = Double.parseDouble(configOrDefault("SEYREN_GRAPHITE_MAX_RATE", "0"));
+        this.batchSize = Integer.parseInt(configOrDefault("SEYREN_BATCH_SIZE", "20"));
+        this.graphiteMaxSeries = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_MAX_SERIES", "0"));
+        this.renderCacheTtlMillis = Long.parseLong(configOrDefault("SEYREN_RENDER_CACHE_TTL", "10000"));
+        this.renderCacheMaxBytes = Long.parseLong(configOrDefault("SEYREN_RENDER_CACHE_MAX_BYTES", "16777216"));
+        this.graphiteMaxConnections = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_MAX_CONNECTIONS", "20"));
+        this.graphiteConnectTimeoutMillis = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_CONNECT_TIMEOUT", "5000"));
+        this.graphiteSocketTimeoutMillis = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_SOCKET_TIMEOUT", "20000"));
+        this.graphiteRequestTimeoutMillis = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_REQUEST_TIMEOUT", "30000"));
+        this.graphiteKeepAliveMillis = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_KEEP_ALIVE", "30000"));
+        this.graphiteFrom = configOrDefault("SEYREN_GRAPHITE_FROM", "-11minutes");
+        this.graphiteUntil = configOrDefault("SEYREN_GRAPHITE_UNTIL", "-1minutes");
+        this.graphiteConsolidate = Boolean.parseBoolean(configOrDefault("SEYREN_GRAPHITE_CONSOLIDATE", "false"));
+        this.thresholdPushdown = Boolean.parseBoolean(configOrDefault("SEYREN_THRESHOLD_PUSHDOWN", "false"));
+        this.graphiteBreakerFailures = Integer.parseInt(configOrDefault("SEYREN_GRAPHITE_BREAKER_FAILURES", "5"));
+        this.graphiteBreakerOpenMillis = Long.parseLong(configOrDefault("SEYREN_GRAPHITE_BREAKER_OPEN", "30000"));
+        this.hedgePercentile = Double.parseDouble(configOrDefault("SEYREN_HEDGE_PERCENTILE", "0.95"));
+        this.whisperStorageDir = configOrDefault("SEYREN_WHISPER_STORAGE_DIR", "");
+        this.whisperGraphiteUrl = configOrDefault("SEYREN_WHISPER_GRAPHITE_URL", "");
+        this.whisperMaxOpenFiles = Integer.parseInt(configOrDefault("SEYREN_WHISPER_MAX_OPEN_FILES", "10000"));
+        this.ingestPort = Integer.parseInt(configOrDefault("SEYREN_INGEST_PORT", "0"));
+        this.ingestPicklePort = Integer.parseInt(configOrDefault("SEYREN_INGEST_PICKLE_PORT", "0"));
+        this.ingestGraphiteUrl = configOrDefault("SEYREN_INGEST_GRAPHITE_URL", "");
+        this.parallelEvaluationThreshold = Integer.parseInt(configOrDefault("SEYREN_PARALLEL_EVALUATION_THRESHOLD", "10000"));
+
         // SMTP
         this.smtpFrom = configOrDefault(list("SMTP_FROM", "SEYREN_FROM_EMAIL"), "alert@seyren");
         this.smtpUsername = configOrDefault("SMTP_USERNAME", "");
@@ -235,4 +317,204 @@ public class SeyrenConfig {
 	public int getNumThreads() {
 		return numThreads;
 	}
+
+    @JsonIgnore
+    public long getSchedulerTickMillis() {
+        return schedulerTickMillis;
+    }
+
+    @JsonIgnore
+    public int getSchedulerWheelSize() {
+        return schedulerWheelSize;
+    }
+
+    @JsonIgnore
+    public int getDefaultCheckInterval() {
+        return defaultCheckInterval;
+    }
+
+    @JsonIgnore
+    public String getDispatchMode() {
+        return dispatchMode;
+    }
+
+    @JsonIgnore
+    public String getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    @JsonIgnore
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @JsonIgnore
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    @JsonIgnore
+    public int getBackendPermits() {
+        return backendPermits;
+    }
+
+    @JsonIgnore
+    public int getEvaluateThreads() {
+        return evaluateThreads;
+    }
+
+    @JsonIgnore
+    public int getPersistThreads() {
+        return persistThreads;
+    }
+
+    @JsonIgnore
+    public int getNotifyThreads() {
+        return notifyThreads;
+    }
+
+    @JsonIgnore
+    public int getStageQueueCapacity() {
+        return stageQueueCapacity;
+    }
+
+    @JsonIgnore
+    public int getRegistryFullReloadMinutes() {
+        return registryFullReloadMinutes;
+    }
+
+    @JsonIgnore
+    public int getDigestIntervalMinutes() {
+        return digestIntervalMinutes;
+    }
+
+    @JsonIgnore
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    @JsonIgnore
+    public int getGraphiteMaxConcurrentRequests() {
+        return graphiteMaxConcurrentRequests;
+    }
+
+    @JsonIgnore
+    public double getGraphiteMaxRequestsPerSecond() {
+        return graphiteMaxRequestsPerSecond;
+    }
+
+    @JsonIgnore
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @JsonIgnore
+    public int getGraphiteMaxSeries() {
+        return graphiteMaxSeries;
+    }
+
+    @JsonIgnore
+    public long getRenderCacheTtlMillis() {
+        return renderCacheTtlMillis;
+    }
+
+    @JsonIgnore
+    public long getRenderCacheMaxBytes() {
+        return renderCacheMaxBytes;
+    }
+
+    @JsonIgnore
+    public int getGraphiteMaxConnections() {
+        return graphiteMaxConnections;
+    }
+
+    @JsonIgnore
+    public int getGraphiteConnectTimeoutMillis() {
+        return graphiteConnectTimeoutMillis;
+    }
+
+    @JsonIgnore
+    public int getGraphiteSocketTimeoutMillis() {
+        return graphiteSocketTimeoutMillis;
+    }
+
+    @JsonIgnore
+    public int getGraphiteRequestTimeoutMillis() {
+        return graphiteRequestTimeoutMillis;
+    }
+
+    @JsonIgnore
+    public int getGraphiteKeepAliveMillis() {
+        return graphiteKeepAliveMillis;
+    }
+
+    @JsonIgnore
+    public String getGraphiteFrom() {
+        return graphiteFrom;
+    }
+
+    @JsonIgnore
+    public String getGraphiteUntil() {
+        return graphiteUntil;
+    }
+
+    @JsonIgnore
+    public boolean isGraphiteConsolidate() {
+        return graphiteConsolidate;
+    }
+
+    @JsonIgnore
+    public boolean isThresholdPushdown() {
+        return thresholdPushdown;
+    }
+
+    @JsonIgnore
+    public int getGraphiteBreakerFailures() {
+        return graphiteBreakerFailures;
+    }
+
+    @JsonIgnore
+    public long getGraphiteBreakerOpenMillis() {
+        return graphiteBreakerOpenMillis;
+    }
+
+    @JsonIgnore
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    @JsonIgnore
+    public String getWhisperStorageDir() {
+        return whisperStorageDir;
+    }
+
+    @JsonIgnore
+    public String getWhisperGraphiteUrl() {
+        return whisperGraphiteUrl;
+    }
+
+    @JsonIgnore
+    public int getWhisperMaxOpenFiles() {
+        return whisperMaxOpenFiles;
+    }
+
+    @JsonIgnore
+    public int getIngestPort() {
+        return ingestPort;
+    }
+
+    @JsonIgnore
+    public int getIngestPicklePort() {
+        return ingestPicklePort;
+    }
+
+    @JsonIgnore
+    public String getIngestGraphiteUrl() {
+        return ingestGraphiteUrl;
+    }
+
+    @JsonIgnore
+    public int getParallelEvaluationThreshold() {
+        return parallelEvaluationThreshold;
+    }
 }
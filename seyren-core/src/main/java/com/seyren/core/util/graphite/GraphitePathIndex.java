@@ -0,0 +1,389 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Answers which of many metric path patterns match a metric, without trying
+ * each pattern in turn.
+ *
+ * Patterns are kept in a trie with one level per node of the path.
+ * Alternatives are expanded first, as Graphite does, so {eu,us}.requests is
+ * held as eu.requests and us.requests. A literal node is then found by a
+ * hash lookup and only the distinct wildcard nodes at each level, such as
+ * the * shared by servers.*.cpu and servers.*.memory, are matched against
+ * the metric, by a matcher compiled for a single node rather than a regular
+ * expression. A pattern with more than MAX_EXPANSIONS expansions is kept
+ * whole and matched on its own.
+ *
+ * Lookups don't lock and may run alongside changes, seeing each change
+ * either in full or not at all for any one pattern.
+ */
+public class GraphitePathIndex<V> {
+
+    static final int MAX_EXPANSIONS = 256;
+
+    private final Node<V> root = new Node<V>(null);
+    private final ConcurrentMap<String, Set<V>> unexpanded = new ConcurrentHashMap<String, Set<V>>();
+    private final ConcurrentMap<String, GraphitePathPattern> unexpandedPatterns = new ConcurrentHashMap<String, GraphitePathPattern>();
+
+    public synchronized void add(String pattern, V value) {
+        List<String> paths = expand(pattern);
+        if (paths == null) {
+            Set<V> values = unexpanded.get(pattern);
+            if (values == null) {
+                values = new CopyOnWriteArraySet<V>();
+                unexpandedPatterns.put(pattern, new GraphitePathPattern(pattern));
+                unexpanded.put(pattern, values);
+            }
+            values.add(value);
+            return;
+        }
+        for (String path : paths) {
+            Node<V> node = root;
+            for (String name : nodesOf(path)) {
+                node = node.child(name);
+            }
+            node.values.add(value);
+        }
+    }
+
+    public synchronized void remove(String pattern, V value) {
+        List<String> paths = expand(pattern);
+        if (paths == null) {
+            Set<V> values = unexpanded.get(pattern);
+            if (values != null && values.remove(value) && values.isEmpty()) {
+                unexpanded.remove(pattern);
+                unexpandedPatterns.remove(pattern);
+            }
+            return;
+        }
+        for (String path : paths) {
+            remove(root, nodesOf(path), 0, value);
+        }
+    }
+
+    /**
+     * @return the values of every pattern which matches the metric, which
+     *         mustn't be changed
+     */
+    public Set<V> match(String metric) {
+        Set<V> matched = match(root, metric, 0, null);
+        for (Map.Entry<String, Set<V>> entry : unexpanded.entrySet()) {
+            GraphitePathPattern pattern = unexpandedPatterns.get(entry.getKey());
+            if (pattern != null && pattern.matches(metric)) {
+                matched = addAll(matched, entry.getValue());
+            }
+        }
+        return matched == null ? Collections.<V>emptySet() : Collections.unmodifiableSet(matched);
+    }
+
+    public boolean isEmpty() {
+        return root.isEmpty() && unexpanded.isEmpty();
+    }
+
+    /**
+     * Follows the metric from its node starting at start, collecting into
+     * matched, which is only created once something matches.
+     */
+    private Set<V> match(Node<V> node, String metric, int start, Set<V> matched) {
+        if (start > metric.length()) {
+            return addAll(matched, node.values);
+        }
+        int end = metric.indexOf('.', start);
+        if (end < 0) {
+            end = metric.length();
+        }
+        if (!node.literals.isEmpty()) {
+            Node<V> literal = node.literals.get(metric.substring(start, end));
+            if (literal != null) {
+                matched = match(literal, metric, end + 1, matched);
+            }
+        }
+        for (Node<V> wildcard : node.wildcards) {
+            if (wildcard.glob.matches(metric, start, end)) {
+                matched = match(wildcard, metric, end + 1, matched);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * The values of the first node matched are used as they are, and only
+     * copied into a HashSet of our own once a second node adds to them.
+     */
+    private static <V> Set<V> addAll(Set<V> matched, Set<V> values) {
+        if (values.isEmpty()) {
+            return matched;
+        }
+        if (matched == null) {
+            return values;
+        }
+        if (matched instanceof HashSet) {
+            matched.addAll(values);
+            return matched;
+        }
+        Set<V> merged = new HashSet<V>(matched);
+        merged.addAll(values);
+        return merged;
+    }
+
+    private boolean remove(Node<V> node, List<String> names, int index, V value) {
+        if (index == names.size()) {
+            node.values.remove(value);
+            return node.isEmpty();
+        }
+        Node<V> child = node.existingChild(names.get(index));
+        if (child != null && remove(child, names, index + 1, value)) {
+            node.removeChild(names.get(index), child);
+        }
+        return node.isEmpty();
+    }
+
+    /**
+     * @return every path the pattern stands for once its alternatives are
+     *         expanded, or null if there are too many
+     */
+    static List<String> expand(String pattern) {
+        List<String> expanded = new ArrayList<String>();
+        return expand(pattern, expanded) ? expanded : null;
+    }
+
+    private static boolean expand(String pattern, List<String> expanded) {
+        int open = pattern.indexOf('{');
+        int close = open < 0 ? -1 : GraphitePathPattern.closingBrace(pattern, open);
+        if (close < 0) {
+            expanded.add(pattern);
+            return expanded.size() <= MAX_EXPANSIONS;
+        }
+        String prefix = pattern.substring(0, open);
+        String suffix = pattern.substring(close + 1);
+        for (String alternative : GraphitePathPattern.splitAlternatives(pattern.substring(open + 1, close))) {
+            if (!expand(prefix + alternative + suffix, expanded)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> nodesOf(String path) {
+        List<String> nodes = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = path.indexOf('.', start)) >= 0) {
+            nodes.add(path.substring(start, end));
+            start = end + 1;
+        }
+        nodes.add(path.substring(start));
+        return nodes;
+    }
+
+    private static final class Node<V> {
+
+        private final Glob glob;
+        private final ConcurrentMap<String, Node<V>> literals = new ConcurrentHashMap<String, Node<V>>();
+        private final List<Node<V>> wildcards = new CopyOnWriteArrayList<Node<V>>();
+        private final Set<V> values = new CopyOnWriteArraySet<V>();
+
+        private Node(Glob glob) {
+            this.glob = glob;
+        }
+
+        private Node<V> child(String name) {
+            Node<V> child = existingChild(name);
+            if (child == null) {
+                if (GraphitePathPattern.isWildcard(name)) {
+                    child = new Node<V>(new Glob(name));
+                    wildcards.add(child);
+                } else {
+                    child = new Node<V>(null);
+                    literals.put(name, child);
+                }
+            }
+            return child;
+        }
+
+        private Node<V> existingChild(String name) {
+            if (!GraphitePathPattern.isWildcard(name)) {
+                return literals.get(name);
+            }
+            for (Node<V> wildcard : wildcards) {
+                if (wildcard.glob.pattern.equals(name)) {
+                    return wildcard;
+                }
+            }
+            return null;
+        }
+
+        private void removeChild(String name, Node<V> child) {
+            if (child.glob == null) {
+                literals.remove(name, child);
+            } else {
+                wildcards.remove(child);
+            }
+        }
+
+        private boolean isEmpty() {
+            return values.isEmpty() && literals.isEmpty() && wildcards.isEmpty();
+        }
+
+    }
+
+    /**
+     * A single node of a pattern with *, ? and character classes, matched
+     * without a regular expression. An unclosed class matches literally, as
+     * it does in GraphitePathPattern.
+     */
+    static final class Glob {
+
+        private static final char ANY_RUN = 0;
+        private static final char ANY_ONE = 1;
+        private static final char CLASS = 2;
+        private static final char LITERAL = 3;
+
+        private final String pattern;
+        private final char[] kinds;
+        private final char[] literals;
+        private final boolean[][] classes;
+        private final boolean[] negated;
+        private final boolean matchesAnything;
+        private final int minLength;
+        private final boolean fixedLength;
+
+        Glob(String pattern) {
+            this.pattern = pattern;
+            int length = pattern.length();
+            char[] kinds = new char[length];
+            char[] literals = new char[length];
+            boolean[][] classes = new boolean[length][];
+            boolean[] negated = new boolean[length];
+            int size = 0;
+            for (int i = 0; i < length; i++) {
+                char c = pattern.charAt(i);
+                int close = c == '[' ? pattern.indexOf(']', i + 1) : -1;
+                if (c == '*') {
+                    if (size > 0 && kinds[size - 1] == ANY_RUN) {
+                        continue;
+                    }
+                    kinds[size] = ANY_RUN;
+                } else if (c == '?') {
+                    kinds[size] = ANY_ONE;
+                } else if (close > 0) {
+                    String set = pattern.substring(i + 1, close);
+                    negated[size] = set.startsWith("!") || set.startsWith("^");
+                    classes[size] = charClass(negated[size] ? set.substring(1) : set);
+                    kinds[size] = CLASS;
+                    i = close;
+                } else {
+                    kinds[size] = LITERAL;
+                    literals[size] = c;
+                }
+                size++;
+            }
+            this.kinds = Arrays.copyOf(kinds, size);
+            this.literals = literals;
+            this.classes = classes;
+            this.negated = negated;
+            this.matchesAnything = size == 1 && kinds[0] == ANY_RUN;
+            int runs = 0;
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == ANY_RUN) {
+                    runs++;
+                }
+            }
+            this.minLength = size - runs;
+            this.fixedLength = runs == 0;
+        }
+
+        /**
+         * @return true if the glob matches the characters of s from start up
+         *         to end
+         */
+        boolean matches(String s, int start, int end) {
+            if (matchesAnything) {
+                return true;
+            }
+            int length = end - start;
+            if (length < minLength || (fixedLength && length != minLength)) {
+                return false;
+            }
+            int p = 0;
+            int i = start;
+            int starP = -1;
+            int starI = -1;
+            while (i < end) {
+                if (p < kinds.length && kinds[p] != ANY_RUN && matchesOne(p, s.charAt(i))) {
+                    p++;
+                    i++;
+                } else if (p < kinds.length && kinds[p] == ANY_RUN) {
+                    starP = p++;
+                    starI = i;
+                } else if (starP >= 0) {
+                    p = starP + 1;
+                    i = ++starI;
+                } else {
+                    return false;
+                }
+            }
+            while (p < kinds.length && kinds[p] == ANY_RUN) {
+                p++;
+            }
+            return p == kinds.length;
+        }
+
+        private boolean matchesOne(int p, char c) {
+            switch (kinds[p]) {
+            case ANY_ONE:
+                return true;
+            case CLASS:
+                boolean in = c < 128 ? classes[p][c] : false;
+                return in != negated[p];
+            default:
+                return literals[p] == c;
+            }
+        }
+
+        /**
+         * Character classes name ASCII characters and ranges of them.
+         */
+        private static boolean[] charClass(String set) {
+            boolean[] members = new boolean[128];
+            for (int i = 0; i < set.length(); i++) {
+                char from = set.charAt(i);
+                char to = from;
+                if (i + 2 < set.length() && set.charAt(i + 1) == '-') {
+                    to = set.charAt(i + 2);
+                    i += 2;
+                }
+                for (char c = from; c <= to && c < 128; c++) {
+                    members[c] = true;
+                }
+            }
+            return members;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A Graphite metric path which may contain the glob wildcards Graphite
+ * understands: <code>*</code> and <code>?</code> within a node, character
+ * classes such as <code>[0-9]</code> and alternatives such as
+ * <code>{eu,us}</code>.
+ */
+public class GraphitePathPattern {
+
+    private final String pattern;
+    private final Pattern regex;
+
+    public GraphitePathPattern(String pattern) {
+        this.pattern = pattern;
+        this.regex = Pattern.compile(toRegex(pattern));
+    }
+
+    /**
+     * @return true if the target is a metric path, possibly with wildcards,
+     *         rather than a call to a Graphite function. Graphite names each
+     *         series of a plain path after the metric it came from, which
+     *         makes it possible to tell which target a series belongs to.
+     */
+    public static boolean isPlainPath(String target) {
+        if (target == null || target.isEmpty()) {
+            return false;
+        }
+        int braces = 0;
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c == '{') {
+                braces++;
+            } else if (c == '}') {
+                braces--;
+            } else if (c == '(' || c == ')' || c == '"' || c == '\'' || c == '=' || Character.isWhitespace(c) || (c == ',' && braces == 0)) {
+                return false;
+            }
+            if (braces < 0) {
+                return false;
+            }
+        }
+        return braces == 0;
+    }
+
+    /**
+     * @return true if the target is a plain path which can match more than
+     *         one metric
+     */
+    public static boolean isWildcard(String target) {
+        if (!isPlainPath(target)) {
+            return false;
+        }
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matches(String path) {
+        return regex.matcher(path).matches();
+    }
+
+    /**
+     * @return true if the pattern matches the characters of path from start
+     *         up to end
+     */
+    public boolean matchesRegion(String path, int start, int end) {
+        return regex.matcher(path).region(start, end).matches();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                regex.append("[^.]*");
+            } else if (c == '?') {
+                regex.append("[^.]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 1);
+                if (end < 0) {
+                    regex.append(Pattern.quote(glob.substring(i)));
+                    break;
+                }
+                String set = glob.substring(i + 1, end);
+                regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                i = end;
+            } else if (c == '{') {
+                int end = closingBrace(glob, i);
+                if (end < 0) {
+                    regex.append(Pattern.quote(glob.substring(i)));
+                    break;
+                }
+                regex.append("(?:");
+                String separator = "";
+                for (String alternative : splitAlternatives(glob.substring(i + 1, end))) {
+                    regex.append(separator).append(toRegex(alternative));
+                    separator = "|";
+                }
+                regex.append(')');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            i++;
+        }
+        return regex.toString();
+    }
+
+    static int closingBrace(String glob, int open) {
+        int depth = 0;
+        for (int i = open; i < glob.length(); i++) {
+            if (glob.charAt(i) == '{') {
+                depth++;
+            } else if (glob.charAt(i) == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<String> splitAlternatives(String alternatives) {
+        List<String> result = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < alternatives.length(); i++) {
+            char c = alternatives.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                result.add(alternatives.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(alternatives.substring(start));
+        return result;
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The relative times Graphite understands in from and until, such as
+ * -10minutes or -1h.
+ */
+public final class GraphiteTime {
+
+    private static final Pattern RELATIVE_TIME = Pattern.compile("-(\\d+)([a-z]+)");
+
+    private GraphiteTime() {
+    }
+
+    /**
+     * @return how many seconds ago the time is, or null if it isn't now or a
+     *         relative time
+     */
+    public static Long secondsAgo(String time) {
+        String trimmed = time.trim().toLowerCase();
+        if (trimmed.equals("now")) {
+            return 0L;
+        }
+        Matcher matcher = RELATIVE_TIME.matcher(trimmed);
+        if (!matcher.matches()) {
+            return null;
+        }
+        long seconds = secondsPer(matcher.group(2));
+        if (seconds < 0) {
+            return null;
+        }
+        return Long.parseLong(matcher.group(1)) * seconds;
+    }
+
+    private static long secondsPer(String unit) {
+        if (unit.startsWith("s")) {
+            return 1;
+        } else if (unit.startsWith("min")) {
+            return 60;
+        } else if (unit.startsWith("h")) {
+            return 3600;
+        } else if (unit.startsWith("d")) {
+            return 86400;
+        } else if (unit.startsWith("w")) {
+            return 7 * 86400;
+        } else if (unit.startsWith("mon")) {
+            return 30 * 86400;
+        } else if (unit.startsWith("y")) {
+            return 365 * 86400;
+        }
+        return -1;
+    }
+
+}
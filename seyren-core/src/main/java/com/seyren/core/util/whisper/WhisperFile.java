@@ -0,0 +1,144 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.whisper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a Whisper database file through a read-only memory mapping. The
+ * mapping is shared with carbon, so points written after the file was
+ * mapped are seen without mapping it again.
+ *
+ * A Whisper file is a header of aggregation type, maximum retention, x
+ * files factor and archive count, followed by the offset, seconds per
+ * point and number of points of each archive, most precise first. Each
+ * archive is a ring of 12 byte points, each a timestamp and a double,
+ * all big-endian. A point belongs to an interval only if its timestamp is
+ * that interval; anything else is left over from an earlier lap of the
+ * ring and counts as no value.
+ */
+public class WhisperFile {
+
+    private static final int METADATA_SIZE = 16;
+    private static final int ARCHIVE_INFO_SIZE = 12;
+    private static final int POINT_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final Archive[] archives;
+
+    public WhisperFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (this.buffer.capacity() < METADATA_SIZE) {
+            throw new IOException("Not a Whisper file, only " + this.buffer.capacity() + " bytes");
+        }
+        int archiveCount = this.buffer.getInt(12);
+        if (archiveCount <= 0 || METADATA_SIZE + (long) archiveCount * ARCHIVE_INFO_SIZE > this.buffer.capacity()) {
+            throw new IOException("Not a Whisper file, " + archiveCount + " archives");
+        }
+        this.archives = new Archive[archiveCount];
+        for (int i = 0; i < archiveCount; i++) {
+            int info = METADATA_SIZE + i * ARCHIVE_INFO_SIZE;
+            archives[i] = new Archive(unsigned(this.buffer.getInt(info)), unsigned(this.buffer.getInt(info + 4)), unsigned(this.buffer.getInt(info + 8)));
+            if (archives[i].offset + archives[i].points * POINT_SIZE > this.buffer.capacity() || archives[i].secondsPerPoint <= 0 || archives[i].points <= 0) {
+                throw new IOException("Archive " + i + " doesn't fit the file");
+            }
+        }
+    }
+
+    /**
+     * Maps the whole file read-only. The mapping stays valid after the
+     * channel is closed.
+     */
+    public static WhisperFile map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new WhisperFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Looks through the most precise archive which goes back to fromSeconds,
+     * starting at the end of the window, the way Graphite would fetch it.
+     *
+     * @return the latest value between fromSeconds and untilSeconds, or null
+     *         if there is none
+     */
+    public Double latestValue(long fromSeconds, long untilSeconds, long nowSeconds) {
+        Archive archive = archiveFor(nowSeconds - fromSeconds);
+        if (archive == null) {
+            return null;
+        }
+        long step = archive.secondsPerPoint;
+        long fromInterval = fromSeconds - (fromSeconds % step) + step;
+        long untilInterval = untilSeconds - (untilSeconds % step) + step;
+        if (fromInterval == untilInterval) {
+            untilInterval += step;
+        }
+
+        long baseInterval = unsigned(buffer.getInt((int) archive.offset));
+        if (baseInterval == 0) {
+            // Nothing has been written yet
+            return null;
+        }
+        for (long interval = untilInterval - step; interval >= fromInterval; interval -= step) {
+            long slot = ((interval - baseInterval) / step % archive.points + archive.points) % archive.points;
+            int position = (int) (archive.offset + slot * POINT_SIZE);
+            if (unsigned(buffer.getInt(position)) != interval) {
+                continue;
+            }
+            double value = buffer.getDouble(position + 4);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private Archive archiveFor(long age) {
+        for (Archive archive : archives) {
+            if (archive.secondsPerPoint * archive.points >= age) {
+                return archive;
+            }
+        }
+        // Graphite uses the coarsest archive for windows older than every retention
+        return archives[archives.length - 1];
+    }
+
+    private static long unsigned(int value) {
+        return value & 0xFFFFFFFFL;
+    }
+
+    private static final class Archive {
+
+        private final long offset;
+        private final long secondsPerPoint;
+        private final long points;
+
+        private Archive(long offset, long secondsPerPoint, long points) {
+            this.offset = offset;
+            this.secondsPerPoint = secondsPerPoint;
+            this.points = points;
+        }
+
+    }
+
+}
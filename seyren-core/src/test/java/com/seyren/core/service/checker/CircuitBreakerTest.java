@@ -0,0 +1,80 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+import com.seyren.core.service.checker.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void breakerOpensAfterFailuresInARow() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        assertThat(breaker.recordFailure(0), is(false));
+        assertThat(breaker.recordFailure(0), is(false));
+        assertThat(breaker.recordFailure(0), is(true));
+        assertThat(breaker.getState(), is(State.OPEN));
+        assertThat(breaker.allowRequest(999), is(false));
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        assertThat(breaker.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void onlyOneProbeIsLetThroughOnceTheOpenPeriodIsOver() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        assertThat(breaker.allowRequest(1000), is(true));
+        assertThat(breaker.getState(), is(State.HALF_OPEN));
+        assertThat(breaker.allowRequest(1000), is(false));
+    }
+
+    @Test
+    public void successfulProbeClosesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        breaker.allowRequest(1000);
+        breaker.recordSuccess();
+        assertThat(breaker.getState(), is(State.CLOSED));
+        assertThat(breaker.allowRequest(1000), is(true));
+    }
+
+    @Test
+    public void failedProbeOpensTheBreakerAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(0);
+        }
+        breaker.allowRequest(1000);
+        assertThat(breaker.recordFailure(1000), is(true));
+        assertThat(breaker.allowRequest(1999), is(false));
+        assertThat(breaker.allowRequest(2000), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdMustBePositive() {
+        new CircuitBreaker(0, 1000);
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.seyren.core.domain.Check;
+
+public class CoalescingTargetCheckerTest {
+
+    private final CountDownLatch fetching = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private AsyncTargetChecker delegate;
+    private CoalescingTargetChecker checker;
+    private ExecutorService executor;
+
+    @Before
+    public void before() throws Exception {
+        delegate = mock(AsyncTargetChecker.class);
+        when(delegate.check(any(Check.class))).thenAnswer(new Answer<Map<String, Optional<Double>>>() {
+            @Override
+            public Map<String, Optional<Double>> answer(InvocationOnMock invocation) throws Throwable {
+                fetching.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return Collections.singletonMap("service.error.1MinuteRate", Optional.of(1d));
+            }
+        });
+        checker = new CoalescingTargetChecker(delegate, new ThresholdPushdown(false));
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentChecksOfTheSameTargetShareOneFetch() throws Exception {
+        Future<Map<String, Optional<Double>>> first = executor.submit(check("1", "service.error.1MinuteRate"));
+        fetching.await(5, TimeUnit.SECONDS);
+        Future<Map<String, Optional<Double>>> second = executor.submit(check("2", "service.error.1MinuteRate"));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), hasKey("service.error.1MinuteRate"));
+        assertThat(second.get(5, TimeUnit.SECONDS), hasKey("service.error.1MinuteRate"));
+        verify(delegate, times(1)).check(any(Check.class));
+    }
+
+    @Test
+    public void checksOfDifferentTargetsFetchSeparately() throws Exception {
+        release.countDown();
+        checker.check(new Check().withId("1").withTarget("service.error.1MinuteRate"));
+        checker.check(new Check().withId("2").withTarget("service.warn.1MinuteRate"));
+        verify(delegate, times(2)).check(any(Check.class));
+    }
+
+    @Test
+    public void completedFetchIsNotReused() throws Exception {
+        release.countDown();
+        checker.check(new Check().withId("1").withTarget("service.error.1MinuteRate"));
+        checker.check(new Check().withId("2").withTarget("service.error.1MinuteRate"));
+        verify(delegate, times(2)).check(any(Check.class));
+    }
+
+    @Test
+    public void checksOfTheSameTargetShareOneFetchWithoutWaitingForIt() throws Exception {
+        SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+        when(delegate.checkAsync(any(Check.class))).thenReturn(fetch);
+
+        ListenableFuture<Map<String, Optional<Double>>> first = checker.checkAsync(new Check().withId("1").withTarget("service.error.1MinuteRate"));
+        ListenableFuture<Map<String, Optional<Double>>> second = checker.checkAsync(new Check().withId("2").withTarget("service.error.1MinuteRate"));
+        assertThat(first.isDone(), is(false));
+
+        fetch.set(Collections.singletonMap("service.error.1MinuteRate", Optional.of(1d)));
+        assertThat(first.get(), hasKey("service.error.1MinuteRate"));
+        assertThat(second.get(), hasKey("service.error.1MinuteRate"));
+        verify(delegate, times(1)).checkAsync(any(Check.class));
+    }
+
+    @Test
+    public void completedAsyncFetchIsNotReused() throws Exception {
+        when(delegate.checkAsync(any(Check.class))).thenReturn(Futures.immediateFuture(Collections.<String, Optional<Double>> emptyMap()));
+        checker.checkAsync(new Check().withId("1").withTarget("service.error.1MinuteRate"));
+        checker.checkAsync(new Check().withId("2").withTarget("service.error.1MinuteRate"));
+        verify(delegate, times(2)).checkAsync(any(Check.class));
+    }
+
+    @Test
+    public void failedAsyncFetchFailsEveryCheckSharingIt() throws Exception {
+        SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+        when(delegate.checkAsync(any(Check.class))).thenReturn(fetch);
+        ListenableFuture<Map<String, Optional<Double>>> first = checker.checkAsync(new Check().withId("1").withTarget("service.error.1MinuteRate"));
+        ListenableFuture<Map<String, Optional<Double>>> second = checker.checkAsync(new Check().withId("2").withTarget("service.error.1MinuteRate"));
+
+        fetch.setException(new IOException("Graphite is down"));
+        assertThat(failureOf(first), is(instanceOf(IOException.class)));
+        assertThat(failureOf(second), is(instanceOf(IOException.class)));
+    }
+
+    private static Throwable failureOf(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private Callable<Map<String, Optional<Double>>> check(final String id, final String target) {
+        return new Callable<Map<String, Optional<Double>>>() {
+            @Override
+            public Map<String, Optional<Double>> call() throws Exception {
+                return checker.check(new Check().withId(id).withTarget(target));
+            }
+        };
+    }
+
+}
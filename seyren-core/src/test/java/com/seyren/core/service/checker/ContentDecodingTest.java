@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+public class ContentDecodingTest {
+
+    private static final String BODY = "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.06, 1337453460]]}]";
+
+    private final ContentDecoding decoding = new ContentDecoding();
+
+    @Test
+    public void compressedResponsesAreAskedFor() throws Exception {
+        HttpRequest request = new HttpGet("http://graphite/render");
+        decoding.process(request, new BasicHttpContext());
+        assertThat(request.getFirstHeader("Accept-Encoding").getValue(), is("gzip,deflate"));
+    }
+
+    @Test
+    public void gzipResponseIsDecodedWhileRead() throws Exception {
+        HttpResponse response = compressed("gzip");
+        assertThat(readLatestValue(response), is(0.06));
+        assertThat(response.getEntity().getContentEncoding(), is(nullValue()));
+    }
+
+    @Test
+    public void deflateResponseIsDecodedWhileRead() throws Exception {
+        HttpResponse response = compressed("deflate");
+        assertThat(readLatestValue(response), is(0.06));
+    }
+
+    @Test
+    public void rawDeflateResponseWithoutZlibHeaderIsDecodedWhileRead() throws Exception {
+        HttpResponse response = compressed("deflate", new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        assertThat(readLatestValue(response), is(0.06));
+    }
+
+    @Test
+    public void uncompressedResponseIsReadAsItIs() throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new StringEntity(BODY));
+        decoding.process(response, new BasicHttpContext());
+        assertThat(readLatestValue(response), is(0.06));
+    }
+
+    @Test(expected = HttpException.class)
+    public void unknownEncodingIsRefused() throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        StringEntity entity = new StringEntity(BODY);
+        entity.setContentEncoding("br");
+        response.setEntity(entity);
+        decoding.process(response, new BasicHttpContext());
+    }
+
+    private HttpResponse compressed(String encoding) throws Exception {
+        return compressed(encoding, new Deflater());
+    }
+
+    private HttpResponse compressed(String encoding, Deflater deflater) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes, deflater);
+        out.write(BODY.getBytes("UTF-8"));
+        out.close();
+
+        ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray());
+        entity.setContentEncoding(encoding);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+        decoding.process(response, new BasicHttpContext());
+        return response;
+    }
+
+    private static Double readLatestValue(HttpResponse response) throws Exception {
+        return new LatestValueResponseHandler(0).handleResponse(response).get("service.error.1MinuteRate").get();
+    }
+
+}
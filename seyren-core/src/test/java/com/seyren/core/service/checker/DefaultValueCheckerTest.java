@@ -82,6 +82,46 @@ public class DefaultValueCheckerTest {
         assertThat(checker.checkValue(bd("0.14"), bd("0.20"), bd("0.15")), is(AlertType.ERROR));
     }
     
+    @Test
+    public void batchGivesStatesAndTheSeriesToAlertOn() {
+        double[] values = { 0.10, 0.15, 0.25, 0.10 };
+        AlertType[] lastStates = { AlertType.OK, AlertType.OK, AlertType.WARN, AlertType.ERROR };
+        StateTransitions transitions = checker.checkValues(values, lastStates, Thresholds.of(bd("0.15"), bd("0.20")));
+        assertThat(transitions.getStates(), is(new AlertType[] { AlertType.OK, AlertType.WARN, AlertType.ERROR, AlertType.OK }));
+        // The first series was and still is OK, so there is nothing to say about it
+        assertThat(transitions.getAlerting(), is(new int[] { 1, 2, 3 }));
+        assertThat(transitions.getWorstState(), is(AlertType.ERROR));
+    }
+    
+    @Test
+    public void batchSplitAcrossThreadsMatchesOneThread() {
+        ValueChecker parallel = new DefaultValueChecker(1);
+        int size = 1001;
+        double[] values = new double[size];
+        AlertType[] lastStates = new AlertType[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (i % 30) / 100.0;
+            lastStates[i] = i % 7 == 0 ? AlertType.WARN : AlertType.OK;
+        }
+        Thresholds thresholds = Thresholds.of(bd("0.15"), bd("0.20"));
+        StateTransitions expected = checker.checkValues(values, lastStates, thresholds);
+        StateTransitions actual = parallel.checkValues(values, lastStates, thresholds);
+        assertThat(actual.getStates(), is(expected.getStates()));
+        assertThat(actual.getAlerting(), is(expected.getAlerting()));
+        assertThat(actual.getWorstState(), is(AlertType.ERROR));
+    }
+    
+    @Test
+    public void batchComparesValuesOnTheThresholdExactly() {
+        // The warn threshold rounds to the same double as 0.15
+        double[] values = { 0.15, 0.16 };
+        AlertType[] lastStates = { AlertType.OK, AlertType.OK };
+        StateTransitions transitions = checker.checkValues(values, lastStates, Thresholds.of(bd("0.1500000000000000002"), bd("0.20")));
+        assertThat(transitions.getStates(), is(new AlertType[] { AlertType.OK, AlertType.WARN }));
+        assertThat(transitions.getAlerting(), is(new int[] { 1 }));
+        assertThat(transitions.getWorstState(), is(AlertType.WARN));
+    }
+    
     private BigDecimal bd(String value) {
         return new BigDecimal(value);
     }
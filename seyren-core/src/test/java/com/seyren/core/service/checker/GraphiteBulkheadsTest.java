@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.service.checker.GraphiteBulkheads.Bulkhead;
+import com.seyren.core.store.GraphiteInstancesStore;
+import com.seyren.core.util.config.SeyrenConfig;
+
+public class GraphiteBulkheadsTest {
+
+    private GraphiteInstancesStore store;
+    private SeyrenConfig config;
+
+    @Before
+    public void before() {
+        store = mock(GraphiteInstancesStore.class);
+        config = mock(SeyrenConfig.class);
+        when(config.getNumThreads()).thenReturn(20);
+    }
+
+    @Test
+    public void oneInstanceGetsAtMostHalfTheThreadsByDefault() {
+        assertThat(new GraphiteBulkheads(store, config).defaultMaxConcurrentFor(1), is(10));
+    }
+
+    @Test
+    public void threadsAreSharedAmongInstancesByDefault() {
+        GraphiteBulkheads bulkheads = new GraphiteBulkheads(store, config);
+        assertThat(bulkheads.defaultMaxConcurrentFor(4), is(5));
+        assertThat(bulkheads.defaultMaxConcurrentFor(100), is(1));
+    }
+
+    @Test
+    public void configuredLimitIsUsedAsItIs() {
+        when(config.getGraphiteMaxConcurrentRequests()).thenReturn(30);
+        assertThat(new GraphiteBulkheads(store, config).defaultMaxConcurrentFor(4), is(30));
+    }
+
+    @Test
+    public void requestOverTheLimitIsRefusedUntilOneIsReleased() {
+        GraphiteBulkheads bulkheads = new GraphiteBulkheads(store, config);
+        Bulkhead bulkhead = bulkheads.bulkheadFor("http://graphite-a");
+        for (int i = 0; i < 10; i++) {
+            assertThat(bulkhead.tryAcquire(), is(true));
+        }
+        assertThat(bulkhead.tryAcquire(), is(false));
+        bulkhead.release();
+        assertThat(bulkhead.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void defaultLimitShrinksAsInstancesAreAdded() {
+        when(store.getGraphiteInstances()).thenReturn(new SeyrenResponse<GraphiteInstance>().withValues(Arrays.asList(
+                new GraphiteInstance().withBaseUrl("http://graphite-a"),
+                new GraphiteInstance().withBaseUrl("http://graphite-b"),
+                new GraphiteInstance().withBaseUrl("http://graphite-c"),
+                new GraphiteInstance().withBaseUrl("http://graphite-d").withMaxConcurrentRequests(2))));
+        GraphiteBulkheads bulkheads = new GraphiteBulkheads(store, config);
+        bulkheads.bulkheadFor("http://graphite-e");
+        bulkheads.refresh();
+        // Five instances share twenty threads
+        assertThat(inFlightAllowed(bulkheads.bulkheadFor("http://graphite-a")), is(4));
+        assertThat(inFlightAllowed(bulkheads.bulkheadFor("http://graphite-d")), is(2));
+        assertThat(inFlightAllowed(bulkheads.bulkheadFor("http://graphite-e")), is(4));
+    }
+
+    private static int inFlightAllowed(Bulkhead bulkhead) {
+        int allowed = 0;
+        while (bulkhead.tryAcquire()) {
+            allowed++;
+        }
+        return allowed;
+    }
+
+}
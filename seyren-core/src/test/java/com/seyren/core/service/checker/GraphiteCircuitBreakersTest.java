@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphiteCircuitBreakersTest {
+
+    private static final String URL = "http://graphite";
+
+    private final List<String> events = new ArrayList<String>();
+    private GraphiteCircuitBreakers breakers;
+
+    @Before
+    public void before() {
+        // Opens after two failures and lets a probe through at once
+        breakers = new GraphiteCircuitBreakers(2, 0);
+        breakers.addListener(new GraphiteCircuitBreakers.Listener() {
+            @Override
+            public void opened(String baseUrl) {
+                events.add("opened " + baseUrl);
+            }
+
+            @Override
+            public void closed(String baseUrl) {
+                events.add("closed " + baseUrl);
+            }
+        });
+    }
+
+    @Test
+    public void listenersHearOfTheBreakerOpeningOnceAndClosingOnce() {
+        breakers.recordFailure(URL);
+        assertThat(breakers.isOpen(URL), is(false));
+        breakers.recordFailure(URL);
+        assertThat(breakers.isOpen(URL), is(true));
+        assertThat(events, contains("opened " + URL));
+
+        // A failed probe opens the breaker again without telling anybody
+        assertThat(breakers.allowRequest(URL), is(true));
+        breakers.recordFailure(URL);
+        assertThat(breakers.isOpen(URL), is(true));
+        assertThat(events, contains("opened " + URL));
+
+        assertThat(breakers.allowRequest(URL), is(true));
+        breakers.recordSuccess(URL);
+        assertThat(breakers.isOpen(URL), is(false));
+        breakers.recordSuccess(URL);
+        assertThat(events, contains("opened " + URL, "closed " + URL));
+    }
+
+    @Test
+    public void instancesHaveTheirOwnBreakers() {
+        breakers.recordFailure(URL);
+        breakers.recordFailure(URL);
+        assertThat(breakers.isOpen("http://other"), is(false));
+        assertThat(breakers.allowRequest("http://other"), is(true));
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheOthers() {
+        GraphiteCircuitBreakers breakers = new GraphiteCircuitBreakers(1, 0);
+        final List<String> heard = new ArrayList<String>();
+        for (int i = 0; i < 2; i++) {
+            breakers.addListener(new GraphiteCircuitBreakers.Listener() {
+                @Override
+                public void opened(String baseUrl) {
+                    heard.add(baseUrl);
+                    throw new IllegalStateException();
+                }
+
+                @Override
+                public void closed(String baseUrl) {
+                }
+            });
+        }
+        breakers.recordFailure(URL);
+        assertThat(heard, contains(URL, URL));
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() {
+        GraphiteCircuitBreakers off = new GraphiteCircuitBreakers(0, 0);
+        for (int i = 0; i < 10; i++) {
+            off.recordFailure(URL);
+        }
+        assertThat(off.isOpen(URL), is(false));
+        assertThat(off.allowRequest(URL), is(true));
+    }
+
+}
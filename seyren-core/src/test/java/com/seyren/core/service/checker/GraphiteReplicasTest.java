@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.store.GraphiteInstancesStore;
+
+public class GraphiteReplicasTest {
+
+    private GraphiteReplicas replicas;
+
+    @Before
+    public void before() {
+        GraphiteInstancesStore store = mock(GraphiteInstancesStore.class);
+        when(store.getGraphiteInstances()).thenReturn(new SeyrenResponse<GraphiteInstance>().withValues(Arrays.asList(
+                new GraphiteInstance().withBaseUrl("http://graphite-a").withReplicaGroup("main"),
+                new GraphiteInstance().withBaseUrl("http://graphite-b").withReplicaGroup("main"),
+                new GraphiteInstance().withBaseUrl("http://graphite-c"))));
+        replicas = new GraphiteReplicas(store);
+        replicas.refresh();
+    }
+
+    @Test
+    public void replicasAreTheOtherMembersOfTheGroup() {
+        assertThat(replicas.replicasOf(check("http://graphite-a", "main")), contains("http://graphite-b"));
+        assertThat(replicas.replicasOf(check("http://graphite-b", "main")), contains("http://graphite-a"));
+    }
+
+    @Test
+    public void checkWithoutAGroupHasNoReplicas() {
+        assertThat(replicas.replicasOf(check("http://graphite-a", null)), is(empty()));
+    }
+
+    @Test
+    public void unknownGroupHasNoReplicas() {
+        assertThat(replicas.replicasOf(check("http://graphite-c", "other")), is(empty()));
+    }
+
+    private static Check check(String baseUrl, String replicaGroup) {
+        return new Check().withId("id").withGraphiteBaseUrl(baseUrl).withReplicaGroup(replicaGroup);
+    }
+
+}
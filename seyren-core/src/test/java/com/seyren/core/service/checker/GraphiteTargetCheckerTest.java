@@ -19,9 +19,14 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.junit.After;
@@ -30,9 +35,14 @@ import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.github.restdriver.clientdriver.ClientDriverRequest;
 import com.github.restdriver.clientdriver.ClientDriverRule;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.seyren.core.domain.Check;
+import com.seyren.core.domain.GraphiteInstance;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.store.GraphiteInstancesStore;
 import com.seyren.core.util.config.SeyrenConfig;
 
 public class GraphiteTargetCheckerTest {
@@ -41,15 +51,18 @@ public class GraphiteTargetCheckerTest {
     public ClientDriverRule clientDriver = new ClientDriverRule();
     
     private GraphiteTargetChecker checker;
+    private GraphiteCircuitBreakers breakers;
 
     @Before
     public void before() {
-        checker = new GraphiteTargetChecker(seyrenConfig(clientDriver.getBaseUrl()));
+        checker = checker(clientDriver.getBaseUrl());
     }
 
     @After
     public void after() {
         System.clearProperty("GRAPHITE_URL");
+        System.clearProperty("SEYREN_GRAPHITE_REQUEST_TIMEOUT");
+        System.clearProperty("SEYREN_GRAPHITE_BREAKER_FAILURES");
     }
 
     @Test
@@ -66,7 +79,7 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.error.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(check());
+        Map<String, Optional<Double>> values = checker.check(check());
         
         assertThat(values, hasKey("service.error.1MinuteRate"));
     }
@@ -85,10 +98,10 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.error.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(check());
+        Map<String, Optional<Double>> values = checker.check(check());
         
         assertThat(values.get("service.error.1MinuteRate").isPresent(), is(true));
-        assertThat(values.get("service.error.1MinuteRate").get(), is(new BigDecimal("0.06")));
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.06));
     }
     
     @Test
@@ -105,9 +118,9 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.error.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(check());
+        Map<String, Optional<Double>> values = checker.check(check());
         
-        assertThat(values.get("service.error.1MinuteRate").get(), is(new BigDecimal("0.01")));
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.01));
     }
     
     @Test
@@ -124,9 +137,9 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.error.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(check());
+        Map<String, Optional<Double>> values = checker.check(check());
         
-        assertThat(values.get("service.error.1MinuteRate").get(), is(new BigDecimal("0.17")));
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.17));
     }
     
     @Test
@@ -143,7 +156,7 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.error.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(check());
+        Map<String, Optional<Double>> values = checker.check(check());
         
         assertThat(values.get("service.error.1MinuteRate").isPresent(), is(false));
     }
@@ -165,16 +178,16 @@ public class GraphiteTargetCheckerTest {
                         .withParam("target", "service.*.1MinuteRate"),
                 giveResponse(response, "application/json"));
         
-        Map<String, Optional<BigDecimal>> values = checker.check(checkWithTarget("service.*.1MinuteRate"));
+        Map<String, Optional<Double>> values = checker.check(checkWithTarget("service.*.1MinuteRate"));
         
         assertThat(values.entrySet(), hasSize(2));
-        assertThat(values.get("service.error.1MinuteRate").get(), is(new BigDecimal("0.01")));
-        assertThat(values.get("service.warn.1MinuteRate").get(), is(new BigDecimal("0.78")));
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.01));
+        assertThat(values.get("service.warn.1MinuteRate").get(), is(0.78));
     }
     
     @Test
     public void exceptionGettingDataFromGraphiteIsHandled() throws Exception {
-        checker = new GraphiteTargetChecker(seyrenConfig("http://unknown"));
+        checker = checker("http://unknown");
         checker.check(checkWithTarget("service.*.1MinuteRate"));
     }
     
@@ -183,7 +196,7 @@ public class GraphiteTargetCheckerTest {
     public void authIsAddedWhenUsernameAndPasswordAreProvided() throws Exception {
         System.setProperty("GRAPHITE_USERNAME", "seyren");
         System.setProperty("GRAPHITE_PASSWORD", "s3yr3N");
-        checker = new GraphiteTargetChecker(seyrenConfig(clientDriver.getBaseUrl()));
+        checker = checker(clientDriver.getBaseUrl());
         
         String response = "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.20, 1337453460],[0.01, 1337453463]]}]";
         
@@ -203,6 +216,140 @@ public class GraphiteTargetCheckerTest {
         System.clearProperty("GRAPHITE_PASSWORD");
     }
     
+    @Test
+    public void asyncCheckCompletesWithTheRenderedValues() throws Exception {
+        String response = "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.20, 1337453460],[0.01, 1337453463]]}]";
+        
+        clientDriver.addExpectation(
+                onRequestTo("/render/")
+                        .withParam("from", "-11minutes")
+                        .withParam("until", "-1minutes")
+                        .withParam("uniq", Pattern.compile("[0-9]+"))
+                        .withParam("format", "json")
+                        .withParam("target", "service.error.1MinuteRate"),
+                giveResponse(response, "application/json"));
+        
+        Map<String, Optional<Double>> values = checker.checkAsync(check().withGraphiteBaseUrl(clientDriver.getBaseUrl())).get(5, TimeUnit.SECONDS);
+        
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.01));
+    }
+    
+    @Test
+    public void asyncCheckIsGivenUpOnAtItsDeadlineWithoutAThreadWaiting() throws Exception {
+        System.setProperty("SEYREN_GRAPHITE_REQUEST_TIMEOUT", "500");
+        checker = checker(clientDriver.getBaseUrl());
+        String response = "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.20, 1337453460]]}]";
+        
+        clientDriver.addExpectation(
+                onRequestTo("/render/")
+                        .withParam("from", "-11minutes")
+                        .withParam("until", "-1minutes")
+                        .withParam("uniq", Pattern.compile("[0-9]+"))
+                        .withParam("format", "json")
+                        .withParam("target", "service.error.1MinuteRate"),
+                giveResponse(response, "application/json").after(3, TimeUnit.SECONDS)).anyTimes();
+        
+        long start = System.currentTimeMillis();
+        ListenableFuture<Map<String, Optional<Double>>> values = checker.checkAsync(check().withGraphiteBaseUrl(clientDriver.getBaseUrl()));
+        assertThat(values.isDone(), is(false));
+        
+        assertThat(values.get(5, TimeUnit.SECONDS).isEmpty(), is(true));
+        assertThat(System.currentTimeMillis() - start, is(lessThan(2500L)));
+    }
+    
+    @Test
+    public void targetGraphiteCannotRenderDoesNotTripTheBreaker() throws Exception {
+        System.setProperty("SEYREN_GRAPHITE_BREAKER_FAILURES", "1");
+        checker = checker(clientDriver.getBaseUrl());
+        
+        clientDriver.addExpectation(renderOf("nosuchfunction(service.error.1MinuteRate)"), giveResponse("<h1>Server Error</h1>", "text/html").withStatus(500));
+        assertThat(checker.check(checkWithTarget("nosuchfunction(service.error.1MinuteRate)").withGraphiteBaseUrl(clientDriver.getBaseUrl())).isEmpty(), is(true));
+        assertThat(breakers.isOpen(clientDriver.getBaseUrl()), is(false));
+        
+        clientDriver.addExpectation(renderOf("service.error.1MinuteRate"), giveResponse("Bad request", "text/plain").withStatus(400));
+        assertThat(checker.check(check().withGraphiteBaseUrl(clientDriver.getBaseUrl())).isEmpty(), is(true));
+        assertThat(breakers.isOpen(clientDriver.getBaseUrl()), is(false));
+        
+        clientDriver.addExpectation(renderOf("service.error.1MinuteRate"), giveResponse("<html>not a render</html>", "text/html"));
+        assertThat(checkAsync(check().withGraphiteBaseUrl(clientDriver.getBaseUrl())).isEmpty(), is(true));
+        assertThat(breakers.isOpen(clientDriver.getBaseUrl()), is(false));
+    }
+    
+    @Test
+    public void overloadedInstanceTripsTheBreaker() throws Exception {
+        System.setProperty("SEYREN_GRAPHITE_BREAKER_FAILURES", "1");
+        checker = checker(clientDriver.getBaseUrl());
+        
+        clientDriver.addExpectation(renderOf("service.error.1MinuteRate"), giveResponse("Service Unavailable", "text/plain").withStatus(503));
+        assertThat(checker.check(check().withGraphiteBaseUrl(clientDriver.getBaseUrl())).isEmpty(), is(true));
+        
+        assertThat(breakers.isOpen(clientDriver.getBaseUrl()), is(true));
+    }
+    
+    @Test
+    public void asyncCheckFailsOverToAReplica() throws Exception {
+        GraphiteInstancesStore graphiteInstancesStore = mock(GraphiteInstancesStore.class);
+        when(graphiteInstancesStore.getGraphiteInstances()).thenReturn(new SeyrenResponse<GraphiteInstance>().withValues(Arrays.asList(
+                new GraphiteInstance().withBaseUrl("http://unknown").withReplicaGroup("main"),
+                new GraphiteInstance().withBaseUrl(clientDriver.getBaseUrl()).withReplicaGroup("main"))));
+        checker = checker(clientDriver.getBaseUrl(), graphiteInstancesStore);
+        String response = "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.20, 1337453460]]}]";
+        
+        clientDriver.addExpectation(
+                onRequestTo("/render/")
+                        .withParam("from", "-11minutes")
+                        .withParam("until", "-1minutes")
+                        .withParam("uniq", Pattern.compile("[0-9]+"))
+                        .withParam("format", "json")
+                        .withParam("target", "service.error.1MinuteRate"),
+                giveResponse(response, "application/json"));
+        
+        Check check = check().withGraphiteBaseUrl("http://unknown").withReplicaGroup("main");
+        Map<String, Optional<Double>> values = checker.checkAsync(check).get(30, TimeUnit.SECONDS);
+        
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.2));
+    }
+    
+    @Test
+    public void asyncCheckOfAnUnknownHostCompletesWithoutValues() throws Exception {
+        checker = checker("http://unknown");
+        assertThat(checker.checkAsync(checkWithTarget("service.*.1MinuteRate").withGraphiteBaseUrl("http://unknown")).get(30, TimeUnit.SECONDS).isEmpty(), is(true));
+    }
+    
+    @Test
+    public void consolidatedSeriesNamesAreUnwrapped() {
+        assertThat(GraphiteTargetChecker.unwrapConsolidated("consolidateBy(service.error.1MinuteRate,\"last\")"), is("service.error.1MinuteRate"));
+        assertThat(GraphiteTargetChecker.unwrapConsolidated("consolidateBy(service.error.1MinuteRate,'last')"), is("service.error.1MinuteRate"));
+        assertThat(GraphiteTargetChecker.unwrapConsolidated("consolidateBy(service.error.1MinuteRate,'max')"), is("consolidateBy(service.error.1MinuteRate,'max')"));
+    }
+    
+    private GraphiteTargetChecker checker(String graphiteUrl) {
+        return checker(graphiteUrl, mock(GraphiteInstancesStore.class));
+    }
+    
+    private GraphiteTargetChecker checker(String graphiteUrl, GraphiteInstancesStore graphiteInstancesStore) {
+        SeyrenConfig seyrenConfig = seyrenConfig(graphiteUrl);
+        GraphiteReplicas replicas = new GraphiteReplicas(graphiteInstancesStore);
+        replicas.refresh();
+        breakers = new GraphiteCircuitBreakers(seyrenConfig);
+        return new GraphiteTargetChecker(new GraphiteConnections(graphiteInstancesStore, seyrenConfig), new GraphiteBulkheads(graphiteInstancesStore, seyrenConfig),
+                breakers, replicas, new RenderCache(seyrenConfig),
+                new ThresholdPushdown(seyrenConfig), seyrenConfig);
+    }
+    
+    private Map<String, Optional<Double>> checkAsync(Check check) throws Exception {
+        return checker.checkAsync(check).get(5, TimeUnit.SECONDS);
+    }
+    
+    private static ClientDriverRequest renderOf(String target) {
+        return onRequestTo("/render/")
+                .withParam("from", "-11minutes")
+                .withParam("until", "-1minutes")
+                .withParam("uniq", Pattern.compile("[0-9]+"))
+                .withParam("format", "json")
+                .withParam("target", target);
+    }
+    
     private SeyrenConfig seyrenConfig(String graphiteUrl) {
         System.setProperty("GRAPHITE_URL", graphiteUrl);
         return new SeyrenConfig();
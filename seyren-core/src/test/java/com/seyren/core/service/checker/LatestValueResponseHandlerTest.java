@@ -0,0 +1,160 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+public class LatestValueResponseHandlerTest {
+    
+    @Test
+    public void latestNonNullValueOfEachSeriesIsKept() throws Exception {
+        Map<String, Optional<Double>> values = handle(0, "[" +
+                    "{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.20, 1337453460],[0.01, 1337453463],[null, 1337453466]]}," +
+                    "{\"target\": \"service.warn.1MinuteRate\", \"datapoints\": [[0.56, 1337453460],[0.78, 1337453463]]}" +
+                "]");
+        
+        assertThat(values.entrySet(), hasSize(2));
+        assertThat(values.get("service.error.1MinuteRate").get(), is(0.01));
+        assertThat(values.get("service.warn.1MinuteRate").get(), is(0.78));
+    }
+    
+    @Test
+    public void seriesWithOnlyNullValuesIsAbsent() throws Exception {
+        Map<String, Optional<Double>> values = handle(0, "[{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[null, 1337453460],[null, 1337453463]]}]");
+        
+        assertThat(values.get("service.error.1MinuteRate").isPresent(), is(false));
+    }
+    
+    @Test
+    public void fieldsMayComeInAnyOrderAndUnknownFieldsAreSkipped() throws Exception {
+        Map<String, Optional<Double>> values = handle(0, "[{\"datapoints\": [[17, 1337453460]], \"tags\": {\"name\": [\"a\"]}, \"target\": \"service.error.1MinuteRate\"}]");
+        
+        assertThat(values.get("service.error.1MinuteRate").get(), is(17d));
+    }
+    
+    @Test
+    public void seriesBeyondTheLimitAreIgnored() throws Exception {
+        Map<String, Optional<Double>> values = handle(1, "[" +
+                    "{\"target\": \"service.error.1MinuteRate\", \"datapoints\": [[0.01, 1337453463]]}," +
+                    "{\"target\": \"service.warn.1MinuteRate\", \"datapoints\": [[0.78, 1337453463]]}" +
+                "]");
+        
+        assertThat(values.keySet(), contains("service.error.1MinuteRate"));
+    }
+    
+    @Test
+    public void connectionIsAbortedRatherThanReadToTheEndOnceTheLimitIsReached() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"target\": \"servers.web").append(i).append(".cpu\", \"datapoints\": [[0.5, 1337453460]]}");
+        }
+        byte[] bytes = body.append("]").toString().getBytes("UTF-8");
+        AbortableEntity entity = new AbortableEntity(bytes);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+        
+        Map<String, Optional<Double>> values = new LatestValueResponseHandler(2).handleResponse(response);
+        
+        assertThat(values.entrySet(), hasSize(2));
+        assertThat(entity.aborted, is(true));
+        assertThat(entity.content.getCount(), is(lessThan((long) bytes.length)));
+    }
+    
+    @Test
+    public void connectionIsLeftForReuseWhenTheResponseIsReadToTheEnd() throws Exception {
+        AbortableEntity entity = new AbortableEntity("[{\"target\": \"a\", \"datapoints\": [[1, 1337453460]]}]".getBytes("UTF-8"));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+        
+        new LatestValueResponseHandler(2).handleResponse(response);
+        
+        assertThat(entity.aborted, is(false));
+    }
+    
+    @Test
+    public void errorResponseIsThrownWithItsStatus() throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+        response.setEntity(new StringEntity("<h1>Service Unavailable</h1>"));
+        try {
+            new LatestValueResponseHandler(0).handleResponse(response);
+            fail();
+        } catch (HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(503));
+        }
+    }
+    
+    @Test
+    public void emptyResponseHasNoSeries() throws Exception {
+        assertThat(handle(0, "[]").isEmpty(), is(true));
+    }
+    
+    private Map<String, Optional<Double>> handle(int maxSeries, String body) throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new StringEntity(body));
+        return new LatestValueResponseHandler(maxSeries).handleResponse(response);
+    }
+    
+    /**
+     * Stands in for the entity of a pooled connection, which reads the rest
+     * of the response when closed unless the connection has been aborted.
+     */
+    private static final class AbortableEntity extends BasicHttpEntity implements ConnectionReleaseTrigger {
+        
+        private final CountingInputStream content;
+        private boolean aborted;
+        
+        private AbortableEntity(byte[] bytes) {
+            this.content = new CountingInputStream(new ByteArrayInputStream(bytes));
+            setContent(new FilterInputStream(content) {
+                @Override
+                public void close() throws IOException {
+                    if (!aborted) {
+                        ByteStreams.toByteArray(this);
+                    }
+                }
+            });
+        }
+        
+        @Override
+        public void releaseConnection() {
+        }
+        
+        @Override
+        public void abortConnection() {
+            aborted = true;
+        }
+        
+    }
+    
+}
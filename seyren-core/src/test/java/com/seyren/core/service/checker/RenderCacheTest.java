@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+
+public class RenderCacheTest {
+
+    private static final String URL = "http://graphite";
+    private static final String WINDOW = "from=-11minutes&until=-1minutes";
+    private static final long INTERVAL = 60000;
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void cachedSeriesAreReturnedWithinTheTtl() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        ticker.advance(9999);
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", INTERVAL), hasKey("service.error.1MinuteRate"));
+    }
+
+    @Test
+    public void seriesExpireAfterTheTtl() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        ticker.advance(10001);
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", INTERVAL), is(nullValue()));
+    }
+
+    @Test
+    public void checkIsOnlyGivenSeriesFetchedWithinHalfItsInterval() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        ticker.advance(2499);
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", 5000), hasKey("service.error.1MinuteRate"));
+        ticker.advance(1);
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", 5000), is(nullValue()));
+        // Checks of the same target run less often can still use it
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", INTERVAL), hasKey("service.error.1MinuteRate"));
+    }
+
+    @Test
+    public void checkRunMoreOftenThanTheTtlDoesNotSeeItsPreviousRun() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        ticker.advance(5000);
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", 5000), is(nullValue()));
+    }
+
+    @Test
+    public void instanceWindowAndTargetAllMakeTheKey() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        assertThat(cache.get("http://other", WINDOW, "service.error.1MinuteRate", INTERVAL), is(nullValue()));
+        assertThat(cache.get(URL, "from=-5minutes&until=-1minutes", "service.error.1MinuteRate", INTERVAL), is(nullValue()));
+        assertThat(cache.get(URL, WINDOW, "service.warn.1MinuteRate", INTERVAL), is(nullValue()));
+    }
+
+    @Test
+    public void seriesAreEvictedOverTheSizeCap() {
+        Map<String, Optional<Double>> series = series("service.error.1MinuteRate");
+        long entryBytes = RenderCache.bytesOf(URL + " " + WINDOW + " target00", series);
+        RenderCache cache = new RenderCache(10000, entryBytes * 10, ticker);
+        for (int i = 10; i < 100; i++) {
+            cache.put(URL, WINDOW, "target" + i, series);
+        }
+        int cached = 0;
+        for (int i = 10; i < 100; i++) {
+            if (cache.get(URL, WINDOW, "target" + i, INTERVAL) != null) {
+                cached++;
+            }
+        }
+        assertThat(cached, is(lessThanOrEqualTo(10)));
+    }
+
+    @Test
+    public void zeroTtlTurnsTheCacheOff() {
+        RenderCache cache = new RenderCache(0, 1 << 20, ticker);
+        Map<String, Optional<Double>> cached = cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate"));
+        assertThat(cached, hasKey("service.error.1MinuteRate"));
+        assertThat(cache.get(URL, WINDOW, "service.error.1MinuteRate", INTERVAL), is(nullValue()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedSeriesCannotBeChanged() {
+        RenderCache cache = new RenderCache(10000, 1 << 20, ticker);
+        cache.put(URL, WINDOW, "service.error.1MinuteRate", series("service.error.1MinuteRate")).clear();
+    }
+
+    private static Map<String, Optional<Double>> series(String name) {
+        return new HashMap<String, Optional<Double>>(Collections.singletonMap(name, Optional.of(1d)));
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+    }
+
+}
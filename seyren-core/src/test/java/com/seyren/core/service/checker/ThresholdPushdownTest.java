@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.seyren.core.domain.Check;
+
+public class ThresholdPushdownTest {
+
+    private final ThresholdPushdown pushdown = new ThresholdPushdown(true);
+
+    @Test
+    public void checkIsFetchedInFullUntilItsBreachingSeriesAreKnown() {
+        assertThat(pushdown.targetFor(check("host*.cpu", "80", "90")), is("host*.cpu"));
+    }
+
+    @Test
+    public void breachingSeriesAreNamedAlongsideTheFilter() {
+        pushdown.recordBreaching("id", Collections.singleton("host1.cpu"), Collections.<String> emptySet());
+        assertThat(pushdown.targetFor(check("host*.cpu", "80", "90")), is("group(filterSeries(host*.cpu,'last','>=',80),host1.cpu)"));
+    }
+
+    @Test
+    public void lowValuesBeingWorseFilterBelowWarn() {
+        pushdown.recordBreaching("id", Collections.<String> emptySet(), Collections.<String> emptySet());
+        assertThat(pushdown.targetFor(check("host*.disk_free", "10", "5")), is("group(filterSeries(host*.disk_free,'last','<=',10))"));
+    }
+
+    @Test
+    public void breachingSeriesWithoutAValueStayNamed() {
+        pushdown.recordBreaching("id", Collections.singleton("host1.cpu"), Collections.<String> emptySet());
+        pushdown.recordBreaching("id", Collections.<String> emptySet(), new HashSet<String>(Collections.singleton("host1.cpu")));
+        assertThat(pushdown.targetFor(check("host*.cpu", "80", "90")), endsWith(",host1.cpu)"));
+    }
+
+    @Test
+    public void tooManyBreachingSeriesFetchTheCheckInFull() {
+        Set<String> series = new HashSet<String>();
+        for (int i = 0; i <= ThresholdPushdown.MAX_NAMED_SERIES; i++) {
+            series.add("host" + i + ".cpu");
+        }
+        pushdown.recordBreaching("id", series, Collections.<String> emptySet());
+        assertThat(pushdown.targetFor(check("host*.cpu", "80", "90")), is("host*.cpu"));
+    }
+
+    @Test
+    public void targetsWithoutWildcardsAreNotPushedDown() {
+        pushdown.recordBreaching("id", Collections.<String> emptySet(), Collections.<String> emptySet());
+        assertThat(pushdown.targetFor(check("host1.cpu", "80", "90")), is("host1.cpu"));
+        assertThat(pushdown.targetFor(check("sumSeries(host*.cpu)", "80", "90")), is("sumSeries(host*.cpu)"));
+    }
+
+    @Test
+    public void nothingIsPushedDownWhenDisabled() {
+        ThresholdPushdown disabled = new ThresholdPushdown(false);
+        disabled.recordBreaching("id", Collections.<String> emptySet(), Collections.<String> emptySet());
+        assertThat(disabled.targetFor(check("host*.cpu", "80", "90")), is("host*.cpu"));
+    }
+
+    private static Check check(String target, String warn, String error) {
+        return new Check().withId("id").withTarget(target).withWarn(new BigDecimal(warn)).withError(new BigDecimal(error));
+    }
+
+}
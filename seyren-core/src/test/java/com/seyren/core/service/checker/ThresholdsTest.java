@@ -0,0 +1,70 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.seyren.core.domain.AlertType;
+
+public class ThresholdsTest {
+
+    @Test
+    public void highValuesAreWorseWhenWarnIsBelowError() {
+        Thresholds thresholds = Thresholds.of(bd("10"), bd("20"));
+        assertThat(thresholds.isHighWorse(), is(true));
+        assertThat(thresholds.stateOf(bd("9.99")), is(AlertType.OK));
+        assertThat(thresholds.stateOf(bd("10")), is(AlertType.WARN));
+        assertThat(thresholds.stateOf(bd("20.0")), is(AlertType.ERROR));
+        assertThat(thresholds.stateOf(25d), is(AlertType.ERROR));
+    }
+
+    @Test
+    public void lowValuesAreWorseWhenWarnIsAboveError() {
+        Thresholds thresholds = Thresholds.of(bd("20"), bd("10"));
+        assertThat(thresholds.isHighWorse(), is(false));
+        assertThat(thresholds.stateOf(bd("21")), is(AlertType.OK));
+        assertThat(thresholds.stateOf(bd("15")), is(AlertType.WARN));
+        assertThat(thresholds.stateOf(10d), is(AlertType.ERROR));
+    }
+
+    @Test
+    public void valuesWhichRoundToTheThresholdAreComparedExactly() {
+        Thresholds thresholds = Thresholds.of(bd("0.15"), bd("0.20"));
+        // Both round to the same double as 0.15
+        assertThat(thresholds.stateOf(bd("0.14999999999999999999")), is(AlertType.OK));
+        assertThat(thresholds.stateOf(bd("0.15000000000000000001")), is(AlertType.WARN));
+    }
+
+    @Test
+    public void doublesOnARoundedThresholdAreComparedAsTheirShortestDecimal() {
+        // Both thresholds round to the same double as 0.15
+        assertThat(Thresholds.of(bd("0.15000000000000000001"), bd("0.20")).stateOf(0.15), is(AlertType.OK));
+        assertThat(Thresholds.of(bd("0.14999999999999999999"), bd("0.20")).stateOf(0.15), is(AlertType.WARN));
+    }
+
+    @Test
+    public void notANumberIsOk() {
+        assertThat(Thresholds.of(bd("1"), bd("2")).stateOf(Double.NaN), is(AlertType.OK));
+    }
+
+    private static BigDecimal bd(String value) {
+        return new BigDecimal(value);
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void burstOfOneSecondIsAllowed() {
+        TokenBucket bucket = new TokenBucket(5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.tryAcquire(0), is(true));
+        }
+        assertThat(bucket.tryAcquire(0), is(false));
+    }
+
+    @Test
+    public void tokensAccrueAtTheRate() {
+        TokenBucket bucket = new TokenBucket(10, 0);
+        for (int i = 0; i < 10; i++) {
+            bucket.tryAcquire(0);
+        }
+        assertThat(bucket.tryAcquire(99), is(false));
+        assertThat(bucket.tryAcquire(100), is(true));
+        assertThat(bucket.tryAcquire(100), is(false));
+    }
+
+    @Test
+    public void idleBucketHoldsNoMoreThanOneSecondOfTokens() {
+        TokenBucket bucket = new TokenBucket(2, 0);
+        int allowed = 0;
+        while (bucket.tryAcquire(60000)) {
+            allowed++;
+        }
+        assertThat(allowed, is(2));
+    }
+
+    @Test
+    public void rateBelowOnePerSecondStillAllowsOneRequest() {
+        TokenBucket bucket = new TokenBucket(0.5, 0);
+        assertThat(bucket.tryAcquire(0), is(true));
+        assertThat(bucket.tryAcquire(1999), is(false));
+        assertThat(bucket.tryAcquire(2000), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new TokenBucket(0, 0);
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.checker;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.seyren.core.domain.Check;
+
+public class WhisperTargetCheckerTest {
+
+    @Rule
+    public TemporaryFolder storage = new TemporaryFolder();
+
+    private GraphiteTargetChecker graphite;
+    private WhisperTargetChecker checker;
+
+    @Before
+    public void before() throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        whisper("servers/web1/cpu.wsp", now - 120, 10.5);
+        whisper("servers/web2/cpu.wsp", now - 120, 20.0);
+        whisper("servers/db1/cpu.wsp", now - 3600, 30.0);
+        graphite = mock(GraphiteTargetChecker.class);
+        checker = new WhisperTargetChecker(graphite, storage.getRoot(), "http://graphite", 100, 0, "-11minutes", "-1minutes");
+    }
+
+    @Test
+    public void plainPathIsReadFromItsFile() throws Exception {
+        Map<String, Optional<Double>> values = checker.check(check("servers.web1.cpu"));
+        assertThat(values.size(), is(1));
+        assertThat(values.get("servers.web1.cpu"), is(Optional.of(10.5)));
+        verifyZeroInteractions(graphite);
+    }
+
+    @Test
+    public void wildcardsAreResolvedAgainstTheStorageDirectory() throws Exception {
+        Map<String, Optional<Double>> values = checker.check(check("servers.{web*,db1}.cpu"));
+        assertThat(values.keySet(), containsInAnyOrder("servers.web1.cpu", "servers.web2.cpu", "servers.db1.cpu"));
+        assertThat(values.get("servers.web2.cpu"), is(Optional.of(20.0)));
+        // Nothing written within the window
+        assertThat(values.get("servers.db1.cpu"), is(Optional.<Double>absent()));
+    }
+
+    @Test
+    public void missingMetricHasNoSeries() throws Exception {
+        assertThat(checker.check(check("servers.web3.cpu")).isEmpty(), is(true));
+    }
+
+    @Test
+    public void functionsAreLeftToGraphite() throws Exception {
+        Check check = check("sumSeries(servers.*.cpu)");
+        Map<String, Optional<Double>> fromGraphite = new HashMap<String, Optional<Double>>();
+        when(graphite.check(check)).thenReturn(fromGraphite);
+        assertThat(checker.check(check), is(sameInstance(fromGraphite)));
+    }
+
+    @Test
+    public void otherInstancesAreLeftToGraphite() throws Exception {
+        Check check = check("servers.web1.cpu").withGraphiteBaseUrl("http://elsewhere");
+        checker.check(check);
+        verify(graphite).check(check);
+    }
+
+    @Test
+    public void absoluteTimesAreLeftToGraphite() throws Exception {
+        Check check = check("servers.web1.cpu").withFrom("12:00_20140101");
+        checker.check(check);
+        verify(graphite).check(check);
+    }
+
+    @Test
+    public void localCheckIsReadStraightAwayWhenAskedAsynchronously() throws Exception {
+        ListenableFuture<Map<String, Optional<Double>>> values = checker.checkAsync(check("servers.web1.cpu"));
+        assertThat(values.isDone(), is(true));
+        assertThat(values.get().get("servers.web1.cpu"), is(Optional.of(10.5)));
+        verifyZeroInteractions(graphite);
+    }
+
+    @Test
+    public void functionsAreLeftToGraphiteWhenAskedAsynchronously() throws Exception {
+        Check check = check("sumSeries(servers.*.cpu)");
+        SettableFuture<Map<String, Optional<Double>>> fromGraphite = SettableFuture.create();
+        when(graphite.checkAsync(check)).thenReturn(fromGraphite);
+        assertThat(checker.checkAsync(check), is(sameInstance((ListenableFuture<Map<String, Optional<Double>>>) fromGraphite)));
+    }
+
+    @Test
+    public void pathsAreSplitOutsideAlternatives() {
+        assertThat(WhisperTargetChecker.nodesOf("a.{b.c,d}.e"), contains("a", "{b.c,d}", "e"));
+    }
+
+    private static Check check(String target) {
+        return new Check().withId("id").withName("name").withGraphiteBaseUrl("http://graphite").withTarget(target);
+    }
+
+    /**
+     * Writes a file with a single archive of an hour of minutely points,
+     * holding one point.
+     */
+    private void whisper(String path, long timestamp, double value) throws IOException {
+        int points = 60;
+        long interval = timestamp - (timestamp % 60);
+        ByteBuffer buffer = ByteBuffer.allocate(28 + points * 12);
+        buffer.putInt(1).putInt(60 * points).putFloat(0.5f).putInt(1);
+        buffer.putInt(28).putInt(60).putInt(points);
+        buffer.putInt((int) interval).putDouble(value);
+
+        File file = new File(storage.getRoot(), path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+}
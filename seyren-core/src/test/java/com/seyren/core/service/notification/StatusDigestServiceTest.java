@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.velocity.VelocityContext;
+import org.joda.time.DateTime;
+import org.joda.time.LocalTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.util.config.SeyrenConfig;
+
+public class StatusDigestServiceTest {
+    
+    // A Sunday
+    private static final DateTime NOW = new DateTime(2012, 1, 1, 10, 30);
+    
+    private EmailNotificationService email;
+    private SeyrenConfig config;
+    
+    @Before
+    public void before() {
+        email = mock(EmailNotificationService.class);
+        config = mock(SeyrenConfig.class);
+    }
+    
+    @Test
+    public void checksWhichAreNotOkAreGroupedByEmailSubscriber() {
+        Check cpu = check("cpu", AlertType.ERROR, email("ops@example.com"), email("dev@example.com"));
+        Check disk = check("disk", AlertType.WARN, email("ops@example.com"));
+        Check memory = check("memory", AlertType.OK, email("ops@example.com"));
+        
+        Map<String, List<Check>> digests = StatusDigestService.digestsOf(Arrays.asList(cpu, disk, memory), NOW);
+        
+        assertThat(digests.keySet(), contains("dev@example.com", "ops@example.com"));
+        assertThat(digests.get("ops@example.com"), contains(cpu, disk));
+        assertThat(digests.get("dev@example.com"), contains(cpu));
+    }
+    
+    @Test
+    public void checksWithoutAStateAreLeftOut() {
+        assertThat(StatusDigestService.digestsOf(Arrays.asList(check("cpu", null, email("ops@example.com"))), NOW).isEmpty(), is(true));
+    }
+    
+    @Test
+    public void otherSubscriptionTypesAndQuietHoursAreLeftOut() {
+        Subscription hipchat = email("room").withType(SubscriptionType.HIPCHAT);
+        Subscription asleep = email("night@example.com").withFromTime(new LocalTime(0, 0)).withToTime(new LocalTime(6, 0));
+        
+        assertThat(StatusDigestService.digestsOf(Arrays.asList(check("cpu", AlertType.ERROR, hipchat, asleep)), NOW).isEmpty(), is(true));
+    }
+    
+    @Test
+    public void subscriberSubscribedTwiceToACheckSeesItOnce() {
+        Check cpu = check("cpu", AlertType.ERROR, email("ops@example.com"), email("ops@example.com"));
+        assertThat(StatusDigestService.digestsOf(Arrays.asList(cpu), NOW).get("ops@example.com"), contains(cpu));
+    }
+    
+    @Test
+    public void digestIsSentOncePerInterval() {
+        when(config.getDigestIntervalMinutes()).thenReturn(60);
+        StatusDigestService service = new StatusDigestService(email, config);
+        List<Check> checks = Arrays.asList(check("cpu", AlertType.ERROR, email("ops@example.com")));
+        long start = NOW.minusHours(1).getMillis();
+        
+        service.sendDigestsIfDue(checks, start);
+        service.sendDigestsIfDue(checks, start + 3599999);
+        verifyZeroInteractions(email);
+        
+        service.sendDigestsIfDue(checks, start + 3600000);
+        service.sendDigestsIfDue(checks, start + 3660000);
+        ArgumentCaptor<VelocityContext> context = ArgumentCaptor.forClass(VelocityContext.class);
+        verify(email).sendEmail(eq("ops@example.com"), eq("Seyren status: 1 check not OK"), anyString(), context.capture());
+        assertThat(context.getValue().get("CHECKS"), is((Object) checks));
+    }
+    
+    @Test
+    public void intervalOfZeroTurnsDigestsOff() {
+        when(config.getDigestIntervalMinutes()).thenReturn(0);
+        StatusDigestService service = new StatusDigestService(email, config);
+        List<Check> checks = Arrays.asList(check("cpu", AlertType.ERROR, email("ops@example.com")));
+        
+        service.sendDigestsIfDue(checks, NOW.getMillis());
+        service.sendDigestsIfDue(checks, NOW.plusDays(7).getMillis());
+        
+        verifyZeroInteractions(email);
+    }
+    
+    private static Check check(String name, AlertType state, Subscription... subscriptions) {
+        return new Check().withId(name).withName(name).withState(state).withSubscriptions(Arrays.asList(subscriptions));
+    }
+    
+    private static Subscription email(String address) {
+        return new Subscription().withType(SubscriptionType.EMAIL).withTarget(address).withEnabled(true).withSu(true)
+                .withFromTime(new LocalTime(0, 0)).withToTime(new LocalTime(23, 59));
+    }
+    
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackendPermitsTest {
+
+    private BackendPermits permits;
+
+    @Before
+    public void before() {
+        permits = new BackendPermits(2);
+    }
+
+    @Test
+    public void callerGetsAPermitWhileAnyAreFree() {
+        assertThat(permits.acquireOrPark("a", new Continuation("1")), is(true));
+        assertThat(permits.acquireOrPark("a", new Continuation("2")), is(true));
+        assertThat(permits.getInUse(), is(2));
+        assertThat(permits.getParked(), is(0));
+    }
+
+    @Test
+    public void callerIsParkedOnceThePermitsAreTaken() {
+        permits.acquireOrPark("a", new Continuation("1"));
+        permits.acquireOrPark("a", new Continuation("2"));
+        assertThat(permits.acquireOrPark("a", new Continuation("3")), is(false));
+        assertThat(permits.getParked(), is(1));
+    }
+
+    @Test
+    public void releasedPermitPassesToTheOldestParkedCaller() {
+        permits.acquireOrPark("a", new Continuation("1"));
+        permits.acquireOrPark("a", new Continuation("2"));
+        Continuation third = new Continuation("3");
+        Continuation fourth = new Continuation("4");
+        permits.acquireOrPark("a", third);
+        permits.acquireOrPark("a", fourth);
+
+        assertThat(permits.release("a"), is(sameInstance((Runnable) third)));
+        assertThat(permits.release("a"), is(sameInstance((Runnable) fourth)));
+        // Handing a permit over doesn't free it
+        assertThat(permits.getInUse(), is(2));
+        assertThat(permits.getParked(), is(0));
+    }
+
+    @Test
+    public void releaseWithNothingParkedFreesThePermit() {
+        permits.acquireOrPark("a", new Continuation("1"));
+        permits.acquireOrPark("a", new Continuation("2"));
+        assertThat(permits.release("a"), is(nullValue()));
+        assertThat(permits.getInUse(), is(1));
+        assertThat(permits.acquireOrPark("a", new Continuation("3")), is(true));
+    }
+
+    @Test
+    public void permitsNeverExceedTheLimitOnExtraReleases() {
+        permits.release("a");
+        permits.release("a");
+        permits.acquireOrPark("a", new Continuation("1"));
+        permits.acquireOrPark("a", new Continuation("2"));
+        assertThat(permits.acquireOrPark("a", new Continuation("3")), is(false));
+    }
+
+    @Test
+    public void eachBackendHasItsOwnPermits() {
+        permits.acquireOrPark("a", new Continuation("1"));
+        permits.acquireOrPark("a", new Continuation("2"));
+        assertThat(permits.acquireOrPark("b", new Continuation("3")), is(true));
+        assertThat(permits.release("b"), is(nullValue()));
+        assertThat(permits.getInUse(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backendMustHaveAtLeastOnePermit() {
+        new BackendPermits(0);
+    }
+
+    private static final class Continuation implements Runnable {
+
+        private final String name;
+
+        private Continuation(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+    }
+
+}
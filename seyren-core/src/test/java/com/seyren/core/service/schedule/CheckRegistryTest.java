@@ -0,0 +1,205 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.store.ChecksStore;
+import com.seyren.core.util.config.SeyrenConfig;
+
+public class CheckRegistryTest {
+    
+    private ChecksStore store;
+    private SeyrenConfig config;
+    private final List<String> events = new ArrayList<String>();
+    
+    @Before
+    public void before() {
+        store = mock(ChecksStore.class);
+        config = mock(SeyrenConfig.class);
+        when(config.getRegistryFullReloadMinutes()).thenReturn(60);
+        when(store.getChecksModifiedSince(any(DateTime.class))).thenReturn(checks());
+    }
+    
+    @Test
+    public void firstRefreshLoadsEveryEnabledCheck() {
+        when(store.getChecks(true)).thenReturn(checks(check("a"), check("b")));
+        CheckRegistry registry = registry();
+        
+        registry.refresh();
+        
+        assertThat(registry.getCheck("a"), is(notNullValue()));
+        assertThat(registry.getChecks().size(), is(2));
+        assertThat(events, containsInAnyOrder("updated a", "updated b"));
+        verify(store, never()).getChecksModifiedSince(any(DateTime.class));
+    }
+    
+    @Test
+    public void laterRefreshesOnlyReadChecksModifiedSinceThePreviousOne() {
+        when(store.getChecks(true)).thenReturn(checks(check("a")));
+        CheckRegistry registry = registry();
+        long before = System.currentTimeMillis();
+        registry.refresh();
+        events.clear();
+        
+        when(store.getChecksModifiedSince(any(DateTime.class))).thenReturn(checks(check("a").withName("renamed"), check("c")));
+        registry.refresh();
+        
+        ArgumentCaptor<DateTime> since = ArgumentCaptor.forClass(DateTime.class);
+        verify(store).getChecksModifiedSince(since.capture());
+        // Overlaps the previous pass to allow for clock differences
+        assertThat(since.getValue().getMillis(), is(lessThanOrEqualTo(before)));
+        assertThat(since.getValue().getMillis(), is(greaterThanOrEqualTo(before - 60000)));
+        verify(store, times(1)).getChecks(true);
+        assertThat(registry.getCheck("a").getName(), is("renamed"));
+        assertThat(registry.getCheck("c"), is(notNullValue()));
+        assertThat(events, contains("updated a", "updated c"));
+    }
+    
+    @Test
+    public void checkDisabledElsewhereIsRemovedByTheNextDelta() {
+        when(store.getChecks(true)).thenReturn(checks(check("a")));
+        CheckRegistry registry = registry();
+        registry.refresh();
+        events.clear();
+        
+        when(store.getChecksModifiedSince(any(DateTime.class))).thenReturn(checks(check("a").withEnabled(false)));
+        registry.refresh();
+        
+        assertThat(registry.getCheck("a"), is(nullValue()));
+        assertThat(events, contains("removed a"));
+    }
+    
+    @Test
+    public void checkDeletedElsewhereIsRemovedByTheNextFullReload() {
+        when(config.getRegistryFullReloadMinutes()).thenReturn(0);
+        when(store.getChecks(true)).thenReturn(checks(check("a"), check("b")));
+        CheckRegistry registry = registry();
+        registry.refresh();
+        events.clear();
+        
+        when(store.getChecks(true)).thenReturn(checks(check("b")));
+        registry.refresh();
+        
+        assertThat(registry.getCheck("a"), is(nullValue()));
+        assertThat(events, containsInAnyOrder("removed a", "updated b"));
+        verify(store, never()).getChecksModifiedSince(any(DateTime.class));
+    }
+    
+    @Test
+    public void checkDeletedThroughTheApiIsRemovedStraightAway() {
+        when(store.getChecks(true)).thenReturn(checks(check("a")));
+        CheckRegistry registry = registry();
+        registry.refresh();
+        events.clear();
+        
+        registry.reload("a");
+        
+        assertThat(registry.getCheck("a"), is(nullValue()));
+        assertThat(events, contains("removed a"));
+    }
+    
+    @Test
+    public void checkDeletedDuringAFullReloadIsNotBroughtBack() throws Exception {
+        when(config.getRegistryFullReloadMinutes()).thenReturn(0);
+        when(store.getChecks(true)).thenReturn(checks(check("a")));
+        final CheckRegistry registry = registry();
+        registry.refresh();
+        events.clear();
+        
+        final Thread[] deleting = new Thread[1];
+        when(store.getChecks(true)).thenAnswer(new Answer<SeyrenResponse<Check>>() {
+            @Override
+            public SeyrenResponse<Check> answer(InvocationOnMock invocation) throws Exception {
+                // The check is deleted through the API after the full reload has read it
+                deleting[0] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        registry.reload("a");
+                    }
+                });
+                deleting[0].start();
+                deleting[0].join(200);
+                return checks(check("a"));
+            }
+        });
+        registry.refresh();
+        deleting[0].join(5000);
+        
+        assertThat(deleting[0].isAlive(), is(false));
+        assertThat(registry.getCheck("a"), is(nullValue()));
+        assertThat(events, contains("updated a", "removed a"));
+    }
+    
+    @Test
+    public void newListenerIsToldAboutTheChecksAlreadyRegistered() {
+        when(store.getChecks(true)).thenReturn(checks(check("a")));
+        CheckRegistry registry = new CheckRegistry(store, config);
+        registry.refresh();
+        
+        registry.addListener(new Recorder());
+        
+        assertThat(events, contains("updated a"));
+    }
+    
+    private CheckRegistry registry() {
+        CheckRegistry registry = new CheckRegistry(store, config);
+        registry.addListener(new Recorder());
+        return registry;
+    }
+    
+    private static SeyrenResponse<Check> checks(Check... checks) {
+        return new SeyrenResponse<Check>().withValues(checks.length == 0 ? Collections.<Check> emptyList() : Arrays.asList(checks));
+    }
+    
+    private static Check check(String id) {
+        return new Check().withId(id).withName(id).withEnabled(true);
+    }
+    
+    private class Recorder implements CheckRegistry.Listener {
+        
+        @Override
+        public void checkUpdated(Check check) {
+            events.add("updated " + check.getId());
+        }
+        
+        @Override
+        public void checkRemoved(String checkId) {
+            events.add("removed " + checkId);
+        }
+        
+    }
+    
+}
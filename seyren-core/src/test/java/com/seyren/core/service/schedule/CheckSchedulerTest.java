@@ -0,0 +1,385 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.service.checker.AsyncTargetChecker;
+import com.seyren.core.service.checker.BatchTargetChecker;
+import com.seyren.core.service.checker.DefaultValueChecker;
+import com.seyren.core.service.checker.GraphiteCircuitBreakers;
+import com.seyren.core.service.checker.ThresholdPushdown;
+import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.service.notification.StatusDigestService;
+import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.ChecksStore;
+import com.seyren.core.util.config.SeyrenConfig;
+
+public class CheckSchedulerTest {
+    
+    private static final String URL = "http://graphite";
+    private static final long NOW = 1400000000000L;
+    
+    private SeyrenConfig config;
+    private ChecksStore checksStore;
+    private AlertsStore alertsStore;
+    private NotificationService notificationService;
+    private AsyncTargetChecker targetChecker;
+    private CheckScheduler scheduler;
+    
+    @Before
+    public void before() {
+        config = mock(SeyrenConfig.class);
+        when(config.getNumThreads()).thenReturn(2);
+        when(config.getQueueCapacity()).thenReturn(100);
+        when(config.getSchedulerTickMillis()).thenReturn(10L);
+        when(config.getSchedulerWheelSize()).thenReturn(64);
+        when(config.getDefaultCheckInterval()).thenReturn(60);
+        when(config.getBatchSize()).thenReturn(1);
+        when(config.getEvaluateThreads()).thenReturn(1);
+        when(config.getPersistThreads()).thenReturn(1);
+        when(config.getNotifyThreads()).thenReturn(1);
+        when(config.getStageQueueCapacity()).thenReturn(10);
+        when(config.getShutdownTimeoutMillis()).thenReturn(5000L);
+        when(config.getRegistryFullReloadMinutes()).thenReturn(60);
+        // Opens on the first failure and lets a probe through at every run after that
+        when(config.getGraphiteBreakerFailures()).thenReturn(1);
+        when(config.getGraphiteBreakerOpenMillis()).thenReturn(0L);
+        
+        checksStore = mock(ChecksStore.class);
+        alertsStore = mock(AlertsStore.class);
+        notificationService = mock(NotificationService.class);
+        when(notificationService.canHandle(any(SubscriptionType.class))).thenReturn(true);
+        targetChecker = mock(AsyncTargetChecker.class);
+    }
+    
+    @After
+    public void after() throws Exception {
+        if (scheduler != null) {
+            scheduler.preDestroy();
+        }
+    }
+    
+    @Test
+    public void checksGoUnknownOnceWhileTheirInstanceIsDownAndRecoverWhenItAnswers() throws Exception {
+        Check check = check("cpu", "servers.web1.cpu").withInterval(1);
+        final GraphiteCircuitBreakers breakers = new GraphiteCircuitBreakers(config);
+        final AtomicInteger runs = new AtomicInteger();
+        when(targetChecker.check(any(Check.class))).thenAnswer(new Answer<Map<String, Optional<Double>>>() {
+            @Override
+            public Map<String, Optional<Double>> answer(InvocationOnMock invocation) {
+                if (!breakers.allowRequest(URL)) {
+                    return Collections.emptyMap();
+                }
+                // Down for the first run, which opens the breaker, and the probe after it
+                if (runs.incrementAndGet() <= 2) {
+                    breakers.recordFailure(URL);
+                    return Collections.emptyMap();
+                }
+                breakers.recordSuccess(URL);
+                return Collections.singletonMap("servers.web1.cpu", Optional.of(0.5));
+            }
+        });
+        
+        start(breakers, check);
+        
+        ArgumentCaptor<Alert> alerts = ArgumentCaptor.forClass(Alert.class);
+        verify(alertsStore, timeout(10000).times(2)).createAlert(eq("cpu"), alerts.capture());
+        verify(checksStore, timeout(10000)).updateCheckState("cpu", AlertType.OK);
+        assertThat(runs.get(), is(greaterThanOrEqualTo(3)));
+        
+        Alert unknown = alerts.getAllValues().get(0);
+        assertThat(unknown.getTarget(), is("servers.web1.cpu"));
+        assertThat(unknown.getFromType(), is(AlertType.OK));
+        assertThat(unknown.getToType(), is(AlertType.UNKNOWN));
+        Alert recovered = alerts.getAllValues().get(1);
+        assertThat(recovered.getFromType(), is(AlertType.UNKNOWN));
+        assertThat(recovered.getToType(), is(AlertType.OK));
+        
+        verify(checksStore).updateCheckState("cpu", AlertType.UNKNOWN);
+        verify(notificationService, timeout(10000).times(2)).sendNotification(eq(check), any(Subscription.class), anyListOf(Alert.class));
+    }
+    
+    @Test
+    public void checkIsDueAtTheSameOffsetOfEveryInterval() {
+        long first = CheckScheduler.nextDeadline("cpu", 60000, 1000, NOW);
+        assertThat(first, is(greaterThan(NOW)));
+        assertThat(first, is(lessThanOrEqualTo(NOW + 61000)));
+        
+        long second = CheckScheduler.nextDeadline("cpu", 60000, 1000, first);
+        assertThat(second - first, is(60000L));
+        assertThat(CheckScheduler.nextDeadline("cpu", 60000, 1000, NOW + 12345) % 60000, is(first % 60000));
+    }
+    
+    @Test
+    public void checkDispatchedJustAheadOfItsSlotIsNotDueAgainInTheSameTick() {
+        long deadline = CheckScheduler.nextDeadline("cpu", 60000, 1000, NOW);
+        // The tick holding the deadline starts up to a tick before it
+        long tickStart = deadline / 1000 * 1000;
+        assertThat(CheckScheduler.nextDeadline("cpu", 60000, 1000, tickStart), is(deadline + 60000));
+    }
+    
+    @Test
+    public void checksAreSpreadEvenlyAcrossTheInterval() {
+        DispatchSpread spread = new DispatchSpread(60);
+        for (int i = 0; i < 6000; i++) {
+            spread.record(CheckScheduler.nextDeadline("check-" + i, 60000, 1000, NOW));
+        }
+        assertThat(spread.getPeakToMeanRatio(NOW + 60999), is(lessThan(1.5)));
+    }
+    
+    @Test
+    public void shutdownLetsFetchedWorkBeEvaluatedAndStored() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        when(targetChecker.check(any(Check.class))).thenAnswer(new Answer<Map<String, Optional<Double>>>() {
+            @Override
+            public Map<String, Optional<Double>> answer(InvocationOnMock invocation) throws InterruptedException {
+                fetching.countDown();
+                answer.await();
+                return Collections.singletonMap("servers.web1.cpu", Optional.of(1.5));
+            }
+        });
+        start(new GraphiteCircuitBreakers(config), check("cpu", "servers.web1.cpu"));
+        assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+        
+        Thread shutdown = shutDownInTheBackground();
+        answer.countDown();
+        shutdown.join(10000);
+        
+        assertThat(shutdown.isAlive(), is(false));
+        verify(checksStore).updateCheckState("cpu", AlertType.WARN);
+        verify(alertsStore).createAlert(eq("cpu"), any(Alert.class));
+    }
+    
+    @Test
+    public void shutdownGivesUpOnWorkWhichOutlastsTheTimeout() throws Exception {
+        when(config.getShutdownTimeoutMillis()).thenReturn(200L);
+        final CountDownLatch fetching = new CountDownLatch(1);
+        when(targetChecker.check(any(Check.class))).thenAnswer(new Answer<Map<String, Optional<Double>>>() {
+            @Override
+            public Map<String, Optional<Double>> answer(InvocationOnMock invocation) throws InterruptedException {
+                fetching.countDown();
+                // Never answers until interrupted
+                new CountDownLatch(1).await();
+                return null;
+            }
+        });
+        start(new GraphiteCircuitBreakers(config), check("cpu", "servers.web1.cpu"));
+        assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+        
+        long started = System.currentTimeMillis();
+        scheduler.preDestroy();
+        scheduler = null;
+        
+        assertThat(System.currentTimeMillis() - started, is(lessThan(2000L)));
+        verify(checksStore, never()).updateCheckState(anyString(), any(AlertType.class));
+    }
+    
+    @Test
+    public void nothingIsDispatchedOnceShutdownHasStarted() throws Exception {
+        start(new GraphiteCircuitBreakers(config));
+        scheduler.preDestroy();
+        scheduler = null;
+        
+        Thread.sleep(50);
+        verify(targetChecker, never()).check(any(Check.class));
+    }
+    
+    @Test
+    public void pushedCheckGoesUnknownOnceItsPointsStopAndIsThenFetched() throws Exception {
+        Check check = check("cpu", "servers.web1.cpu").withInterval(1).withFrom("-2s");
+        when(targetChecker.check(any(Check.class))).thenReturn(Collections.<String, Optional<Double>> emptyMap());
+        CheckRegistry registry = registry(check);
+        PushedValues pushedValues = new PushedValues(registry, true, "", "-11minutes");
+        pushedValues.start();
+        final CountDownLatch unknown = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                unknown.countDown();
+                return null;
+            }
+        }).when(checksStore).updateCheckState("cpu", AlertType.UNKNOWN);
+        start(registry, pushedValues, new GraphiteCircuitBreakers(config));
+        
+        pushedValues.record("servers.web1.cpu", 0.5, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        verify(checksStore, timeout(10000)).updateCheckState("cpu", AlertType.OK);
+        
+        // No more points arrive
+        assertThat(unknown.await(10, TimeUnit.SECONDS), is(true));
+        verify(targetChecker, timeout(10000)).check(check);
+    }
+    
+    @Test
+    public void permitsModeKeepsThousandsOfChecksInFlightOnASingleThread() throws Exception {
+        when(config.getNumThreads()).thenReturn(1);
+        when(config.getQueueCapacity()).thenReturn(10000);
+        when(config.getExecutionMode()).thenReturn("permits");
+        when(config.getBackendPermits()).thenReturn(5000);
+        final List<SettableFuture<Map<String, Optional<Double>>>> fetches = new CopyOnWriteArrayList<SettableFuture<Map<String, Optional<Double>>>>();
+        when(targetChecker.checkAsync(any(Check.class))).thenAnswer(new Answer<ListenableFuture<Map<String, Optional<Double>>>>() {
+            @Override
+            public ListenableFuture<Map<String, Optional<Double>>> answer(InvocationOnMock invocation) {
+                SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+                fetches.add(fetch);
+                return fetch;
+            }
+        });
+        Check[] checks = new Check[2000];
+        for (int i = 0; i < checks.length; i++) {
+            checks[i] = check("check" + i, "servers.web" + i + ".cpu");
+        }
+        start(new GraphiteCircuitBreakers(config), checks);
+        
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (fetches.size() < checks.length && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        // None has been answered, so every one of them is waiting on Graphite at once
+        assertThat(fetches.size(), is(checks.length));
+        verify(targetChecker, never()).check(any(Check.class));
+        
+        for (SettableFuture<Map<String, Optional<Double>>> fetch : fetches) {
+            fetch.set(Collections.singletonMap("servers.web.cpu", Optional.of(0.5)));
+        }
+        verify(checksStore, timeout(10000).times(checks.length)).updateCheckState(anyString(), eq(AlertType.OK));
+    }
+    
+    @Test
+    public void permitsModeSendsAParkedCheckOnceAnotherIsAnswered() throws Exception {
+        when(config.getExecutionMode()).thenReturn("permits");
+        when(config.getBackendPermits()).thenReturn(1);
+        final List<SettableFuture<Map<String, Optional<Double>>>> fetches = new CopyOnWriteArrayList<SettableFuture<Map<String, Optional<Double>>>>();
+        when(targetChecker.checkAsync(any(Check.class))).thenAnswer(new Answer<ListenableFuture<Map<String, Optional<Double>>>>() {
+            @Override
+            public ListenableFuture<Map<String, Optional<Double>>> answer(InvocationOnMock invocation) {
+                SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+                fetches.add(fetch);
+                return fetch;
+            }
+        });
+        start(new GraphiteCircuitBreakers(config), check("cpu", "servers.web1.cpu"), check("memory", "servers.web1.memory"));
+        
+        verify(targetChecker, timeout(10000)).checkAsync(any(Check.class));
+        Thread.sleep(100);
+        assertThat(fetches.size(), is(1));
+        
+        fetches.get(0).setException(new IOException("Graphite is down"));
+        verify(targetChecker, timeout(10000).times(2)).checkAsync(any(Check.class));
+    }
+    
+    @Test
+    public void shutdownWaitsForFetchesSentWithoutWaiting() throws Exception {
+        when(config.getExecutionMode()).thenReturn("permits");
+        when(config.getBackendPermits()).thenReturn(10);
+        SettableFuture<Map<String, Optional<Double>>> fetch = SettableFuture.create();
+        when(targetChecker.checkAsync(any(Check.class))).thenReturn(fetch);
+        start(new GraphiteCircuitBreakers(config), check("cpu", "servers.web1.cpu"));
+        verify(targetChecker, timeout(10000)).checkAsync(any(Check.class));
+        
+        Thread shutdown = shutDownInTheBackground();
+        Thread.sleep(100);
+        assertThat(shutdown.isAlive(), is(true));
+        fetch.set(Collections.singletonMap("servers.web1.cpu", Optional.of(1.5)));
+        shutdown.join(10000);
+        
+        assertThat(shutdown.isAlive(), is(false));
+        verify(checksStore).updateCheckState("cpu", AlertType.WARN);
+    }
+    
+    private Thread shutDownInTheBackground() {
+        final CheckScheduler stopping = scheduler;
+        scheduler = null;
+        Thread shutdown = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stopping.preDestroy();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        shutdown.start();
+        return shutdown;
+    }
+    
+    private void start(GraphiteCircuitBreakers breakers, Check... checks) {
+        start(registry(checks), mock(PushedValues.class), breakers);
+    }
+    
+    private void start(CheckRegistry registry, PushedValues pushedValues, GraphiteCircuitBreakers breakers) {
+        List<NotificationService> notificationServices = Collections.singletonList(notificationService);
+        scheduler = new CheckScheduler(checksStore, registry, alertsStore, notificationServices, targetChecker, mock(BatchTargetChecker.class),
+                new DefaultValueChecker(), mock(ThresholdPushdown.class), pushedValues, breakers, mock(StatusDigestService.class), config);
+        scheduler.start();
+    }
+    
+    private CheckRegistry registry(Check... checks) {
+        when(checksStore.getChecks(true)).thenReturn(new SeyrenResponse<Check>().withValues(Arrays.asList(checks)));
+        CheckRegistry registry = new CheckRegistry(checksStore, config);
+        registry.refresh();
+        return registry;
+    }
+    
+    private static Check check(String id, String target) {
+        Subscription subscription = mock(Subscription.class);
+        when(subscription.getType()).thenReturn(SubscriptionType.EMAIL);
+        when(subscription.shouldNotify(any(DateTime.class))).thenReturn(true);
+        return new Check().withId(id).withName(id).withGraphiteBaseUrl(URL).withTarget(target).withEnabled(true).withState(AlertType.OK)
+                .withWarn(new BigDecimal("1")).withError(new BigDecimal("2")).withSubscriptions(Arrays.asList(subscription));
+    }
+    
+}
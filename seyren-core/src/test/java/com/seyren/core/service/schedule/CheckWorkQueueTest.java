@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckWorkQueueTest {
+    
+    private List<Runnable> shed;
+    private CheckWorkQueue queue;
+    
+    @Before
+    public void before() {
+        shed = new ArrayList<Runnable>();
+        queue = new CheckWorkQueue(3, 2, new CheckWorkQueue.Shedder() {
+            @Override
+            public void shed(Runnable runnable) {
+                shed.add(runnable);
+            }
+        });
+    }
+    
+    @Test
+    public void mostUrgentWorkIsTakenFirst() {
+        Runnable low = task(2);
+        Runnable high = task(0);
+        queue.offer(low);
+        queue.offer(high);
+        assertThat(queue.poll(), is(high));
+        assertThat(queue.poll(), is(low));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+    
+    @Test
+    public void workOfTheSameRankIsFirstInFirstOut() {
+        Runnable first = task(1);
+        Runnable second = task(1);
+        queue.offer(first);
+        queue.offer(second);
+        assertThat(queue.poll(), is(first));
+        assertThat(queue.poll(), is(second));
+    }
+    
+    @Test
+    public void urgentWorkEvictsLessUrgentWorkWhenFull() {
+        Runnable low = task(2);
+        Runnable normal = task(1);
+        Runnable high = task(0);
+        queue.offer(low);
+        queue.offer(normal);
+        assertThat(queue.offer(high), is(true));
+        assertThat(shed, contains(low));
+        assertThat(queue.size(), is(2));
+        assertThat(queue.getShedCount(), is(1L));
+    }
+    
+    @Test
+    public void workIsRefusedWhenNothingLessUrgentIsQueued() {
+        queue.offer(task(0));
+        queue.offer(task(1));
+        assertThat(queue.offer(task(1)), is(false));
+        assertThat(shed, is(empty()));
+        assertThat(queue.getShedCount(), is(1L));
+    }
+    
+    @Test
+    public void unrankedWorkIsLeastUrgent() {
+        Runnable unranked = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Runnable ranked = task(1);
+        queue.offer(unranked);
+        queue.offer(ranked);
+        assertThat(queue.poll(), is(ranked));
+    }
+    
+    private Runnable task(int rank) {
+        return new RankedTask(rank);
+    }
+    
+    private static class RankedTask implements Runnable, CheckWorkQueue.Ranked {
+        
+        private final int rank;
+        
+        RankedTask(int rank) {
+            this.rank = rank;
+        }
+        
+        @Override
+        public int getRank() {
+            return rank;
+        }
+        
+        @Override
+        public void run() {
+        }
+        
+    }
+    
+}
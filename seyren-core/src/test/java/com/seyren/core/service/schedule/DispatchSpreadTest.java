@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DispatchSpreadTest {
+
+    private static final long NOW = 1400000000000L;
+
+    private DispatchSpread spread;
+
+    @Before
+    public void before() {
+        spread = new DispatchSpread(60);
+    }
+
+    @Test
+    public void evenDispatchHasAPeakToMeanOfOne() {
+        for (int second = 0; second < 60; second++) {
+            spread.record(NOW - second * 1000);
+            spread.record(NOW - second * 1000);
+        }
+        assertThat(spread.getPeakPerSecond(NOW), is(2L));
+        assertThat(spread.getMeanPerSecond(NOW), is(2.0));
+        assertThat(spread.getPeakToMeanRatio(NOW), is(1.0));
+    }
+
+    @Test
+    public void herdInOneSecondHasAPeakToMeanOfTheWindow() {
+        for (int i = 0; i < 120; i++) {
+            spread.record(NOW);
+        }
+        assertThat(spread.getPeakPerSecond(NOW), is(120L));
+        assertThat(spread.getPeakToMeanRatio(NOW), is(60.0));
+    }
+
+    @Test
+    public void dispatchesOlderThanTheWindowAreForgotten() {
+        spread.record(NOW);
+        assertThat(spread.getPeakPerSecond(NOW + 59000), is(1L));
+        assertThat(spread.getPeakPerSecond(NOW + 60000), is(0L));
+        assertThat(spread.getPeakToMeanRatio(NOW + 60000), is(0.0));
+    }
+
+    @Test
+    public void slotIsReusedOnceItsSecondHasPassed() {
+        spread.record(NOW);
+        spread.record(NOW);
+        spread.record(NOW + 60000);
+        assertThat(spread.getPeakPerSecond(NOW + 60000), is(1L));
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class InFlightChecksTest {
+
+    @Test
+    public void checkInFlightIsNotStartedAgain() {
+        InFlightChecks checks = new InFlightChecks(false);
+        assertThat(checks.tryStart("a", 0), is(true));
+        assertThat(checks.tryStart("a", 1000), is(false));
+        assertThat(checks.tryStart("b", 1000), is(true));
+        assertThat(checks.getRunning(), containsInAnyOrder("a", "b"));
+    }
+
+    @Test
+    public void overlappingDispatchIsCountedAsAnOverrun() {
+        InFlightChecks checks = new InFlightChecks(false);
+        checks.tryStart("a", 0);
+        checks.tryStart("a", 1000);
+        checks.tryStart("a", 2000);
+        assertThat(checks.getOverruns().get("a"), is(2L));
+        assertThat(checks.getTotalOverruns(), is(2L));
+        
+        checks.forget("a");
+        assertThat(checks.getOverruns().containsKey("a"), is(false));
+    }
+
+    @Test
+    public void skippedOverrunIsNotRunOnceTheCheckFinishes() {
+        InFlightChecks checks = new InFlightChecks(false);
+        checks.tryStart("a", 0);
+        checks.tryStart("a", 1000);
+        assertThat(checks.finish("a", 2000), is(false));
+        assertThat(checks.isRunning("a"), is(false));
+        assertThat(checks.tryStart("a", 3000), is(true));
+    }
+
+    @Test
+    public void overrunsAreCoalescedIntoOneMoreRun() {
+        InFlightChecks checks = new InFlightChecks(true);
+        checks.tryStart("a", 0);
+        checks.tryStart("a", 1000);
+        checks.tryStart("a", 2000);
+        
+        // The extra run keeps the check in flight
+        assertThat(checks.finish("a", 3000), is(true));
+        assertThat(checks.isRunning("a"), is(true));
+        assertThat(checks.finish("a", 4000), is(false));
+        assertThat(checks.isRunning("a"), is(false));
+    }
+
+    @Test
+    public void checkWithoutOverrunsIsNotRunAgainWhenCoalescing() {
+        InFlightChecks checks = new InFlightChecks(true);
+        checks.tryStart("a", 0);
+        assertThat(checks.finish("a", 1000), is(false));
+        assertThat(checks.size(), is(0));
+    }
+
+    @Test
+    public void abandonedCheckDropsItsCoalescedRun() {
+        InFlightChecks checks = new InFlightChecks(true);
+        checks.tryStart("a", 0);
+        checks.tryStart("a", 1000);
+        checks.abandon("a");
+        assertThat(checks.isRunning("a"), is(false));
+        assertThat(checks.tryStart("a", 2000), is(true));
+        assertThat(checks.finish("a", 3000), is(false));
+    }
+
+}
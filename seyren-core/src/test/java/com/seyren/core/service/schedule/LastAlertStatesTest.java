@@ -0,0 +1,117 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.store.AlertsStore;
+
+public class LastAlertStatesTest {
+    
+    private static final String URL = "http://graphite";
+    
+    private AlertsStore store;
+    private LastAlertStates states;
+    private Check check;
+    
+    @Before
+    public void before() {
+        store = mock(AlertsStore.class);
+        states = new LastAlertStates(store);
+        check = new Check().withId("id").withGraphiteBaseUrl(URL);
+    }
+    
+    @Test
+    public void targetsAreLoadedOnceAndNeverAlertedTargetsAreOk() {
+        when(store.getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a", "b"))).thenReturn(Collections.singletonMap("a", AlertType.WARN));
+        
+        Map<String, AlertType> first = states.of(check, ImmutableSet.of("a", "b"));
+        assertThat(first.get("a"), is(AlertType.WARN));
+        assertThat(first.get("b"), is(AlertType.OK));
+        
+        states.of(check, ImmutableSet.of("a", "b"));
+        verify(store).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a", "b"));
+        verifyNoMoreInteractions(store);
+    }
+    
+    @Test
+    public void onlyNewTargetsAreLoaded() {
+        when(store.getLastAlertStatesOfCheck(URL, "id", Arrays.asList("c"))).thenReturn(Collections.singletonMap("c", AlertType.ERROR));
+        states.of(check, ImmutableSet.of("a"));
+        
+        Map<String, AlertType> states = this.states.of(check, ImmutableSet.of("a", "c"));
+        
+        assertThat(states.get("c"), is(AlertType.ERROR));
+        verify(store).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("c"));
+    }
+    
+    @Test
+    public void storedAlertsAreTakenWithoutReadingThemBack() {
+        states.of(check, ImmutableSet.of("a"));
+        states.record(check, alert(URL, "a", AlertType.ERROR));
+        
+        assertThat(states.of(check, ImmutableSet.of("a")).get("a"), is(AlertType.ERROR));
+        verify(store).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a"));
+        verifyNoMoreInteractions(store);
+    }
+    
+    @Test
+    public void targetsWhichGoAwayAreLoadedAgainWhenTheyComeBack() {
+        states.of(check, ImmutableSet.of("a", "b"));
+        states.of(check, ImmutableSet.of("b"));
+        states.of(check, ImmutableSet.of("a", "b"));
+        verify(store).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a", "b"));
+        verify(store).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a"));
+    }
+    
+    @Test
+    public void movingToAnotherInstanceStartsAgain() {
+        states.of(check, ImmutableSet.of("a"));
+        states.record(check, alert(URL, "a", AlertType.ERROR));
+        
+        Check moved = new Check().withId("id").withGraphiteBaseUrl("http://other");
+        assertThat(states.of(moved, ImmutableSet.of("a")).get("a"), is(AlertType.OK));
+        verify(store).getLastAlertStatesOfCheck("http://other", "id", Arrays.asList("a"));
+    }
+    
+    @Test
+    public void forgottenCheckIsLoadedAgain() {
+        states.of(check, ImmutableSet.of("a"));
+        states.forget("id");
+        states.of(check, ImmutableSet.of("a"));
+        verify(store, times(2)).getLastAlertStatesOfCheck(URL, "id", Arrays.asList("a"));
+    }
+    
+    private static Alert alert(String graphiteBaseUrl, String target, AlertType to) {
+        return new Alert().withGraphiteBaseUrl(graphiteBaseUrl).withTarget(target).withFromType(AlertType.OK).withToType(to);
+    }
+    
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+
+public class PipelineStageTest {
+    
+    private final List<String> ranOn = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PipelineStage stage;
+    
+    @After
+    public void after() throws Exception {
+        release.countDown();
+        stage.shutdownNow();
+    }
+    
+    @Test
+    public void tasksAreHandedOffToTheStageThreads() throws Exception {
+        stage = new PipelineStage("handoff", 1, 1);
+        stage.submit(new Recorder("a"));
+        stage.shutdown();
+        assertThat(stage.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(ranOn, contains("a on seyren.handoff-0"));
+    }
+    
+    @Test
+    public void submitterRunsTheTaskItselfWhenTheQueueIsFull() throws Exception {
+        stage = new PipelineStage("overflow", 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        stage.submit(new Blocker(started));
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        stage.submit(new Recorder("queued"));
+        assertThat(stage.getQueueDepth(), is(1));
+        
+        stage.submit(new Recorder("overflowed"));
+        
+        assertThat(ranOn, contains("overflowed on " + Thread.currentThread().getName()));
+        assertThat(Metrics.newCounter(new MetricName(PipelineStage.class, "overflows", "overflow")).count(), is(1L));
+        
+        release.countDown();
+        stage.shutdown();
+        assertThat(stage.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(ranOn, contains("overflowed on " + Thread.currentThread().getName(), "queued on seyren.overflow-0"));
+    }
+    
+    @Test
+    public void queuedTasksWhichNeverStartedAreHandedBack() throws Exception {
+        stage = new PipelineStage("abandon", 1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        stage.submit(new Blocker(started));
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        Recorder queued = new Recorder("queued");
+        stage.submit(queued);
+        
+        List<Runnable> abandoned = stage.shutdownNow();
+        
+        assertThat(abandoned, contains((Runnable) queued));
+        assertThat(ranOn, is(empty()));
+    }
+    
+    private class Recorder implements Runnable {
+        
+        private final String name;
+        
+        Recorder(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void run() {
+            ranOn.add(name + " on " + Thread.currentThread().getName());
+        }
+        
+    }
+    
+    private class Blocker implements Runnable {
+        
+        private final CountDownLatch started;
+        
+        Blocker(CountDownLatch started) {
+            this.started = started;
+        }
+        
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.base.Optional;
+import com.seyren.core.domain.Check;
+
+public class PushedValuesTest {
+
+    private static final long NOW = 1400000000000L;
+
+    private PushedValues pushedValues;
+    private CheckRegistry.Listener listener;
+
+    @Before
+    public void before() {
+        CheckRegistry registry = mock(CheckRegistry.class);
+        pushedValues = new PushedValues(registry, true, "", "-11minutes");
+        pushedValues.start();
+        ArgumentCaptor<CheckRegistry.Listener> captor = ArgumentCaptor.forClass(CheckRegistry.Listener.class);
+        verify(registry).addListener(captor.capture());
+        listener = captor.getValue();
+        listener.checkUpdated(check("exact", "servers.web1.cpu"));
+        listener.checkUpdated(check("wildcard", "servers.*.cpu"));
+    }
+
+    @Test
+    public void pointsGoToEveryMatchingCheck() {
+        pushedValues.record("servers.web1.cpu", 1.5, seconds(NOW));
+        pushedValues.record("servers.web2.cpu", 2.5, seconds(NOW));
+        pushedValues.record("servers.web1.memory", 3.5, seconds(NOW));
+
+        Map<String, Map<String, Optional<Double>>> updated = pushedValues.takeUpdated(NOW);
+        assertThat(updated.keySet(), containsInAnyOrder("exact", "wildcard"));
+        assertThat(updated.get("exact").size(), is(1));
+        assertThat(updated.get("wildcard").get("servers.web1.cpu"), is(Optional.of(1.5)));
+        assertThat(updated.get("wildcard").get("servers.web2.cpu"), is(Optional.of(2.5)));
+    }
+
+    @Test
+    public void checkIsOnlyTakenAgainOnceItReceivesMore() {
+        pushedValues.record("servers.web1.cpu", 1.5, seconds(NOW));
+        pushedValues.takeUpdated(NOW);
+        assertThat(pushedValues.takeUpdated(NOW).isEmpty(), is(true));
+
+        pushedValues.record("servers.web2.cpu", 2.5, seconds(NOW));
+        Map<String, Map<String, Optional<Double>>> updated = pushedValues.takeUpdated(NOW);
+        assertThat(updated.keySet(), contains("wildcard"));
+        // Every series of the check is evaluated, not just the new one
+        assertThat(updated.get("wildcard").keySet(), containsInAnyOrder("servers.web1.cpu", "servers.web2.cpu"));
+    }
+
+    @Test
+    public void olderPointDoesNotReplaceNewerOne() {
+        pushedValues.record("servers.web1.cpu", 2d, seconds(NOW));
+        pushedValues.record("servers.web1.cpu", 1d, seconds(NOW) - 60);
+        assertThat(pushedValues.takeUpdated(NOW).get("exact").get("servers.web1.cpu"), is(Optional.of(2d)));
+    }
+
+    @Test
+    public void seriesOutsideTheWindowHasNoValueOnceAndIsForgotten() {
+        pushedValues.record("servers.web1.cpu", 1d, seconds(NOW) - 3600);
+        pushedValues.record("servers.web2.cpu", 2d, seconds(NOW));
+        Map<String, Optional<Double>> values = pushedValues.takeUpdated(NOW).get("wildcard");
+        assertThat(values.get("servers.web1.cpu"), is(Optional.<Double>absent()));
+
+        pushedValues.record("servers.web2.cpu", 3d, seconds(NOW));
+        assertThat(pushedValues.takeUpdated(NOW).get("wildcard").keySet(), contains("servers.web2.cpu"));
+    }
+
+    @Test
+    public void dueCheckHasItsStaleSeriesExpiredWithoutReceivingAnything() {
+        pushedValues.record("servers.web1.cpu", 1d, seconds(NOW));
+        pushedValues.takeUpdated(NOW);
+
+        long later = NOW + TimeUnit.MINUTES.toMillis(12);
+        assertThat(pushedValues.takeUpdated(later).isEmpty(), is(true));
+        assertThat(pushedValues.takeDue("exact", later).get("servers.web1.cpu"), is(Optional.<Double>absent()));
+        // Nothing left, so it is fetched from Graphite instead
+        assertThat(pushedValues.takeDue("exact", later), is(nullValue()));
+    }
+
+    @Test
+    public void dueCheckKeepsItsLatestValuesAndIsNotTakenAgainAsUpdated() {
+        pushedValues.record("servers.web1.cpu", 1.5, seconds(NOW));
+        assertThat(pushedValues.takeDue("exact", NOW).get("servers.web1.cpu"), is(Optional.of(1.5)));
+        assertThat(pushedValues.takeDue("exact", NOW).get("servers.web1.cpu"), is(Optional.of(1.5)));
+        assertThat(pushedValues.takeUpdated(NOW).keySet(), contains("wildcard"));
+    }
+
+    @Test
+    public void checkWhichNeverReceivedAnythingIsNotDue() {
+        assertThat(pushedValues.takeDue("exact", NOW), is(nullValue()));
+    }
+
+    @Test
+    public void changedTargetStartsAfresh() {
+        pushedValues.record("servers.web1.cpu", 1d, seconds(NOW));
+        listener.checkUpdated(check("exact", "servers.web2.cpu"));
+        pushedValues.record("servers.web2.cpu", 2d, seconds(NOW));
+        assertThat(pushedValues.takeUpdated(NOW).get("exact").keySet(), contains("servers.web2.cpu"));
+    }
+
+    @Test
+    public void removedCheckReceivesNothing() {
+        listener.checkRemoved("exact");
+        pushedValues.record("servers.web1.cpu", 1d, seconds(NOW));
+        assertThat(pushedValues.takeUpdated(NOW).keySet(), contains("wildcard"));
+    }
+
+    @Test
+    public void functionsAreNotPushed() {
+        assertThat(pushedValues.isPushed(check("function", "sumSeries(servers.*.cpu)")), is(false));
+        assertThat(pushedValues.isPushed(check("exact", "servers.web1.cpu")), is(true));
+    }
+
+    private static long seconds(long millis) {
+        return millis / 1000;
+    }
+
+    private static Check check(String id, String target) {
+        return new Check().withId(id).withName(id).withGraphiteBaseUrl("http://graphite").withTarget(target).withEnabled(true);
+    }
+
+}
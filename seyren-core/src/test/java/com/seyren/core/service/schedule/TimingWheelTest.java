@@ -0,0 +1,93 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.schedule;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private TimingWheel<String> wheel;
+
+    @Before
+    public void before() {
+        wheel = new TimingWheel<String>(1000, 8, 0);
+    }
+
+    @Test
+    public void itemIsNotDueBeforeItsDeadline() {
+        wheel.schedule("a", "a", 5000);
+        assertThat(wheel.advance(4999), is(empty()));
+        assertThat(wheel.contains("a"), is(true));
+    }
+
+    @Test
+    public void itemIsDueOnItsDeadline() {
+        wheel.schedule("a", "a", 5000);
+        assertThat(wheel.advance(5000), contains("a"));
+        assertThat(wheel.contains("a"), is(false));
+    }
+
+    @Test
+    public void itemFurtherAwayThanOneRevolutionWaitsForItsTick() {
+        wheel.schedule("a", "a", 20000);
+        assertThat(wheel.advance(12000), is(empty()));
+        assertThat(wheel.advance(19000), is(empty()));
+        assertThat(wheel.advance(20000), contains("a"));
+    }
+
+    @Test
+    public void deadlineInThePastIsDueOnNextTick() {
+        wheel.advance(10000);
+        wheel.schedule("a", "a", 0);
+        assertThat(wheel.advance(10999), is(empty()));
+        assertThat(wheel.advance(11000), contains("a"));
+    }
+
+    @Test
+    public void longPauseExpiresEverythingThatBecameDue() {
+        wheel.schedule("a", "a", 3000);
+        wheel.schedule("b", "b", 40000);
+        wheel.schedule("c", "c", 200000);
+        assertThat(wheel.advance(100000), containsInAnyOrder("a", "b"));
+        assertThat(wheel.size(), is(1));
+    }
+
+    @Test
+    public void reschedulingReplacesTheEarlierDeadline() {
+        wheel.schedule("a", "a", 2000);
+        wheel.schedule("a", "a", 6000);
+        assertThat(wheel.advance(5000), is(empty()));
+        assertThat(wheel.advance(6000), contains("a"));
+    }
+
+    @Test
+    public void cancelledItemIsNeverDue() {
+        wheel.schedule("a", "a", 2000);
+        assertThat(wheel.cancel("a"), is(true));
+        assertThat(wheel.advance(10000), is(empty()));
+    }
+
+    @Test
+    public void updateSwapsItemButKeepsDeadline() {
+        wheel.schedule("a", "old", 2000);
+        assertThat(wheel.update("a", "new"), is(true));
+        assertThat(wheel.update("b", "new"), is(false));
+        assertThat(wheel.advance(2000), contains("new"));
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.carbon;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PickleDecoderTest {
+
+    @Test
+    public void protocolTwoAsSentByCarbonIsDecoded() throws IOException {
+        // pickle.dumps([('a.b', (1400000000, 1.5))], protocol=2)
+        byte[] pickle = new byte[] { (byte) 0x80, (byte) 0x02, (byte) 0x5d, (byte) 0x71, (byte) 0x00, (byte) 0x58, (byte) 0x03, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x61, (byte) 0x2e, (byte) 0x62, (byte) 0x71, (byte) 0x01, (byte) 0x4a, (byte) 0x00, (byte) 0x4e,
+                (byte) 0x72, (byte) 0x53, (byte) 0x47, (byte) 0x3f, (byte) 0xf8, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x86, (byte) 0x71, (byte) 0x02, (byte) 0x86, (byte) 0x71, (byte) 0x03, (byte) 0x61, (byte) 0x2e };
+        assertDatapoint(PickleDecoder.decode(pickle));
+    }
+
+    @Test
+    public void protocolZeroIsDecoded() throws IOException {
+        assertDatapoint(PickleDecoder.decode("(lp0\n(Va.b\np1\n(I1400000000\nF1.5\ntp2\ntp3\na.".getBytes("ISO-8859-1")));
+    }
+
+    @Test(expected = IOException.class)
+    public void globalsAreRefused() throws IOException {
+        PickleDecoder.decode("cos\nsystem\n(S'true'\ntR.".getBytes("ISO-8859-1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedPickleIsRefused() throws IOException {
+        PickleDecoder.decode("(lp0\n(Va.b\n".getBytes("ISO-8859-1"));
+    }
+
+    private static void assertDatapoint(Object decoded) {
+        List<Object> datapoints = PickleDecoder.asList(decoded);
+        assertThat(datapoints.size(), is(1));
+        List<Object> datapoint = PickleDecoder.asList(datapoints.get(0));
+        assertThat(datapoint.get(0), is((Object) "a.b"));
+        List<Object> point = PickleDecoder.asList(datapoint.get(1));
+        assertThat(point.get(0), is((Object) 1400000000L));
+        assertThat(point.get(1), is((Object) 1.5));
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures lookups in a {@link GraphitePathIndex} holding as many check
+ * targets as a large installation has. Not run as part of the build:
+ *
+ * <pre>
+ * java -cp ... com.seyren.core.util.graphite.GraphitePathIndexBenchmark [targets] [seconds] [threads]
+ * </pre>
+ *
+ * The targets are a mix of exact paths, wildcards and alternatives over
+ * services, hosts and metrics, and the metrics looked up are a mix of ones
+ * which match and ones which don't, like a carbon stream. Lookups don't
+ * lock, so they are measured on one thread and then on several.
+ */
+public final class GraphitePathIndexBenchmark {
+
+    private static final String[] METRICS = { "cpu", "memory", "disk", "load", "requests", "errors", "latency.p99", "latency.p50" };
+
+    private GraphitePathIndexBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int targets = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Random random = new Random(42);
+
+        GraphitePathIndex<Integer> index = new GraphitePathIndex<Integer>();
+        long built = System.nanoTime();
+        for (int i = 0; i < targets; i++) {
+            index.add(target(random, i), i);
+        }
+        System.out.printf("Indexed %d targets in %d ms%n", targets, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - built));
+
+        String[] metrics = new String[100000];
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i] = metric(random);
+        }
+
+        // Warm up, then measure
+        run(index, metrics, TimeUnit.SECONDS.toNanos(2));
+        long[] result = run(index, metrics, TimeUnit.SECONDS.toNanos(seconds));
+        System.out.printf("1 thread: %,d lookups/s, %.1f%% of metrics matched, %,d matches%n", result[0] / seconds, 100.0 * result[1] / result[0], result[2]);
+
+        long lookups = runConcurrently(index, metrics, threads, TimeUnit.SECONDS.toNanos(seconds));
+        System.out.printf("%d threads: %,d lookups/s%n", threads, lookups / seconds);
+    }
+
+    private static long runConcurrently(final GraphitePathIndex<Integer> index, final String[] metrics, int threads, final long nanos) throws InterruptedException {
+        final AtomicLong lookups = new AtomicLong();
+        List<Thread> running = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    lookups.addAndGet(GraphitePathIndexBenchmark.run(index, metrics, nanos)[0]);
+                }
+            });
+            thread.start();
+            running.add(thread);
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        return lookups.get();
+    }
+
+    /**
+     * @return lookups, lookups which matched and matches
+     */
+    private static long[] run(GraphitePathIndex<Integer> index, String[] metrics, long nanos) {
+        long lookups = 0;
+        long matching = 0;
+        long matches = 0;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                int size = index.match(metrics[(int) (lookups % metrics.length)]).size();
+                lookups++;
+                if (size > 0) {
+                    matching++;
+                    matches += size;
+                }
+            }
+        }
+        return new long[] { lookups, matching, matches };
+    }
+
+    private static String target(Random random, int i) {
+        String service = "service" + (i % 500);
+        String metric = METRICS[random.nextInt(METRICS.length)];
+        switch (random.nextInt(4)) {
+        case 0:
+            return "prod." + service + ".*." + metric;
+        case 1:
+            return "prod." + service + ".host" + random.nextInt(1000) + "." + metric;
+        case 2:
+            return "{prod,staging}." + service + ".host" + random.nextInt(10) + "?." + metric;
+        default:
+            return "prod." + service + ".host[0-4]*." + METRICS[random.nextInt(METRICS.length)];
+        }
+    }
+
+    private static String metric(Random random) {
+        String environment = random.nextInt(4) == 0 ? "staging" : "prod";
+        return environment + ".service" + random.nextInt(1000) + ".host" + random.nextInt(1000) + "." + METRICS[random.nextInt(METRICS.length)];
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphitePathIndexTest {
+
+    private GraphitePathIndex<String> index;
+
+    @Before
+    public void before() {
+        index = new GraphitePathIndex<String>();
+        index.add("servers.web1.cpu", "exact");
+        index.add("servers.*.cpu", "star");
+        index.add("servers.web?.cpu", "question");
+        index.add("{servers,hosts}.db[0-9].cpu", "alternatives");
+        index.add("servers.{web1.cpu,db1.memory}", "dotted");
+    }
+
+    @Test
+    public void everyMatchingPatternIsFound() {
+        assertThat(index.match("servers.web1.cpu"), containsInAnyOrder("exact", "star", "question", "dotted"));
+        assertThat(index.match("servers.web22.cpu"), containsInAnyOrder("star"));
+        assertThat(index.match("servers.db1.cpu"), containsInAnyOrder("star", "alternatives"));
+        assertThat(index.match("hosts.db2.cpu"), containsInAnyOrder("alternatives"));
+        assertThat(index.match("servers.db1.memory"), containsInAnyOrder("dotted"));
+    }
+
+    @Test
+    public void wildcardsStayWithinANode() {
+        assertThat(index.match("servers.web1.extra.cpu").isEmpty(), is(true));
+        assertThat(index.match("servers.web1").isEmpty(), is(true));
+        assertThat(index.match("servers.web1.cpu.rate").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removedPatternNoLongerMatches() {
+        index.remove("servers.*.cpu", "star");
+        index.remove("{servers,hosts}.db[0-9].cpu", "alternatives");
+        assertThat(index.match("servers.db1.cpu").isEmpty(), is(true));
+        assertThat(index.match("servers.web1.cpu"), containsInAnyOrder("exact", "question", "dotted"));
+    }
+
+    @Test
+    public void samePatternCanHoldSeveralValues() {
+        index.add("servers.*.cpu", "another");
+        index.remove("servers.*.cpu", "star");
+        assertThat(index.match("servers.web22.cpu"), containsInAnyOrder("another"));
+    }
+
+    @Test
+    public void removingEverythingEmptiesTheIndex() {
+        index.remove("servers.web1.cpu", "exact");
+        index.remove("servers.*.cpu", "star");
+        index.remove("servers.web?.cpu", "question");
+        index.remove("{servers,hosts}.db[0-9].cpu", "alternatives");
+        index.remove("servers.{web1.cpu,db1.memory}", "dotted");
+        assertThat(index.isEmpty(), is(true));
+    }
+
+    @Test
+    public void patternWithTooManyExpansionsIsMatchedWhole() {
+        String pattern = "{a,b,c,d}.{a,b,c,d}.{a,b,c,d}.{a,b,c,d}.{a,b,c,d}";
+        assertThat(GraphitePathIndex.expand(pattern), is(nullValue()));
+        index.add(pattern, "many");
+        assertThat(index.match("a.b.c.d.a"), containsInAnyOrder("many"));
+        index.remove(pattern, "many");
+        assertThat(index.match("a.b.c.d.a").isEmpty(), is(true));
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class GraphitePathPatternTest {
+
+    @Test
+    public void literalPathMatchesOnlyItself() {
+        GraphitePathPattern pattern = new GraphitePathPattern("service.error.1MinuteRate");
+        assertThat(pattern.matches("service.error.1MinuteRate"), is(true));
+        assertThat(pattern.matches("service.errorX1MinuteRate"), is(false));
+        assertThat(pattern.matches("service.error.1MinuteRate.sum"), is(false));
+    }
+
+    @Test
+    public void starMatchesWithinOneNode() {
+        GraphitePathPattern pattern = new GraphitePathPattern("service.*.1MinuteRate");
+        assertThat(pattern.matches("service.error.1MinuteRate"), is(true));
+        assertThat(pattern.matches("service.a.b.1MinuteRate"), is(false));
+    }
+
+    @Test
+    public void questionMarkMatchesOneCharacter() {
+        GraphitePathPattern pattern = new GraphitePathPattern("host?.cpu");
+        assertThat(pattern.matches("host1.cpu"), is(true));
+        assertThat(pattern.matches("host12.cpu"), is(false));
+    }
+
+    @Test
+    public void characterClassesAreSupported() {
+        GraphitePathPattern pattern = new GraphitePathPattern("host[0-2].cpu");
+        assertThat(pattern.matches("host1.cpu"), is(true));
+        assertThat(pattern.matches("host3.cpu"), is(false));
+    }
+
+    @Test
+    public void alternativesAreSupported() {
+        GraphitePathPattern pattern = new GraphitePathPattern("{eu,us*}.requests");
+        assertThat(pattern.matches("eu.requests"), is(true));
+        assertThat(pattern.matches("us-east.requests"), is(true));
+        assertThat(pattern.matches("ap.requests"), is(false));
+    }
+
+    @Test
+    public void plainPathsAreRecognised() {
+        assertThat(GraphitePathPattern.isPlainPath("service.*.1MinuteRate"), is(true));
+        assertThat(GraphitePathPattern.isPlainPath("{eu,us}.requests"), is(true));
+        assertThat(GraphitePathPattern.isPlainPath("sumSeries(service.*.1MinuteRate)"), is(false));
+        assertThat(GraphitePathPattern.isPlainPath("a.b,c.d"), is(false));
+        assertThat(GraphitePathPattern.isPlainPath(""), is(false));
+    }
+
+    @Test
+    public void wildcardsAreRecognised() {
+        assertThat(GraphitePathPattern.isWildcard("host*.cpu"), is(true));
+        assertThat(GraphitePathPattern.isWildcard("{eu,us}.requests"), is(true));
+        assertThat(GraphitePathPattern.isWildcard("service.error.1MinuteRate"), is(false));
+        assertThat(GraphitePathPattern.isWildcard("sumSeries(service.*.1MinuteRate)"), is(false));
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class GraphiteTimeTest {
+
+    @Test
+    public void relativeTimesAreUnderstood() {
+        assertThat(GraphiteTime.secondsAgo("-11minutes"), is(660L));
+        assertThat(GraphiteTime.secondsAgo("-2h"), is(7200L));
+        assertThat(GraphiteTime.secondsAgo("-1mon"), is(2592000L));
+        assertThat(GraphiteTime.secondsAgo("now"), is(0L));
+    }
+
+    @Test
+    public void otherFormsAreNotUnderstood() {
+        assertThat(GraphiteTime.secondsAgo("-5m"), is(nullValue()));
+        assertThat(GraphiteTime.secondsAgo("12:00_20140101"), is(nullValue()));
+        assertThat(GraphiteTime.secondsAgo("1400000000"), is(nullValue()));
+    }
+
+}
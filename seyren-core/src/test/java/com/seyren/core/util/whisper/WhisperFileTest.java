@@ -0,0 +1,85 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.whisper;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class WhisperFileTest {
+
+    private static final long NOW = 1400000000L;
+
+    @Test
+    public void latestValueInTheWindowIsRead() throws IOException {
+        ByteBuffer buffer = whisper(60, 10);
+        write(buffer, 60, 10, NOW - 300, 1.0);
+        write(buffer, 60, 10, NOW - 180, 2.0);
+        write(buffer, 60, 10, NOW - 10, 3.0);
+        WhisperFile file = new WhisperFile(buffer);
+        assertThat(file.latestValue(NOW - 420, NOW - 60, NOW), is(2.0));
+        assertThat(file.latestValue(NOW - 420, NOW, NOW), is(3.0));
+    }
+
+    @Test
+    public void pointsFromAnEarlierLapOfTheRingAreIgnored() throws IOException {
+        ByteBuffer buffer = whisper(60, 10);
+        // Lands in the slot of NOW - 120 but is ten minutes older
+        write(buffer, 60, 10, NOW - 720, 5.0);
+        write(buffer, 60, 10, NOW - 300, 1.0);
+        WhisperFile file = new WhisperFile(buffer);
+        assertThat(file.latestValue(NOW - 240, NOW, NOW), is(nullValue()));
+        assertThat(file.latestValue(NOW - 420, NOW, NOW), is(1.0));
+    }
+
+    @Test
+    public void emptyFileHasNoValue() throws IOException {
+        assertThat(new WhisperFile(whisper(60, 10)).latestValue(NOW - 600, NOW, NOW), is(nullValue()));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileIsRejected() throws IOException {
+        ByteBuffer buffer = whisper(60, 10);
+        buffer.limit(100);
+        new WhisperFile(buffer.slice());
+    }
+
+    /**
+     * A file with a single archive, written the way whisper.create does.
+     */
+    private static ByteBuffer whisper(int secondsPerPoint, int points) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 12 + points * 12);
+        buffer.putInt(1).putInt(secondsPerPoint * points).putFloat(0.5f).putInt(1);
+        buffer.putInt(28).putInt(secondsPerPoint).putInt(points);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Stores a point the way whisper.update does, relative to the first point
+     * written to the archive.
+     */
+    private static void write(ByteBuffer buffer, int secondsPerPoint, int points, long timestamp, double value) {
+        long interval = timestamp - (timestamp % secondsPerPoint);
+        long base = buffer.getInt(28) & 0xFFFFFFFFL;
+        long slot = base == 0 ? 0 : (((interval - base) / secondsPerPoint) % points + points) % points;
+        buffer.putInt((int) (28 + slot * 12), (int) interval);
+        buffer.putDouble((int) (28 + slot * 12 + 4), value);
+    }
+
+}
@@ -29,6 +29,7 @@ import com.mongodb.DBObject;
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
+import com.seyren.core.domain.CheckPriority;
 import com.seyren.core.domain.GraphiteInstance;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
@@ -43,8 +44,14 @@ public class MongoMapper {
         String target = getString(dbo, "target");
         BigDecimal warn = getBigDecimal(dbo, "warn");
         BigDecimal error = getBigDecimal(dbo, "error");
+        Integer interval = getInteger(dbo, "interval");
+        String from = getString(dbo, "from");
+        String until = getString(dbo, "until");
+        String replicaGroup = getString(dbo, "replicaGroup");
+        CheckPriority priority = getCheckPriority(getString(dbo, "priority"));
         boolean enabled = getBoolean(dbo, "enabled");
         AlertType state = AlertType.valueOf(getString(dbo, "state"));
+        DateTime lastModified = getDateTime(dbo, "lastModified");
         
         List<Subscription> subscriptions = new ArrayList<Subscription>();
         BasicDBList list = getBasicDBList(dbo, "subscriptions");
@@ -59,8 +66,14 @@ public class MongoMapper {
                 .withTarget(target)
                 .withWarn(warn)
                 .withError(error)
+                .withInterval(interval)
+                .withFrom(from)
+                .withUntil(until)
+                .withReplicaGroup(replicaGroup)
+                .withPriority(priority)
                 .withEnabled(enabled)
                 .withState(state)
+                .withLastModified(lastModified)
                 .withSubscriptions(subscriptions);
     }
     
@@ -146,8 +159,26 @@ public class MongoMapper {
         if (check.getError() != null) {
             map.put("error", check.getError().toPlainString());
         }
+        if (check.getInterval() != null) {
+            map.put("interval", check.getInterval());
+        }
+        if (check.getFrom() != null) {
+            map.put("from", check.getFrom());
+        }
+        if (check.getUntil() != null) {
+            map.put("until", check.getUntil());
+        }
+        if (check.getReplicaGroup() != null) {
+            map.put("replicaGroup", check.getReplicaGroup());
+        }
+        if (check.getPriority() != null) {
+            map.put("priority", check.getPriority().toString());
+        }
         map.put("enabled", check.isEnabled());
         map.put("state", check.getState().toString());
+        if (check.getLastModified() != null) {
+            map.put("lastModified", new Date(check.getLastModified().getMillis()));
+        }
         return map;
     }
     
@@ -234,6 +265,14 @@ public class MongoMapper {
         return (Integer) dbo.get(key);
     }
     
+    /**
+     * For documents written by hand, where the mongo shell stores every
+     * number as a double.
+     */
+    private Number getNumber(DBObject dbo, String key) {
+        return (Number) dbo.get(key);
+    }
+    
     private BasicDBList getBasicDBList(DBObject dbo, String key) {
         BasicDBList result = (BasicDBList) dbo.get(key);
         if (result == null) {
@@ -246,12 +285,32 @@ public class MongoMapper {
         return value == null ? null : SubscriptionType.valueOf(value);
     }
     
+    private CheckPriority getCheckPriority(String value) {
+        return value == null ? null : CheckPriority.valueOf(value);
+    }
+    
     public GraphiteInstance graphiteInstanceFrom(DBObject dbo) {
     	String id = dbo.get("_id").toString();
     	String name = getString(dbo, "name");
     	String baseUrl = getString(dbo, "baseUrl");
+    	Number maxConcurrentRequests = getNumber(dbo, "maxConcurrentRequests");
+    	Number maxRequestsPerSecond = getNumber(dbo, "maxRequestsPerSecond");
+    	Number maxConnections = getNumber(dbo, "maxConnections");
+    	Number connectTimeoutMillis = getNumber(dbo, "connectTimeoutMillis");
+    	Number socketTimeoutMillis = getNumber(dbo, "socketTimeoutMillis");
+    	Number requestTimeoutMillis = getNumber(dbo, "requestTimeoutMillis");
+    	Number keepAliveMillis = getNumber(dbo, "keepAliveMillis");
+    	String replicaGroup = getString(dbo, "replicaGroup");
     	return new GraphiteInstance().withId(id)
     			.withName(name)
-    			.withBaseUrl(baseUrl);
+    			.withBaseUrl(baseUrl)
+    			.withMaxConcurrentRequests(maxConcurrentRequests == null ? null : maxConcurrentRequests.intValue())
+    			.withMaxRequestsPerSecond(maxRequestsPerSecond == null ? null : maxRequestsPerSecond.doubleValue())
+    			.withMaxConnections(maxConnections == null ? null : maxConnections.intValue())
+    			.withConnectTimeoutMillis(connectTimeoutMillis == null ? null : connectTimeoutMillis.intValue())
+    			.withSocketTimeoutMillis(socketTimeoutMillis == null ? null : socketTimeoutMillis.intValue())
+    			.withRequestTimeoutMillis(requestTimeoutMillis == null ? null : requestTimeoutMillis.intValue())
+    			.withKeepAliveMillis(keepAliveMillis == null ? null : keepAliveMillis.intValue())
+    			.withReplicaGroup(replicaGroup);
     }
 }
@@ -18,14 +18,21 @@ import static com.seyren.mongo.NiceDBObject.object;
 import static org.springframework.util.Assert.notNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.bson.types.ObjectId;
+import org.joda.time.DateTime;
 
+import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
@@ -33,6 +40,7 @@ import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoURI;
 import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.GraphiteInstance;
 import com.seyren.core.domain.SeyrenResponse;
@@ -62,10 +70,24 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        bootstrap();
     }
 
     public MongoStore(DB mongo) {
         this.mongo = mongo;
+        bootstrap();
+    }
+    
+    private void bootstrap() {
+        getAlertsCollection().ensureIndex(lastAlertIndex());
+    }
+    
+    /**
+     * Finds the latest alerts of each target of a check without scanning
+     * the rest of its alert history.
+     */
+    static DBObject lastAlertIndex() {
+        return object("checkId", 1).with("graphiteBaseUrl", 1).with("target", 1).with("timestamp", -1);
     }
     
     private DBCollection getChecksCollection() {
@@ -138,6 +160,7 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     @Override
     public Check createCheck(Check check) {
         check.setId(ObjectId.get().toString());
+        check.setLastModified(new DateTime());
         getChecksCollection().insert(mapper.checkToDBObject(check));
         return check;
     }
@@ -151,6 +174,8 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     	notNull(check.getError(), "check.error can't be null");
     	notNull(check.getState(), "check.state can't be null");
     	
+        check.setLastModified(new DateTime());
+        
         DBObject findObject = forId(check.getId());
         
         DBObject updateObject = object("name", check.getName())
@@ -159,8 +184,14 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
                 .with("target", check.getTarget())
                 .with("warn", check.getWarn().toPlainString())
                 .with("error", check.getError().toPlainString())
+                .with("interval", check.getInterval())
+                .with("from", check.getFrom())
+                .with("until", check.getUntil())
+                .with("replicaGroup", check.getReplicaGroup())
+                .with("priority", check.getPriority() == null ? null : check.getPriority().toString())
                 .with("enabled", check.isEnabled())
-                .with("state", check.getState().toString());
+                .with("state", check.getState().toString())
+                .with("lastModified", new Date(check.getLastModified().getMillis()));
         
         DBObject setObject = object("$set", updateObject);
         
@@ -169,6 +200,29 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         return check;
     }
     
+    @Override
+    public void updateCheckState(String checkId, AlertType state) {
+        notNull(state, "state can't be null");
+        getChecksCollection().update(forId(checkId), object("$set", object("state", state.toString())));
+    }
+    
+    @Override
+    public SeyrenResponse<Check> getChecksModifiedSince(DateTime since) {
+        List<Check> checks = new ArrayList<Check>();
+        DBCursor dbc = getChecksCollection().find(object("lastModified", object("$gte", new Date(since.getMillis()))));
+        try {
+            while (dbc.hasNext()) {
+                checks.add(mapper.checkFrom(dbc.next()));
+            }
+            
+            return new SeyrenResponse<Check>()
+                    .withValues(checks)
+                    .withTotal(dbc.count());
+        } finally {
+            dbc.close();
+        }
+    }
+    
     @Override
     public Alert createAlert(String checkId, Alert alert) {
         alert.setId(ObjectId.get().toString());
@@ -231,11 +285,41 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         return null;
     }
     
+    @Override
+    public Map<String, AlertType> getLastAlertStatesOfCheck(String graphiteBaseUrl, String checkId, Collection<String> targets) {
+        if (targets.isEmpty()) {
+            return new HashMap<String, AlertType>();
+        }
+        List<DBObject> pipeline = lastAlertStatesPipeline(graphiteBaseUrl, checkId, targets);
+        AggregationOutput output = getAlertsCollection().aggregate(pipeline.get(0), pipeline.subList(1, pipeline.size()).toArray(new DBObject[0]));
+        return lastAlertStatesFrom(output.results());
+    }
+    
+    /**
+     * Matches only the given targets and sorts in the order of
+     * {@link #lastAlertIndex()}, so that both are served by the index.
+     */
+    static List<DBObject> lastAlertStatesPipeline(String graphiteBaseUrl, String checkId, Collection<String> targets) {
+        return Arrays.<DBObject> asList(
+                object("$match", object("checkId", checkId).with("graphiteBaseUrl", graphiteBaseUrl).with("target", object("$in", targets.toArray()))),
+                object("$sort", lastAlertIndex()),
+                object("$group", object("_id", "$target").with("toType", object("$first", "$toType"))));
+    }
+    
+    static Map<String, AlertType> lastAlertStatesFrom(Iterable<DBObject> results) {
+        Map<String, AlertType> states = new HashMap<String, AlertType>();
+        for (DBObject result : results) {
+            states.put((String) result.get("_id"), AlertType.valueOf((String) result.get("toType")));
+        }
+        return states;
+    }
+    
     @Override
     public Subscription createSubscription(String checkId, Subscription subscription) {
         subscription.setId(ObjectId.get().toString());
         DBObject check = forId(checkId);
-        DBObject query = object("$push", object("subscriptions", mapper.subscriptionToDBObject(subscription)));
+        DBObject query = object("$push", object("subscriptions", mapper.subscriptionToDBObject(subscription)))
+                .with("$set", lastModifiedNow());
         getChecksCollection().update(check, query);
         return subscription;
     }
@@ -243,7 +327,8 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     @Override
     public void deleteSubscription(String checkId, String subscriptionId) {
         DBObject check = forId(checkId);
-        BasicDBObject subscription = object("$pull", object("subscriptions", forId(subscriptionId)));
+        BasicDBObject subscription = object("$pull", object("subscriptions", forId(subscriptionId)))
+                .with("$set", lastModifiedNow());
         getChecksCollection().update(check, subscription);
     }
     
@@ -252,9 +337,14 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         DBObject subscriptionObject = mapper.subscriptionToDBObject(subscription);
         DBObject subscriptionFindObject = forId(subscription.getId());
         DBObject checkFindObject = forId(checkId).with("subscriptions", object("$elemMatch", subscriptionFindObject));
-        DBObject updateObject = object("$set", object("subscriptions.$", subscriptionObject));
+        DBObject updateObject = object("$set", object("subscriptions.$", subscriptionObject)
+                .with("lastModified", new Date()));
         getChecksCollection().update(checkFindObject, updateObject);
     }
+    
+    private DBObject lastModifiedNow() {
+        return object("lastModified", new Date());
+    }
 
 	@Override
 	public SeyrenResponse<GraphiteInstance> getGraphiteInstances() {
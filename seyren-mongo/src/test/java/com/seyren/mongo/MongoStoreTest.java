@@ -0,0 +1,70 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.seyren.core.domain.AlertType;
+
+public class MongoStoreTest {
+    
+    @Test
+    public void lastAlertIndexLeadsWithTheCheckAndEndsWithTheNewestAlert() {
+        DBObject index = MongoStore.lastAlertIndex();
+        assertThat(new ArrayList<String>(index.keySet()), contains("checkId", "graphiteBaseUrl", "target", "timestamp"));
+        assertThat(index.get("timestamp"), is((Object) (-1)));
+    }
+    
+    @Test
+    public void lastAlertStatesMatchOnlyTheGivenTargetsOfTheCheck() {
+        List<DBObject> pipeline = MongoStore.lastAlertStatesPipeline("http://graphite", "id", Arrays.asList("a", "b"));
+        
+        DBObject match = (DBObject) pipeline.get(0).get("$match");
+        assertThat(match.get("checkId"), is((Object) "id"));
+        assertThat(match.get("graphiteBaseUrl"), is((Object) "http://graphite"));
+        assertThat((Object[]) ((DBObject) match.get("target")).get("$in"), is(new Object[] { "a", "b" }));
+    }
+    
+    @Test
+    public void lastAlertStatesAreSortedInIndexOrder() {
+        List<DBObject> pipeline = MongoStore.lastAlertStatesPipeline("http://graphite", "id", Arrays.asList("a"));
+        
+        assertThat(pipeline.get(1).get("$sort"), is((Object) MongoStore.lastAlertIndex()));
+        assertThat(pipeline.get(2).get("$group"), is((Object) new BasicDBObject("_id", "$target").append("toType", new BasicDBObject("$first", "$toType"))));
+    }
+    
+    @Test
+    public void lastAlertStatesAreKeyedByTarget() {
+        List<DBObject> results = Arrays.<DBObject> asList(
+                new BasicDBObject("_id", "a").append("toType", "WARN"),
+                new BasicDBObject("_id", "b").append("toType", "OK"));
+        
+        Map<String, AlertType> states = MongoStore.lastAlertStatesFrom(results);
+        
+        assertThat(states.size(), is(2));
+        assertThat(states.get("a"), is(AlertType.WARN));
+        assertThat(states.get("b"), is(AlertType.OK));
+    }
+    
+}